@@ -1,23 +1,39 @@
 package com.cc.lox;
 
+import com.cc.lox.cache.CompiledScript;
+import com.cc.lox.cache.ScriptCache;
 import com.cc.lox.resolve.Resolver;
+import com.cc.lox.closure.ClosureEngine;
+import com.cc.lox.interpreter.Engine;
 import com.cc.lox.interpreter.LoxInterpreter;
 import com.cc.lox.error.RuntimeError;
 import com.cc.lox.parser.Parser;
 import com.cc.lox.parser.statement.Statement;
 import com.cc.lox.scanner.Scanner;
 import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.source.CharSource;
+import com.cc.lox.scanner.source.TokenSource;
+import com.cc.lox.scanner.source.impl.BufferTokenSource;
+import com.cc.lox.scanner.source.impl.ScannerTokenSource;
 import com.cc.lox.scanner.type.TokenType;
+import com.cc.lox.serialize.AstFormat;
+import com.cc.lox.serialize.AstReader;
+import com.cc.lox.serialize.AstWriter;
+import com.cc.lox.vm.VirtualMachine;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * @author cc
@@ -29,20 +45,114 @@ public class Lox {
 
     private static boolean hadRuntimeError = false;
 
-    private static final LoxInterpreter INTERPRETER = new LoxInterpreter();
+    /**
+     * 执行引擎, 默认是树遍历解释器
+     */
+    private static Engine engine = new LoxInterpreter();
+
+    /**
+     * 编译结果缓存, 上限可以通过 -Dlox.cache.bytes 配置
+     */
+    private static final ScriptCache SCRIPT_CACHE = new ScriptCache(Long.getLong("lox.cache.bytes", 64L << 20));
+
+    /**
+     * 把脚本编译成 .loxc 文件, 而不是运行
+     */
+    private static final String COMPILE_OPTION = "--compile";
+
+    /**
+     * 函数体延迟到第一次调用时再解析
+     */
+    private static final String LAZY_OPTION = "--lazy";
+
+    private static boolean lazy = false;
+
+    /**
+     * 把语法树编译成闭包树再执行
+     */
+    private static final String CLOSURE_OPTION = "--closure";
+
+    /**
+     * 树遍历解释器把热的函数即时编译成 JVM 字节码, 阈值可以通过 -Dlox.jit.threshold 配置
+     */
+    private static final String JIT_OPTION = "--jit";
+
+    /**
+     * 把语法树编译成字节码, 在栈式虚拟机上执行
+     */
+    private static final String VM_OPTION = "--vm";
+
+    /**
+     * 使用虚拟机执行, 并且打印每段字节码的反汇编结果
+     */
+    private static final String DISASSEMBLE_OPTION = "--disassemble";
+
+    private static final List<String> ENGINE_OPTIONS = Arrays.asList(CLOSURE_OPTION, JIT_OPTION, VM_OPTION, DISASSEMBLE_OPTION);
 
     public static void main(String[] args) throws IOException {
         System.out.println("Lox start");
-        if (args.length > 1) {
-            System.out.println("Usage jLox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runScript(args[0]);
+        boolean compile = false;
+        String engineOption = null;
+        String script = null;
+        String output = null;
+        for (String arg : args) {
+            if (COMPILE_OPTION.equals(arg) && !compile) {
+                compile = true;
+            } else if (LAZY_OPTION.equals(arg) && !lazy) {
+                lazy = true;
+            } else if (ENGINE_OPTIONS.contains(arg)) {
+                // 执行引擎只能选一个
+                if (Objects.nonNull(engineOption)) {
+                    usage();
+                }
+                engineOption = arg;
+            } else if (Objects.isNull(script)) {
+                script = arg;
+            } else if (compile && Objects.isNull(output)) {
+                output = arg;
+            } else {
+                usage();
+            }
+        }
+        if (Objects.nonNull(engineOption)) {
+            engine = createEngine(engineOption);
+        }
+
+        if (compile) {
+            if (Objects.isNull(script)) {
+                usage();
+            }
+            compileScript(script, output);
+        } else if (Objects.nonNull(script)) {
+            runScript(script);
         } else {
             runPrompt();
         }
     }
 
+    /**
+     * @param option 选择执行引擎的参数
+     * @return 对应的执行引擎
+     */
+    private static Engine createEngine(String option) {
+        switch (option) {
+            case CLOSURE_OPTION:
+                return new ClosureEngine();
+            case JIT_OPTION:
+                return new LoxInterpreter(Integer.getInteger("lox.jit.threshold", 1000));
+            case VM_OPTION:
+                return new VirtualMachine(false);
+            default:
+                return new VirtualMachine(true);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage jLox [" + LAZY_OPTION + "] [" + CLOSURE_OPTION + " | " + JIT_OPTION + " | " + VM_OPTION + " | " + DISASSEMBLE_OPTION + "] [script | script" + AstFormat.EXTENSION + "]");
+        System.out.println("      jLox " + COMPILE_OPTION + " script [output" + AstFormat.EXTENSION + "]");
+        System.exit(64);
+    }
+
 
     /**
      * 交互式运行
@@ -68,14 +178,24 @@ public class Lox {
     }
 
     /**
-     * 脚本式运行
+     * 脚本式运行, 文件以内存映射的方式边读边解析, .loxc 文件直接加载语法树
      *
      * @param script 脚本
      * @throws IOException io 错误
      */
     private static void runScript(String script) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(script));
-        run(new String(bytes, Charset.defaultCharset()));
+        MappedByteBuffer bytes = CharSource.mapFile(Paths.get(script));
+        if (script.endsWith(AstFormat.EXTENSION)) {
+            try {
+                execute(new AstReader(bytes).read());
+            } catch (IOException e) {
+                // 文件损坏或者版本不对, 和语法错误一样报告
+                error(script + ": " + e.getMessage());
+            }
+        } else {
+            run(ScriptCache.key(bytes), bytes.remaining(),
+                    () -> new ScannerTokenSource(new Scanner(CharSource.of(bytes, Charset.defaultCharset()))));
+        }
         if (hadError) {
             System.exit(65);
         }
@@ -90,24 +210,91 @@ public class Lox {
      * @param script 脚本
      */
     private static void run(String script) {
-        // 扫猫
-        Scanner scanner = new Scanner(script);
-        List<Token> tokens = scanner.scanTokens();
+        // 源文本已经在内存中, 扫描到紧凑缓冲区
+        run(ScriptCache.key(script), script.length(), () -> new BufferTokenSource(new Scanner(script).scanBuffer()));
+    }
+
+    /**
+     * 正式运行, 相同内容的脚本直接复用缓存的编译结果
+     *
+     * @param key         源文本内容的哈希
+     * @param sourceBytes 源文本大小
+     * @param tokens      缓存没有命中时使用的 token 流
+     */
+    private static void run(String key, long sourceBytes, Supplier<TokenSource> tokens) {
+        CompiledScript script = SCRIPT_CACHE.get(key);
+        if (Objects.isNull(script)) {
+            script = compile(tokens.get(), sourceBytes, lazy);
+            if (Objects.isNull(script)) {
+                return;
+            }
+            SCRIPT_CACHE.put(key, script);
+        }
+        execute(script);
+    }
+
+    /**
+     * 把脚本编译成 .loxc 文件
+     *
+     * @param script 脚本
+     * @param output 输出文件, 为空时替换脚本的扩展名
+     * @throws IOException io 错误
+     */
+    private static void compileScript(String script, String output) throws IOException {
+        Path path = Paths.get(script);
+        if (Objects.isNull(output)) {
+            output = script.replaceFirst("\\.lox$", "") + AstFormat.EXTENSION;
+        }
+        MappedByteBuffer bytes = CharSource.mapFile(path);
+        CompiledScript compiled = compile(new ScannerTokenSource(new Scanner(CharSource.of(bytes, Charset.defaultCharset()))), bytes.remaining(), false);
+        if (Objects.isNull(compiled)) {
+            System.exit(65);
+        }
+        Files.write(Paths.get(output), new AstWriter().write(compiled.getStatements()));
+    }
 
+    /**
+     * 执行编译好的脚本
+     *
+     * @param script 编译结果
+     */
+    private static void execute(CompiledScript script) {
+        engine.interpret(script.getStatements());
+    }
+
+    /**
+     * 扫描、解析、变量解析
+     *
+     * @param tokens      token 流
+     * @param sourceBytes 源文本大小
+     * @param lazy        函数体是否延迟解析
+     * @return 编译结果, 有错误返回 null
+     */
+    private static CompiledScript compile(TokenSource tokens, long sourceBytes, boolean lazy) {
         // 解析
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(tokens, lazy);
         List<Statement> statements = parser.parse();
 
         // Stop if there was a syntax error.
         if (hadError) {
-            return;
+            return null;
         }
-        Resolver resolver = new Resolver(INTERPRETER);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
         if (hadError) {
-            return;
+            return null;
         }
-        INTERPRETER.interpret(statements);
+        return new CompiledScript(statements, ScriptCache.estimateWeight(sourceBytes));
+    }
+
+    /**
+     * 报告和具体行无关的错误
+     *
+     * @param message 信息
+     */
+    public static void error(String message) {
+        System.out.println("Error " + ": " + message);
+        hadError = true;
     }
 
     /**
@@ -0,0 +1,28 @@
+package com.cc.lox.cache;
+
+import com.cc.lox.parser.statement.Statement;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 扫描、解析、变量解析都已经完成的脚本, 变量解析结果记录在语法树上, 可以直接交给解释器执行
+ *
+ * @author cc
+ * @date 2023/10/24
+ */
+@Getter
+@AllArgsConstructor
+public class CompiledScript {
+
+    /**
+     * 语法树
+     */
+    private final List<Statement> statements;
+
+    /**
+     * 估算的内存占用, 单位字节
+     */
+    private final long weight;
+}
@@ -0,0 +1,120 @@
+package com.cc.lox.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 以源文本内容的哈希为键的编译结果缓存, 按最近最少使用淘汰, 总的估算内存不超过上限
+ *
+ * @author cc
+ * @date 2023/10/24
+ */
+public class ScriptCache {
+
+    /**
+     * 估算时每个源文本字节对应的语法树内存
+     */
+    public static final int BYTES_PER_SOURCE_BYTE = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long maxWeight;
+
+    private long weight = 0;
+
+    private final LinkedHashMap<String, CompiledScript> scripts = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxWeight 内存上限, 单位字节
+     */
+    public ScriptCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @param source 源文本
+     * @return 缓存的键
+     */
+    public static String key(String source) {
+        return key(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param source 源文本的字节, 不会改变 buffer 的位置
+     * @return 缓存的键
+     */
+    public static String key(ByteBuffer source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(source.duplicate());
+        byte[] hash = digest.digest();
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param sourceBytes 源文本的字节数
+     * @return 估算的编译结果内存占用
+     */
+    public static long estimateWeight(long sourceBytes) {
+        return sourceBytes * BYTES_PER_SOURCE_BYTE;
+    }
+
+    /**
+     * @param key 键
+     * @return 编译结果, 没有缓存返回 null
+     */
+    public synchronized CompiledScript get(String key) {
+        return scripts.get(key);
+    }
+
+    /**
+     * 放入缓存, 超过上限时淘汰最久没有使用的, 单个超过上限的不缓存
+     *
+     * @param key    键
+     * @param script 编译结果
+     */
+    public synchronized void put(String key, CompiledScript script) {
+        if (script.getWeight() > maxWeight) {
+            return;
+        }
+        CompiledScript old = scripts.put(key, script);
+        if (old != null) {
+            weight -= old.getWeight();
+        }
+        weight += script.getWeight();
+
+        Iterator<Map.Entry<String, CompiledScript>> iterator = scripts.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().getValue().getWeight();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return 缓存的脚本数量
+     */
+    public synchronized int size() {
+        return scripts.size();
+    }
+
+    /**
+     * @return 当前估算的内存占用
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+}
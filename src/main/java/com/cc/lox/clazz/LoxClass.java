@@ -3,10 +3,10 @@ package com.cc.lox.clazz;
 import com.cc.lox.function.LoxCallable;
 import com.cc.lox.function.impl.LoxFunction;
 import com.cc.lox.interpreter.LoxInterpreter;
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Getter;
 
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
 
@@ -15,7 +15,6 @@ import java.util.Objects;
  * @date 2023/10/14
  */
 @Getter
-@AllArgsConstructor
 public class LoxClass implements LoxCallable {
 
     public final static String INIT = "init";
@@ -24,18 +23,43 @@ public class LoxClass implements LoxCallable {
 
     private final LoxClass superclass;
 
-    private final Map<String, LoxFunction> methods;
+    /**
+     * 选择子 -> 方法, 已经合并了父类的方法, 创建之后不再修改
+     */
+    @Getter(AccessLevel.NONE)
+    private final LoxFunction[] methods;
 
-    public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
+    /**
+     * 这个类的实例的字段布局从这里开始转换
+     */
+    private final Shape shape = Shape.root();
 
-        if (Objects.nonNull(superclass)) {
-            return superclass.findMethod(name);
+    /**
+     * @param name       类名
+     * @param superclass 父类, 没有时为 null
+     * @param methods    类里声明的方法
+     */
+    public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        LoxFunction[] inherited = Objects.isNull(superclass) ? new LoxFunction[0] : superclass.methods;
+        int length = inherited.length;
+        for (String method : methods.keySet()) {
+            length = Math.max(length, Selector.of(method) + 1);
+        }
+        // 先复制父类的方法表, 再用自己的方法覆盖
+        this.methods = Arrays.copyOf(inherited, length);
+        for (Map.Entry<String, LoxFunction> entry : methods.entrySet()) {
+            this.methods[Selector.of(entry.getKey())] = entry.getValue();
         }
+    }
 
-        return null;
+    /**
+     * @param selector 方法名的选择子
+     * @return 这个类或者父类里的方法, 没有时返回 null
+     */
+    public LoxFunction findMethod(int selector) {
+        return selector < methods.length ? methods[selector] : null;
     }
 
     @Override
@@ -45,7 +69,7 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int getArity() {
-        LoxFunction initializer = findMethod(INIT);
+        LoxFunction initializer = findMethod(Selector.INIT);
         if (Objects.isNull(initializer)) {
             return 0;
         }
@@ -53,11 +77,45 @@ public class LoxClass implements LoxCallable {
     }
 
     @Override
-    public Object call(LoxInterpreter interpreter, List<Object> arguments) {
+    public Object call(LoxInterpreter interpreter, Object[] arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = findMethod(Selector.INIT);
+        if (Objects.nonNull(initializer)) {
+            initializer.invoke(interpreter, instance, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter) {
+        return construct(interpreter, 0, null, null, null, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0) {
+        return construct(interpreter, 1, a0, null, null, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0, Object a1) {
+        return construct(interpreter, 2, a0, a1, null, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0, Object a1, Object a2) {
+        return construct(interpreter, 3, a0, a1, a2, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return construct(interpreter, 4, a0, a1, a2, a3);
+    }
+
+    private LoxInstance construct(LoxInterpreter interpreter, int count, Object a0, Object a1, Object a2, Object a3) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod(INIT);
+        LoxFunction initializer = findMethod(Selector.INIT);
         if (Objects.nonNull(initializer)) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, count, a0, a1, a2, a3);
         }
         return instance;
     }
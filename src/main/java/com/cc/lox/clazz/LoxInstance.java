@@ -4,8 +4,7 @@ import com.cc.lox.error.RuntimeError;
 import com.cc.lox.function.impl.LoxFunction;
 import com.cc.lox.scanner.Token;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -16,19 +15,38 @@ public class LoxInstance {
 
     private final LoxClass klass;
 
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    /**
+     * 字段布局, 决定 values 里每个槽位是哪个字段
+     */
+    private Shape shape;
+
+    /**
+     * 按 shape 的槽位排列的字段值, 长度可能大于字段个数
+     */
+    private Object[] values;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.getShape();
+        int capacity = shape.getCapacity();
+        this.values = capacity == 0 ? NO_FIELDS : new Object[capacity];
     }
 
-    public Object get(Token name) {
+    /**
+     * @param name     属性名
+     * @param selector 属性名的选择子, 字段里没有时按它找方法
+     * @return 字段的值, 或者绑定到这个实例的方法
+     */
+    public Object get(Token name, int selector) {
 
-        if (fields.containsKey(name.getLexeme())) {
-            return fields.get(name.getLexeme());
+        int slot = shape.indexOf(selector);
+        if (slot >= 0) {
+            return values[slot];
         }
 
-        LoxFunction method = klass.findMethod(name.getLexeme());
+        LoxFunction method = klass.findMethod(selector);
         if (Objects.nonNull(method)) {
             return method.bind(this);
         }
@@ -36,8 +54,34 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
     }
 
-    public void set(Token name, Object value) {
-        fields.put(name.getLexeme(), value);
+    /**
+     * 调用 obj.name(...) 时不创建绑定后的函数, 直接拿到方法
+     *
+     * @param name     属性名
+     * @param selector 属性名的选择子
+     * @return 类里的方法; 有同名字段或者没有这个方法时返回 null, 这时按 {@link #get} 取值
+     */
+    public LoxFunction getMethod(Token name, int selector) {
+        if (shape.indexOf(selector) >= 0) {
+            return null;
+        }
+        return klass.findMethod(selector);
+    }
+
+    /**
+     * @param selector 字段名的选择子
+     * @param value    字段的值
+     */
+    public void set(int selector, Object value) {
+        int slot = shape.indexOf(selector);
+        if (slot < 0) {
+            slot = shape.getSize();
+            shape = shape.with(selector);
+            if (slot == values.length) {
+                values = Arrays.copyOf(values, Math.max(shape.getCapacity(), slot + 1));
+            }
+        }
+        values[slot] = value;
     }
 
     @Override
@@ -0,0 +1,36 @@
+package com.cc.lox.clazz;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 方法名 -> 选择子, 选择子是从 0 开始的小整数, 类的方法表按选择子下标存放方法
+ * <p>
+ * 选择子在整个进程里唯一, 同一个名字在所有类、所有解释器里都是同一个选择子
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public final class Selector {
+
+    private static final Map<String, Integer> SELECTORS = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger NEXT = new AtomicInteger();
+
+    /**
+     * 构造函数的选择子, 最先分配, 固定为 0
+     */
+    public static final int INIT = of(LoxClass.INIT);
+
+    private Selector() {
+    }
+
+    /**
+     * @param name 方法名
+     * @return 名字对应的选择子, 第一次出现时分配一个新的
+     */
+    public static int of(String name) {
+        return SELECTORS.computeIfAbsent(name, key -> NEXT.getAndIncrement());
+    }
+}
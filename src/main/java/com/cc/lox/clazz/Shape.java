@@ -0,0 +1,110 @@
+package com.cc.lox.clazz;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * 实例的隐藏类: 字段的选择子 -> 槽位, 按相同顺序添加字段的实例共享同一个 Shape
+ * <p>
+ * 每个类有一个空的根 Shape, 给实例添加新字段时沿着转换链走到 (或创建) 下一个 Shape,
+ * Shape 创建之后不再修改, 实例本身只保存一个按槽位排列的 Object[]。
+ * 实例的字段通常只有几个, 按选择子在小数组里顺序查找, 不经过哈希和拆箱
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public final class Shape {
+
+    private static final int[] NO_SELECTORS = new int[0];
+
+    private static final Shape[] NO_SHAPES = new Shape[0];
+
+    private final Shape root;
+
+    /**
+     * 下标是槽位, 值是这个槽位上字段的选择子
+     */
+    private final int[] selectors;
+
+    /**
+     * 转换: transitionKeys[i] 是新字段的选择子, transitionTargets[i] 是添加这个字段后的 Shape
+     */
+    private int[] transitionKeys = NO_SELECTORS;
+
+    private Shape[] transitionTargets = NO_SHAPES;
+
+    /**
+     * 字段个数, 新字段的槽位就是当前的 size
+     */
+    @Getter
+    private final int size;
+
+    /**
+     * 只在根 Shape 上维护: 这个类的实例出现过的最多字段数
+     */
+    private int capacity = 0;
+
+    private Shape() {
+        this.root = this;
+        this.selectors = NO_SELECTORS;
+        this.size = 0;
+    }
+
+    private Shape(Shape parent, int selector) {
+        this.root = parent.root;
+        this.size = parent.size + 1;
+        this.selectors = Arrays.copyOf(parent.selectors, size);
+        this.selectors[parent.size] = selector;
+        root.capacity = Math.max(root.capacity, size);
+    }
+
+    /**
+     * @return 一个新的空 Shape, 作为某个类的转换链的根
+     */
+    static Shape root() {
+        return new Shape();
+    }
+
+    /**
+     * 新实例按它分配字段数组, 避免在构造函数里一个个字段地扩容
+     *
+     * @return 同一个类的实例出现过的最多字段数
+     */
+    int getCapacity() {
+        return root.capacity;
+    }
+
+    /**
+     * @param selector 字段名的选择子
+     * @return 槽位, 没有这个字段时返回 -1
+     */
+    public int indexOf(int selector) {
+        int[] selectors = this.selectors;
+        for (int i = 0; i < selectors.length; i++) {
+            if (selectors[i] == selector) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param selector 不在这个 Shape 里的字段名的选择子
+     * @return 添加这个字段后的 Shape, 槽位是当前的 size
+     */
+    Shape with(int selector) {
+        for (int i = 0; i < transitionKeys.length; i++) {
+            if (transitionKeys[i] == selector) {
+                return transitionTargets[i];
+            }
+        }
+        Shape next = new Shape(this, selector);
+        int count = transitionKeys.length;
+        transitionKeys = Arrays.copyOf(transitionKeys, count + 1);
+        transitionTargets = Arrays.copyOf(transitionTargets, count + 1);
+        transitionKeys[count] = selector;
+        transitionTargets[count] = next;
+        return next;
+    }
+}
@@ -0,0 +1,303 @@
+package com.cc.lox.closure;
+
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.type.TokenType;
+
+/**
+ * 根据见过的操作数类型自我改写的二元运算
+ * <p>
+ * 还没有执行过的节点第一次执行时, 按操作数类型把自己替换成只处理数字或者只拼接字符串的节点;
+ * 特化的节点用 instanceof 检查类型, 遇到别的类型时把自己替换成通用的节点, 之后不再特化。
+ * 每种运算是单独的类, 运算本身不经过虚调用
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+abstract class BinaryNode implements ExpressionNode {
+
+    /**
+     * 父节点引用这个节点的位置
+     */
+    final NodeSite site;
+
+    final ExpressionNode left;
+
+    final ExpressionNode right;
+
+    final Token operator;
+
+    BinaryNode(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+        this.site = site;
+        this.left = left;
+        this.right = right;
+        this.operator = operator;
+    }
+
+    /**
+     * @param left     left
+     * @param right    right
+     * @param operator 比较或者算术运算符
+     * @return 父节点引用的位置, 里面是还没有执行过的节点
+     */
+    static NodeSite create(ExpressionNode left, ExpressionNode right, Token operator) {
+        return NodeSite.of(site -> new Uninitialized(site, left, right, operator));
+    }
+
+    /**
+     * 特化的类型检查失败, 换成通用的节点
+     *
+     * @return 通用的计算结果
+     */
+    final Object generalize(Object l, Object r) {
+        site.replace(new Generic(site, left, right, operator));
+        return generic(operator, l, r);
+    }
+
+    private static Object generic(Token operator, Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) {
+            double a = (Double) l;
+            double b = (Double) r;
+            switch (operator.getType()) {
+                case GREATER:
+                    return a > b;
+                case GREATER_EQUAL:
+                    return a >= b;
+                case LESS:
+                    return a < b;
+                case LESS_EQUAL:
+                    return a <= b;
+                case MINUS:
+                    return a - b;
+                case SLASH:
+                    return a / b;
+                case STAR:
+                    return a * b;
+                case PLUS:
+                    return a + b;
+                default:
+                    throw new RuntimeError(operator, "Unknown binaryExpression token");
+            }
+        }
+        if (operator.getType() == TokenType.PLUS) {
+            if (l instanceof String && r instanceof String) {
+                return l + (String) r;
+            }
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    /**
+     * 还没有执行过, 第一次执行时根据操作数类型选择特化
+     */
+    static final class Uninitialized extends BinaryNode {
+
+        Uninitialized(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            site.replace(specialize(l, r));
+            return generic(operator, l, r);
+        }
+
+        private BinaryNode specialize(Object l, Object r) {
+            if (l instanceof Double && r instanceof Double) {
+                switch (operator.getType()) {
+                    case GREATER:
+                        return new NumberGreater(site, left, right, operator);
+                    case GREATER_EQUAL:
+                        return new NumberGreaterEqual(site, left, right, operator);
+                    case LESS:
+                        return new NumberLess(site, left, right, operator);
+                    case LESS_EQUAL:
+                        return new NumberLessEqual(site, left, right, operator);
+                    case MINUS:
+                        return new NumberSubtract(site, left, right, operator);
+                    case SLASH:
+                        return new NumberDivide(site, left, right, operator);
+                    case STAR:
+                        return new NumberMultiply(site, left, right, operator);
+                    default:
+                        return new NumberAdd(site, left, right, operator);
+                }
+            }
+            if (operator.getType() == TokenType.PLUS && l instanceof String && r instanceof String) {
+                return new StringConcat(site, left, right, operator);
+            }
+            return new Generic(site, left, right, operator);
+        }
+    }
+
+    /**
+     * 见过不同的类型, 之后一直走通用的路径
+     */
+    static final class Generic extends BinaryNode {
+
+        Generic(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            return generic(operator, left.evaluate(frame), right.evaluate(frame));
+        }
+    }
+
+    static final class StringConcat extends BinaryNode {
+
+        StringConcat(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof String && r instanceof String) {
+                return ((String) l).concat((String) r);
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberAdd extends BinaryNode {
+
+        NumberAdd(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l + (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberSubtract extends BinaryNode {
+
+        NumberSubtract(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l - (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberMultiply extends BinaryNode {
+
+        NumberMultiply(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l * (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberDivide extends BinaryNode {
+
+        NumberDivide(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l / (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberGreater extends BinaryNode {
+
+        NumberGreater(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l > (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberGreaterEqual extends BinaryNode {
+
+        NumberGreaterEqual(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l >= (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberLess extends BinaryNode {
+
+        NumberLess(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l < (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+
+    static final class NumberLessEqual extends BinaryNode {
+
+        NumberLessEqual(NodeSite site, ExpressionNode left, ExpressionNode right, Token operator) {
+            super(site, left, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object l = left.evaluate(frame);
+            Object r = right.evaluate(frame);
+            if (l instanceof Double && r instanceof Double) {
+                return (Double) l <= (Double) r;
+            }
+            return generalize(l, r);
+        }
+    }
+}
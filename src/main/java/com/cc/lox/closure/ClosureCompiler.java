@@ -0,0 +1,503 @@
+package com.cc.lox.closure;
+
+import com.cc.lox.clazz.LoxClass;
+import com.cc.lox.clazz.LoxInstance;
+import com.cc.lox.environment.Cell;
+import com.cc.lox.environment.GlobalCell;
+import com.cc.lox.environment.Globals;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.function.LoxCallable;
+import com.cc.lox.function.impl.LoxFunction;
+import com.cc.lox.parser.expression.Expression;
+import com.cc.lox.parser.expression.ExpressionVisitor;
+import com.cc.lox.parser.expression.impl.*;
+import com.cc.lox.parser.statement.Statement;
+import com.cc.lox.parser.statement.StatementVisitor;
+import com.cc.lox.parser.statement.impl.*;
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.type.TokenType;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.cc.lox.interpreter.Values.*;
+
+/**
+ * 把变量解析完成的语法树编译成一棵闭包树
+ * <p>
+ * 运算符、变量位置、全局变量单元和常量在编译时就绑定到闭包里, 运行时不再经过 visitor 的双重分派, 也不再检查 token 类型;
+ * 算术、比较、取负和条件判断使用根据类型反馈自我改写的节点
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class ClosureCompiler implements ExpressionVisitor<ExpressionNode>, StatementVisitor<StatementNode> {
+
+    private static final ExpressionNode NIL = frame -> null;
+
+    private final Globals globals;
+
+    private final StringBuilder print;
+
+    /**
+     * 编译的代码定义的局部变量需要的栈帧大小, 函数的栈帧大小由解析器记录, 这里只对顶层代码有意义
+     */
+    @Getter
+    private int frameSize = 0;
+
+    ClosureCompiler(Globals globals, StringBuilder print) {
+        this.globals = globals;
+        this.print = print;
+    }
+
+    /**
+     * @param statements 语句
+     * @return 编译好的语句序列
+     */
+    StatementNode compile(List<Statement> statements) {
+        StatementNode[] nodes = new StatementNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        if (nodes.length == 1) {
+            return nodes[0];
+        }
+        return frame -> {
+            for (StatementNode node : nodes) {
+                if (node.execute(frame)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private StatementNode compile(Statement statement) {
+        return statement.accept(this);
+    }
+
+    private ExpressionNode compile(Expression expression) {
+        return expression.accept(this);
+    }
+
+    /**
+     * 读取一个变量
+     *
+     * @param slot 解析器记录的位置, 全局变量为 null
+     * @param name 变量名
+     * @return 读取变量的表达式
+     */
+    private ExpressionNode load(Slot slot, Token name) {
+        if (Objects.isNull(slot)) {
+            GlobalCell cell = globals.cell(name.getLexeme());
+            return frame -> cell.get(name);
+        }
+        int index = slot.getIndex();
+        switch (slot.getType()) {
+            case LOCAL:
+                return frame -> frame.slots[index];
+            case CELL:
+                return frame -> ((Cell) frame.slots[index]).getValue();
+            default:
+                return frame -> frame.upvalues[index].getValue();
+        }
+    }
+
+    /**
+     * 写入一个变量
+     *
+     * @param slot   解析器记录的位置, 全局变量为 null
+     * @param name   变量名
+     * @param define 是定义还是赋值
+     * @return 写入的位置
+     */
+    private Store store(Slot slot, Token name, boolean define) {
+        if (Objects.isNull(slot)) {
+            GlobalCell cell = globals.cell(name.getLexeme());
+            if (define) {
+                return (frame, value) -> cell.define(value);
+            }
+            return (frame, value) -> cell.assign(name, value);
+        }
+        int index = slot.getIndex();
+        if (define) {
+            frameSize = Math.max(frameSize, index + 1);
+            return (frame, value) -> frame.define(slot, value);
+        }
+        switch (slot.getType()) {
+            case LOCAL:
+                return (frame, value) -> frame.slots[index] = value;
+            case CELL:
+                return (frame, value) -> ((Cell) frame.slots[index]).setValue(value);
+            default:
+                return (frame, value) -> frame.upvalues[index].setValue(value);
+        }
+    }
+
+    @Override
+    public ExpressionNode visitAssignExpression(AssignExpression expression) {
+        ExpressionNode value = compile(expression.getValue());
+        Slot slot = expression.getSlot();
+        if (Objects.nonNull(slot) && slot.getType() == SlotType.LOCAL) {
+            // 最常见的情况, 不经过 Store
+            int index = slot.getIndex();
+            return frame -> frame.slots[index] = value.evaluate(frame);
+        }
+        Store target = store(slot, expression.getName(), false);
+        return frame -> {
+            Object result = value.evaluate(frame);
+            target.store(frame, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExpressionNode visitBinaryExpression(BinaryExpression expression) {
+        ExpressionNode left = compile(expression.getLeft());
+        ExpressionNode right = compile(expression.getRight());
+        Token operator = expression.getOperator();
+
+        switch (operator.getType()) {
+            case BANG_EQUAL:
+                return frame -> !isEqual(left.evaluate(frame), right.evaluate(frame));
+            case EQUAL_EQUAL:
+                return frame -> isEqual(left.evaluate(frame), right.evaluate(frame));
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case MINUS:
+            case SLASH:
+            case STAR:
+            case PLUS:
+                return BinaryNode.create(left, right, operator);
+            default:
+                throw new RuntimeError(operator, "Unknown binaryExpression token");
+        }
+    }
+
+    @Override
+    public ExpressionNode visitCallExpression(CallExpression expression) {
+        if (expression.getCallee() instanceof GetExpression) {
+            return invokeMethod(expression, (GetExpression) expression.getCallee());
+        }
+        ExpressionNode callee = compile(expression.getCallee());
+        ExpressionNode[] arguments = compileArguments(expression);
+        Token paren = expression.getParen();
+        return frame -> {
+            Object function = callee.evaluate(frame);
+            Object[] values = evaluate(arguments, frame);
+            try {
+                // 编译后的函数不需要解释器
+                return check(function, values, paren).call(null, values);
+            } catch (StackOverflowError error) {
+                throw stackOverflow(paren);
+            }
+        };
+    }
+
+    /**
+     * obj.name(...): 是方法时直接以 obj 作为 this 调用, 不创建绑定后的函数
+     */
+    private ExpressionNode invokeMethod(CallExpression expression, GetExpression callee) {
+        ExpressionNode object = compile(callee.getObject());
+        ExpressionNode[] arguments = compileArguments(expression);
+        Token paren = expression.getParen();
+        Token name = callee.getName();
+        int selector = callee.getSelector();
+        return frame -> {
+            Object value = object.evaluate(frame);
+            if (!(value instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            LoxInstance instance = (LoxInstance) value;
+            LoxFunction method = instance.getMethod(name, selector);
+            if (Objects.isNull(method)) {
+                Object function = instance.get(name, selector);
+                Object[] values = evaluate(arguments, frame);
+                try {
+                    return check(function, values, paren).call(null, values);
+                } catch (StackOverflowError error) {
+                    throw stackOverflow(paren);
+                }
+            }
+            Object[] values = evaluate(arguments, frame);
+            check(method, values, paren);
+            try {
+                return method.invoke(null, instance, values);
+            } catch (StackOverflowError error) {
+                throw stackOverflow(paren);
+            }
+        };
+    }
+
+    /**
+     * 闭包树的调用占用 Java 栈, 递归太深时和虚拟机一样报告运行时错误;
+     * 创建错误时如果栈还是不够, 外层调用点会再次捕获
+     *
+     * @param paren 调用的右括号
+     * @return 运行时错误
+     */
+    private static RuntimeError stackOverflow(Token paren) {
+        return new RuntimeError(paren, "Stack overflow.");
+    }
+
+    private ExpressionNode[] compileArguments(CallExpression expression) {
+        ExpressionNode[] arguments = new ExpressionNode[expression.getArguments().size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expression.getArguments().get(i));
+        }
+        return arguments;
+    }
+
+    private static Object[] evaluate(ExpressionNode[] arguments, Frame frame) {
+        if (arguments.length == 0) {
+            return LoxCallable.NO_ARGUMENTS;
+        }
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].evaluate(frame);
+        }
+        return values;
+    }
+
+    private static LoxCallable check(Object function, Object[] values, Token paren) {
+        if (!(function instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable callable = (LoxCallable) function;
+        if (values.length != callable.getArity()) {
+            throw new RuntimeError(paren, "Expected " + callable.getArity() + " arguments but got " + values.length + ".");
+        }
+        return callable;
+    }
+
+    @Override
+    public ExpressionNode visitGetExpression(GetExpression expression) {
+        ExpressionNode object = compile(expression.getObject());
+        Token name = expression.getName();
+        int selector = expression.getSelector();
+        return frame -> {
+            Object value = object.evaluate(frame);
+            if (value instanceof LoxInstance) {
+                return ((LoxInstance) value).get(name, selector);
+            }
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public ExpressionNode visitGroupingExpression(GroupingExpression expression) {
+        return compile(expression.getExpression());
+    }
+
+    @Override
+    public ExpressionNode visitLiteralExpression(LiteralExpression expression) {
+        Object value = expression.getValue();
+        return frame -> value;
+    }
+
+    @Override
+    public ExpressionNode visitLogicalExpression(LogicalExpression expression) {
+        ExpressionNode left = compile(expression.getLeft());
+        ExpressionNode right = compile(expression.getRight());
+        if (expression.getOperator().getType() == TokenType.OR) {
+            return frame -> {
+                Object value = left.evaluate(frame);
+                return isTruthy(value) ? value : right.evaluate(frame);
+            };
+        }
+        return frame -> {
+            Object value = left.evaluate(frame);
+            return isTruthy(value) ? right.evaluate(frame) : value;
+        };
+    }
+
+    @Override
+    public ExpressionNode visitSetExpression(SetExpression expression) {
+        ExpressionNode object = compile(expression.getObject());
+        ExpressionNode value = compile(expression.getValue());
+        Token name = expression.getName();
+        int selector = expression.getSelector();
+        return frame -> {
+            Object instance = object.evaluate(frame);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+            Object result = value.evaluate(frame);
+            ((LoxInstance) instance).set(selector, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExpressionNode visitSuperExpression(SuperExpression expression) {
+        ExpressionNode superclass = load(expression.getSlot(), expression.getKeyword());
+        ExpressionNode receiver = load(expression.getThisSlot(), expression.getKeyword());
+        Token method = expression.getMethod();
+        int selector = expression.getSelector();
+        return frame -> {
+            LoxFunction function = ((LoxClass) superclass.evaluate(frame)).findMethod(selector);
+            if (Objects.isNull(function)) {
+                throw new RuntimeError(method, "Undefined property '" + method.getLexeme() + "'.");
+            }
+            return function.bind((LoxInstance) receiver.evaluate(frame));
+        };
+    }
+
+    @Override
+    public ExpressionNode visitThisExpression(ThisExpression expression) {
+        return load(expression.getSlot(), expression.getKeyword());
+    }
+
+    @Override
+    public ExpressionNode visitUnaryExpression(UnaryExpression expression) {
+        ExpressionNode right = compile(expression.getRight());
+        Token operator = expression.getOperator();
+        switch (operator.getType()) {
+            case MINUS:
+                return NegateNode.create(right, operator);
+            case BANG:
+                ConditionNode condition = new ConditionNode(right);
+                return frame -> !condition.test(frame);
+            default:
+                throw new RuntimeError(operator, "Unknown unaryExpression token");
+        }
+    }
+
+    @Override
+    public ExpressionNode visitVariableExpression(VariableExpression expression) {
+        return load(expression.getSlot(), expression.getName());
+    }
+
+    @Override
+    public StatementNode visitBlockStatement(BlockStatement statement) {
+        return compile(statement.getStatements());
+    }
+
+    @Override
+    public StatementNode visitClassStatement(ClassStatement statement) {
+        String name = statement.getName().getLexeme();
+        ExpressionNode superclassNode = Objects.isNull(statement.getSuperclass()) ? null : compile(statement.getSuperclass());
+        Token superclassName = Objects.isNull(statement.getSuperclass()) ? null : statement.getSuperclass().getName();
+        Store declare = store(statement.getSlot(), statement.getName(), true);
+        Store assign = store(statement.getSlot(), statement.getName(), false);
+        Store defineSuper = Objects.isNull(superclassNode) ? null : store(statement.getSuperSlot(), null, true);
+        FunctionCode[] methods = new FunctionCode[statement.getMethods().size()];
+        for (int i = 0; i < methods.length; i++) {
+            FunctionStatement method = statement.getMethods().get(i);
+            methods[i] = new FunctionCode(method, method.getName().getLexeme().equals(LoxClass.INIT), globals, print);
+        }
+
+        return frame -> {
+            LoxClass superclass = null;
+            if (Objects.nonNull(superclassNode)) {
+                Object object = superclassNode.evaluate(frame);
+                if (!(object instanceof LoxClass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+                superclass = (LoxClass) object;
+            }
+            declare.store(frame, null);
+            if (Objects.nonNull(superclass)) {
+                defineSuper.store(frame, superclass);
+            }
+            Map<String, LoxFunction> functions = new HashMap<>();
+            for (FunctionCode method : methods) {
+                functions.put(method.getDeclaration().getName().getLexeme(), method.closure(frame));
+            }
+            assign.store(frame, new LoxClass(name, superclass, functions));
+            return false;
+        };
+    }
+
+    @Override
+    public StatementNode visitExpressionStatement(ExpressionStatement statement) {
+        ExpressionNode expression = compile(statement.getExpression());
+        return frame -> {
+            expression.evaluate(frame);
+            return false;
+        };
+    }
+
+    @Override
+    public StatementNode visitFunctionStatement(FunctionStatement statement) {
+        FunctionCode code = new FunctionCode(statement, false, globals, print);
+        Slot slot = statement.getSlot();
+        Store target = store(slot, statement.getName(), true);
+        if (Objects.isNull(slot) || slot.getType() != SlotType.CELL) {
+            return frame -> {
+                target.store(frame, code.closure(frame));
+                return false;
+            };
+        }
+        // 引用自己的局部函数: 和类一样先创建 cell, 闭包捕获它之后再写入
+        Store assign = store(slot, statement.getName(), false);
+        return frame -> {
+            target.store(frame, null);
+            assign.store(frame, code.closure(frame));
+            return false;
+        };
+    }
+
+    @Override
+    public StatementNode visitReturnStatement(ReturnStatement statement) {
+        ExpressionNode value = Objects.isNull(statement.getValue()) ? NIL : compile(statement.getValue());
+        return frame -> {
+            frame.result = value.evaluate(frame);
+            return true;
+        };
+    }
+
+    @Override
+    public StatementNode visitIfStatement(IfStatement statement) {
+        ConditionNode condition = new ConditionNode(compile(statement.getCondition()));
+        StatementNode thenBranch = compile(statement.getThenBranch());
+        if (Objects.isNull(statement.getElseBranch())) {
+            return frame -> condition.test(frame) && thenBranch.execute(frame);
+        }
+        StatementNode elseBranch = compile(statement.getElseBranch());
+        return frame -> condition.test(frame) ? thenBranch.execute(frame) : elseBranch.execute(frame);
+    }
+
+    @Override
+    public StatementNode visitPrintStatement(PrintStatement statement) {
+        ExpressionNode expression = compile(statement.getExpression());
+        return frame -> {
+            String out = stringify(expression.evaluate(frame));
+            System.out.println(out);
+            print.append(out);
+            return false;
+        };
+    }
+
+    @Override
+    public StatementNode visitWhileStatement(WhileStatement statement) {
+        ConditionNode condition = new ConditionNode(compile(statement.getCondition()));
+        StatementNode body = compile(statement.getBody());
+        return frame -> {
+            while (condition.test(frame)) {
+                if (body.execute(frame)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    @Override
+    public StatementNode visitVarStatement(VarStatement statement) {
+        ExpressionNode value = Objects.isNull(statement.getInitializer()) ? NIL : compile(statement.getInitializer());
+        Store target = store(statement.getSlot(), statement.getName(), true);
+        return frame -> {
+            target.store(frame, value.evaluate(frame));
+            return false;
+        };
+    }
+}
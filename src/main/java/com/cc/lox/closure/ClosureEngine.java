@@ -0,0 +1,43 @@
+package com.cc.lox.closure;
+
+import com.cc.lox.Lox;
+import com.cc.lox.environment.Globals;
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.function.impl.ClockFunction;
+import com.cc.lox.interpreter.Engine;
+import com.cc.lox.parser.statement.Statement;
+
+import java.util.List;
+
+/**
+ * 先把语法树编译成闭包树再执行的引擎
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class ClosureEngine implements Engine {
+
+    private final Globals globals = new Globals();
+
+    private final StringBuilder print = new StringBuilder();
+
+    public ClosureEngine() {
+        globals.define(ClockFunction.NAME, new ClockFunction());
+    }
+
+    @Override
+    public void interpret(List<Statement> statements) {
+        try {
+            ClosureCompiler compiler = new ClosureCompiler(globals, print);
+            StatementNode script = compiler.compile(statements);
+            script.execute(new Frame(new Object[compiler.getFrameSize()], null));
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    @Override
+    public String getPrint() {
+        return print.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.cc.lox.closure;
+
+import com.cc.lox.clazz.LoxInstance;
+import com.cc.lox.environment.Cell;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.function.impl.LoxFunction;
+import com.cc.lox.interpreter.LoxInterpreter;
+import com.cc.lox.parser.statement.impl.FunctionStatement;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 编译后的函数, 调用时不需要解释器
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class CompiledFunction extends LoxFunction {
+
+    private final FunctionCode code;
+
+    CompiledFunction(FunctionCode code, Cell[] upvalues, LoxInstance receiver) {
+        super(code.getDeclaration(), upvalues, code.isInitializer(), receiver);
+        this.code = code;
+    }
+
+    @Override
+    public Object invoke(LoxInterpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        StatementNode body = code.body();
+        Frame frame = enter(receiver);
+        List<Slot> paramSlots = getDeclaration().getParamSlots();
+        for (int i = 0; i < paramSlots.size(); i++) {
+            frame.define(paramSlots.get(i), arguments[i]);
+        }
+        return run(body, frame, receiver);
+    }
+
+    @Override
+    public Object invoke(LoxInterpreter interpreter, LoxInstance receiver, int count, Object a0, Object a1, Object a2, Object a3) {
+        StatementNode body = code.body();
+        Frame frame = enter(receiver);
+        List<Slot> paramSlots = getDeclaration().getParamSlots();
+        if (count > 0) {
+            frame.define(paramSlots.get(0), a0);
+        }
+        if (count > 1) {
+            frame.define(paramSlots.get(1), a1);
+        }
+        if (count > 2) {
+            frame.define(paramSlots.get(2), a2);
+        }
+        if (count > 3) {
+            frame.define(paramSlots.get(3), a3);
+        }
+        return run(body, frame, receiver);
+    }
+
+    /**
+     * 延迟解析的函数在 {@link FunctionCode#body()} 里才解析, 栈帧大小和参数槽位要在这之后读取
+     *
+     * @return 新的栈帧, 已经放好了 this
+     */
+    private Frame enter(LoxInstance receiver) {
+        FunctionStatement declaration = getDeclaration();
+        Frame frame = new Frame(new Object[declaration.getFrameSize()], getUpvalues());
+        if (Objects.nonNull(declaration.getThisSlot())) {
+            frame.define(declaration.getThisSlot(), receiver);
+        }
+        return frame;
+    }
+
+    private Object run(StatementNode body, Frame frame, LoxInstance receiver) {
+        body.execute(frame);
+        return isInitializer() ? receiver : frame.result;
+    }
+
+    @Override
+    public LoxFunction bind(LoxInstance loxInstance) {
+        return new CompiledFunction(code, getUpvalues(), loxInstance);
+    }
+}
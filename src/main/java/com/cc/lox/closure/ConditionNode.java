@@ -0,0 +1,95 @@
+package com.cc.lox.closure;
+
+import static com.cc.lox.interpreter.Values.isTruthy;
+
+/**
+ * 条件的真假
+ * <p>
+ * if、while 和 '!' 持有这个节点, 真正的判断可以自我改写: 第一次执行时见到布尔值就换成直接拆箱的判断,
+ * 之后出现别的类型再换成通用的真假判断
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class ConditionNode {
+
+    private Condition condition;
+
+    ConditionNode(ExpressionNode expression) {
+        this.condition = new Uninitialized(this, expression);
+    }
+
+    /**
+     * @param frame 当前栈帧
+     * @return 条件是否为真
+     */
+    boolean test(Frame frame) {
+        return condition.test(frame);
+    }
+
+    private interface Condition {
+
+        boolean test(Frame frame);
+    }
+
+    /**
+     * 还没有执行过, 第一次执行时根据值的类型选择特化
+     */
+    private static final class Uninitialized implements Condition {
+
+        private final ConditionNode node;
+
+        private final ExpressionNode expression;
+
+        Uninitialized(ConditionNode node, ExpressionNode expression) {
+            this.node = node;
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean test(Frame frame) {
+            Object value = expression.evaluate(frame);
+            node.condition = value instanceof Boolean ? new BooleanCondition(node, expression) : new Truthy(expression);
+            return isTruthy(value);
+        }
+    }
+
+    private static final class BooleanCondition implements Condition {
+
+        private final ConditionNode node;
+
+        private final ExpressionNode expression;
+
+        BooleanCondition(ConditionNode node, ExpressionNode expression) {
+            this.node = node;
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean test(Frame frame) {
+            Object value = expression.evaluate(frame);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            }
+            node.condition = new Truthy(expression);
+            return isTruthy(value);
+        }
+    }
+
+    /**
+     * 见过不同的类型, 之后一直走通用的真假判断
+     */
+    private static final class Truthy implements Condition {
+
+        private final ExpressionNode expression;
+
+        Truthy(ExpressionNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean test(Frame frame) {
+            return isTruthy(expression.evaluate(frame));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.cc.lox.closure;
+
+/**
+ * 编译好的表达式
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+@FunctionalInterface
+interface ExpressionNode {
+
+    /**
+     * @param frame 当前栈帧
+     * @return value
+     */
+    Object evaluate(Frame frame);
+}
@@ -0,0 +1,44 @@
+package com.cc.lox.closure;
+
+import com.cc.lox.environment.Cell;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+
+/**
+ * 编译后的代码运行时的一个栈帧, 每次函数调用一个
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class Frame {
+
+    /**
+     * 局部变量, 下标是解析器分配的偏移, 被捕获的变量存放 {@link Cell}
+     */
+    final Object[] slots;
+
+    /**
+     * 当前闭包捕获的外层变量, 顶层代码为 null
+     */
+    final Cell[] upvalues;
+
+    /**
+     * return 语句的返回值
+     */
+    Object result;
+
+    Frame(Object[] slots, Cell[] upvalues) {
+        this.slots = slots;
+        this.upvalues = upvalues;
+    }
+
+    /**
+     * 定义一个局部变量, 被捕获的变量每次定义都创建新的 cell
+     *
+     * @param slot  解析器记录的位置
+     * @param value value
+     */
+    void define(Slot slot, Object value) {
+        slots[slot.getIndex()] = slot.getType() == SlotType.CELL ? new Cell(value) : value;
+    }
+}
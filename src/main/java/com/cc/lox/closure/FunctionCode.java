@@ -0,0 +1,85 @@
+package com.cc.lox.closure;
+
+import com.cc.lox.environment.Cell;
+import com.cc.lox.environment.Globals;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+import com.cc.lox.parser.statement.impl.FunctionStatement;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 一个函数声明编译后的代码, 同一个声明创建的所有闭包共享
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class FunctionCode {
+
+    @Getter
+    private final FunctionStatement declaration;
+
+    @Getter
+    private final boolean initializer;
+
+    private final Globals globals;
+
+    private final StringBuilder print;
+
+    /**
+     * 捕获的变量是否来自外层闭包, 否则来自外层栈帧
+     */
+    private final boolean[] fromUpvalue;
+
+    /**
+     * 捕获的变量在外层闭包或者外层栈帧中的下标
+     */
+    private final int[] indexes;
+
+    /**
+     * 函数体, 第一次调用时才编译
+     */
+    private StatementNode body;
+
+    FunctionCode(FunctionStatement declaration, boolean initializer, Globals globals, StringBuilder print) {
+        this.declaration = declaration;
+        this.initializer = initializer;
+        this.globals = globals;
+        this.print = print;
+        List<Slot> upvalues = declaration.getUpvalues();
+        this.fromUpvalue = new boolean[upvalues.size()];
+        this.indexes = new int[upvalues.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            fromUpvalue[i] = upvalues.get(i).getType() == SlotType.UPVALUE;
+            indexes[i] = upvalues.get(i).getIndex();
+        }
+    }
+
+    /**
+     * 在定义函数的栈帧里创建闭包
+     *
+     * @param frame 外层栈帧
+     * @return 闭包
+     */
+    CompiledFunction closure(Frame frame) {
+        Cell[] cells = new Cell[indexes.length];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = fromUpvalue[i] ? frame.upvalues[indexes[i]] : (Cell) frame.slots[indexes[i]];
+        }
+        return new CompiledFunction(this, cells, null);
+    }
+
+    /**
+     * 延迟解析的函数体这时才被解析
+     *
+     * @return 编译好的函数体
+     */
+    StatementNode body() {
+        if (Objects.isNull(body)) {
+            body = new ClosureCompiler(globals, print).compile(declaration.getBody());
+        }
+        return body;
+    }
+}
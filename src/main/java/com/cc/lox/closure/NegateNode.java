@@ -0,0 +1,92 @@
+package com.cc.lox.closure;
+
+import com.cc.lox.scanner.Token;
+
+import static com.cc.lox.interpreter.Values.checkNumberOperand;
+
+/**
+ * 取负数, 第一次执行时见到数字就把自己替换成只处理数字的节点, 出现别的类型后替换成通用的节点
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+abstract class NegateNode implements ExpressionNode {
+
+    /**
+     * 父节点引用这个节点的位置
+     */
+    final NodeSite site;
+
+    final ExpressionNode right;
+
+    final Token operator;
+
+    NegateNode(NodeSite site, ExpressionNode right, Token operator) {
+        this.site = site;
+        this.right = right;
+        this.operator = operator;
+    }
+
+    /**
+     * @param right    操作数
+     * @param operator '-'
+     * @return 父节点引用的位置, 里面是还没有执行过的节点
+     */
+    static NodeSite create(ExpressionNode right, Token operator) {
+        return NodeSite.of(site -> new Uninitialized(site, right, operator));
+    }
+
+    final Object generic(Object value) {
+        checkNumberOperand(operator, value);
+        return -(double) value;
+    }
+
+    /**
+     * 还没有执行过, 第一次执行时根据操作数类型选择特化
+     */
+    static final class Uninitialized extends NegateNode {
+
+        Uninitialized(NodeSite site, ExpressionNode right, Token operator) {
+            super(site, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object value = right.evaluate(frame);
+            site.replace(value instanceof Double ? new NumberNegate(site, right, operator) : new Generic(site, right, operator));
+            return generic(value);
+        }
+    }
+
+    static final class NumberNegate extends NegateNode {
+
+        NumberNegate(NodeSite site, ExpressionNode right, Token operator) {
+            super(site, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object value = right.evaluate(frame);
+            if (value instanceof Double) {
+                return -(Double) value;
+            }
+            site.replace(new Generic(site, right, operator));
+            return generic(value);
+        }
+    }
+
+    /**
+     * 见过不同的类型, 之后一直走通用的路径
+     */
+    static final class Generic extends NegateNode {
+
+        Generic(NodeSite site, ExpressionNode right, Token operator) {
+            super(site, right, operator);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            return generic(right.evaluate(frame));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.cc.lox.closure;
+
+import java.util.function.Function;
+
+/**
+ * 父节点引用可以自我改写的子节点的位置
+ * <p>
+ * 闭包树的父节点是不可变的 lambda, 所以父节点持有这个位置而不是子节点本身;
+ * 子节点改写时把新节点写回这里, 之后父节点直接执行新的节点
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class NodeSite implements ExpressionNode {
+
+    private ExpressionNode node;
+
+    private NodeSite() {
+    }
+
+    /**
+     * @param factory 根据位置创建最初的节点
+     * @return 位置
+     */
+    static NodeSite of(Function<NodeSite, ExpressionNode> factory) {
+        NodeSite site = new NodeSite();
+        site.node = factory.apply(site);
+        return site;
+    }
+
+    /**
+     * @param node 替换当前节点的新节点
+     */
+    void replace(ExpressionNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public Object evaluate(Frame frame) {
+        return node.evaluate(frame);
+    }
+}
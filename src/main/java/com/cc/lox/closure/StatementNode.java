@@ -0,0 +1,17 @@
+package com.cc.lox.closure;
+
+/**
+ * 编译好的语句
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+@FunctionalInterface
+interface StatementNode {
+
+    /**
+     * @param frame 当前栈帧
+     * @return 是否执行了 return, 返回值放在 {@link Frame#result}, 调用方见到 true 时不再执行后面的语句
+     */
+    boolean execute(Frame frame);
+}
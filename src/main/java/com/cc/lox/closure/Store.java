@@ -0,0 +1,17 @@
+package com.cc.lox.closure;
+
+/**
+ * 编译好的变量写入位置
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+@FunctionalInterface
+interface Store {
+
+    /**
+     * @param frame 当前栈帧
+     * @param value value
+     */
+    void store(Frame frame, Object value);
+}
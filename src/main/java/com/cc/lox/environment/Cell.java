@@ -0,0 +1,19 @@
+package com.cc.lox.environment;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 被闭包捕获的变量, 声明它的栈帧和捕获它的闭包共享同一个 cell
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+public class Cell {
+
+    private Object value;
+}
@@ -0,0 +1,70 @@
+package com.cc.lox.environment;
+
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.scanner.Token;
+import lombok.Getter;
+
+/**
+ * 全局变量的存储单元
+ * <p>
+ * 第一次按名字查找之后引用这个变量的语法树节点会缓存单元本身, 之后读写不再查表。
+ * 单元在第一次被引用的时候就会创建, 之后才执行的定义写入的是同一个单元
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class GlobalCell {
+
+    /**
+     * 所属的全局变量表, 同一棵语法树被不同解释器执行时用来判断缓存是否有效
+     */
+    @Getter
+    private final Globals owner;
+
+    private final String name;
+
+    private Object value;
+
+    private boolean defined = false;
+
+    GlobalCell(Globals owner, String name) {
+        this.owner = owner;
+        this.name = name;
+    }
+
+    /**
+     * @param token 引用变量的 token, 用于报告错误
+     * @return 变量的值
+     */
+    public Object get(Token token) {
+        if (!defined) {
+            throw undefined(token);
+        }
+        return value;
+    }
+
+    /**
+     * @param token 引用变量的 token, 用于报告错误
+     * @param value value
+     */
+    public void assign(Token token, Object value) {
+        if (!defined) {
+            throw undefined(token);
+        }
+        this.value = value;
+    }
+
+    /**
+     * 定义变量, 已经定义过的直接覆盖
+     *
+     * @param value value
+     */
+    public void define(Object value) {
+        this.value = value;
+        this.defined = true;
+    }
+
+    private RuntimeError undefined(Token token) {
+        return new RuntimeError(token, "Undefined variable '" + name + "'.");
+    }
+}
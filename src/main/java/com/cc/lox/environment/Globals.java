@@ -0,0 +1,47 @@
+package com.cc.lox.environment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 全局变量表, 每个全局变量对应一个存储单元
+ * <p>
+ * 只有第一次解析某个引用的时候按名字查表, 之后引用它的语法树节点或者字节码常量直接持有单元
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class Globals {
+
+    /**
+     * 变量名到存储单元的映射
+     */
+    private final Map<String, GlobalCell> cells = new HashMap<>();
+
+    /**
+     * @param name 变量名
+     * @return 变量的存储单元, 没有的时候创建一个还没有定义的单元
+     */
+    public GlobalCell cell(String name) {
+        return cells.computeIfAbsent(name, key -> new GlobalCell(this, key));
+    }
+
+    /**
+     * @param cell 语法树节点上缓存的单元
+     * @return 缓存的单元是否属于这张表
+     */
+    public boolean owns(GlobalCell cell) {
+        return Objects.nonNull(cell) && cell.getOwner() == this;
+    }
+
+    /**
+     * 定义全局变量
+     *
+     * @param name  变量名
+     * @param value value
+     */
+    public void define(String name, Object value) {
+        cell(name).define(value);
+    }
+}
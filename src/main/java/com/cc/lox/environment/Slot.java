@@ -0,0 +1,50 @@
+package com.cc.lox.environment;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 局部变量的位置
+ * <p>
+ * 变量都在所属函数的栈帧里有一个偏移, 没有被闭包捕获的变量直接存值, 被捕获的变量存一个共享的 {@link Cell};
+ * 在内层函数里访问外层函数的变量时, index 是内层闭包捕获列表中的下标
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class Slot {
+
+    private final SlotType type;
+
+    /**
+     * 栈帧中的偏移或者捕获列表中的下标
+     */
+    private final int index;
+
+    /**
+     * @param offset 栈帧中的偏移
+     * @return 栈帧中直接存值的位置
+     */
+    public static Slot local(int offset) {
+        return new Slot(SlotType.LOCAL, offset);
+    }
+
+    /**
+     * @param offset 栈帧中的偏移
+     * @return 栈帧中存放 cell 的位置
+     */
+    public static Slot cell(int offset) {
+        return new Slot(SlotType.CELL, offset);
+    }
+
+    /**
+     * @param index 捕获列表中的下标
+     * @return 闭包捕获的 cell
+     */
+    public static Slot upvalue(int index) {
+        return new Slot(SlotType.UPVALUE, index);
+    }
+}
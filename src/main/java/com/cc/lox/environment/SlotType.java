@@ -0,0 +1,25 @@
+package com.cc.lox.environment;
+
+/**
+ * 局部变量的存放方式
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public enum SlotType {
+
+    /**
+     * 没有被闭包捕获, 值直接放在当前栈帧里
+     */
+    LOCAL,
+
+    /**
+     * 被闭包捕获, 当前栈帧里放的是共享的 {@link Cell}
+     */
+    CELL,
+
+    /**
+     * 外层函数的变量, 放在当前闭包捕获的 {@link Cell} 里
+     */
+    UPVALUE
+}
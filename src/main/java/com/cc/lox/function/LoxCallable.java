@@ -2,16 +2,51 @@ package com.cc.lox.function;
 
 import com.cc.lox.interpreter.LoxInterpreter;
 
-import java.util.List;
-
 /**
+ * 可调用的值
+ * <p>
+ * 不超过 {@link #MAX_FIXED_ARITY} 个参数的调用走固定参数个数的入口, 参数直接传给被调用者, 不创建参数集合;
+ * 默认实现把参数装进数组交给 {@link #call(LoxInterpreter, Object[])}, 需要省掉这个数组的实现自己覆盖
+ *
  * @author cc
  * @date 2023/10/13
  */
 public interface LoxCallable {
 
+    /**
+     * 有专门入口的最大参数个数
+     */
+    int MAX_FIXED_ARITY = 4;
+
+    Object[] NO_ARGUMENTS = new Object[0];
+
     int getArity();
 
-    Object call(LoxInterpreter interpreter, List<Object> arguments);
+    /**
+     * @param interpreter 解释器, 不依赖解释器的实现里可能为 null
+     * @param arguments   参数, 个数已经检查过
+     * @return 返回值
+     */
+    Object call(LoxInterpreter interpreter, Object[] arguments);
+
+    default Object call(LoxInterpreter interpreter) {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call(LoxInterpreter interpreter, Object a0) {
+        return call(interpreter, new Object[]{a0});
+    }
+
+    default Object call(LoxInterpreter interpreter, Object a0, Object a1) {
+        return call(interpreter, new Object[]{a0, a1});
+    }
+
+    default Object call(LoxInterpreter interpreter, Object a0, Object a1, Object a2) {
+        return call(interpreter, new Object[]{a0, a1, a2});
+    }
+
+    default Object call(LoxInterpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return call(interpreter, new Object[]{a0, a1, a2, a3});
+    }
 
 }
@@ -0,0 +1,35 @@
+package com.cc.lox.function.impl;
+
+import com.cc.lox.function.LoxCallable;
+import com.cc.lox.interpreter.LoxInterpreter;
+
+/**
+ * 内置函数 clock, 返回当前时间的秒数
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class ClockFunction implements LoxCallable {
+
+    public static final String NAME = "clock";
+
+    @Override
+    public int getArity() {
+        return 0;
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter) {
+        return (double) System.currentTimeMillis() / 1000.0;
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object[] arguments) {
+        return call(interpreter);
+    }
+
+    @Override
+    public String toString() {
+        return "global fun clock";
+    }
+}
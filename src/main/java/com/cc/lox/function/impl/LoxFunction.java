@@ -1,30 +1,44 @@
 package com.cc.lox.function.impl;
 
 import com.cc.lox.clazz.LoxInstance;
-import com.cc.lox.environment.Environment;
+import com.cc.lox.environment.Cell;
 import com.cc.lox.function.LoxCallable;
-import com.cc.lox.function.Return;
 import com.cc.lox.interpreter.LoxInterpreter;
 import com.cc.lox.parser.statement.impl.FunctionStatement;
-import com.cc.lox.scanner.Token;
-import com.cc.lox.scanner.type.TokenType;
-
-import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
 
 /**
  * @author cc
  * @date 2023/10/13
  */
 public class LoxFunction implements LoxCallable {
+    @Getter
     private final FunctionStatement declaration;
 
-    private final Environment closure;
+    /**
+     * 闭包捕获的外层变量, 顺序和 {@link FunctionStatement#getUpvalues()} 一致
+     */
+    @Getter
+    private final Cell[] upvalues;
+    @Getter(AccessLevel.PROTECTED)
     private final boolean isInitializer;
 
-    public LoxFunction(FunctionStatement declaration, Environment closure, boolean isInitializer) {
+    /**
+     * 方法绑定的实例, 普通函数为 null
+     */
+    @Getter
+    private final LoxInstance receiver;
+
+    public LoxFunction(FunctionStatement declaration, Cell[] upvalues, boolean isInitializer) {
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    protected LoxFunction(FunctionStatement declaration, Cell[] upvalues, boolean isInitializer, LoxInstance receiver) {
         this.isInitializer = isInitializer;
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
     }
 
     @Override
@@ -33,21 +47,69 @@ public class LoxFunction implements LoxCallable {
     }
 
     @Override
-    public Object call(LoxInterpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.getParams().size(); i++) {
-            environment.define(declaration.getParams().get(i), arguments.get(i));
-        }
-        try {
-            interpreter.executeBlock(declaration.getBody(), environment);
-        } catch (Return r) {
-            if (isInitializer) return closure.getAt(0, TokenType.THIS.getCode());
-            return r.getValue();
-        }
-        if (isInitializer) {
-            return closure.getAt(0, TokenType.THIS.getCode());
-        }
-        return null;
+    public Object call(LoxInterpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter) {
+        return invoke(interpreter, receiver, 0, null, null, null, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0) {
+        return invoke(interpreter, receiver, 1, a0, null, null, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0, Object a1) {
+        return invoke(interpreter, receiver, 2, a0, a1, null, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0, Object a1, Object a2) {
+        return invoke(interpreter, receiver, 3, a0, a1, a2, null);
+    }
+
+    @Override
+    public Object call(LoxInterpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return invoke(interpreter, receiver, 4, a0, a1, a2, a3);
+    }
+
+    /**
+     * 以 receiver 作为 this 调用, 调用方法时不需要先创建绑定后的函数
+     *
+     * @param interpreter 解释器
+     * @param receiver    this, 普通函数为 null
+     * @param arguments   参数
+     * @return 返回值
+     */
+    public Object invoke(LoxInterpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        return execute(interpreter, receiver, arguments.length, null, null, null, null, arguments);
+    }
+
+    /**
+     * 不超过 {@link #MAX_FIXED_ARITY} 个参数时的 {@link #invoke(LoxInterpreter, LoxInstance, Object[])},
+     * 参数直接放进被调用函数的栈帧
+     *
+     * @param count 参数个数, a0 到 a3 里多出来的为 null
+     */
+    public Object invoke(LoxInterpreter interpreter, LoxInstance receiver, int count, Object a0, Object a1, Object a2, Object a3) {
+        return execute(interpreter, receiver, count, a0, a1, a2, a3, null);
+    }
+
+    private Object execute(LoxInterpreter interpreter, LoxInstance receiver, int count, Object a0, Object a1, Object a2, Object a3, Object[] arguments) {
+        Object result = interpreter.executeFunction(declaration, upvalues, receiver, count, a0, a1, a2, a3, arguments);
+        return isInitializer ? receiver : result;
+    }
+
+    /**
+     * 尾调用时解释器在调用者的栈帧里接着执行函数体, 不经过 {@link #invoke}
+     *
+     * @return 能否这样执行; 初始化方法要返回 this, 子类有自己的执行方式, 都不能
+     */
+    public boolean isTailCallable() {
+        return !isInitializer && getClass() == LoxFunction.class;
     }
 
     @Override
@@ -56,8 +118,7 @@ public class LoxFunction implements LoxCallable {
     }
 
     public LoxFunction bind(LoxInstance loxInstance) {
-        Environment environment = new Environment(closure);
-        environment.define(new Token(TokenType.THIS, TokenType.THIS.getCode(), TokenType.THIS.getCode(), -1), loxInstance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        // 捕获列表不变, 只是换了 this
+        return new LoxFunction(declaration, upvalues, isInitializer, loxInstance);
     }
 }
@@ -0,0 +1,67 @@
+package com.cc.lox.interpreter;
+
+import com.cc.lox.function.impl.LoxFunction;
+
+/**
+ * 调用点上的多态内联缓存, 记录最近几个已经检查过可以调用并且参数个数正确的被调用者
+ * <p>
+ * 函数按声明缓存, 同一个声明每次创建的闭包、每次绑定的方法参数个数都一样;
+ * 类和内置函数按对象本身缓存。见过的被调用者超过上限之后不再缓存, 每次都重新检查
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class CallSiteCache {
+
+    /**
+     * 缓存的被调用者个数上限
+     */
+    private static final int MAX_ENTRIES = 4;
+
+    private final Object[] keys = new Object[MAX_ENTRIES];
+
+    private int size = 0;
+
+    /**
+     * 见过的被调用者太多, 不再缓存
+     */
+    private boolean megamorphic = false;
+
+    /**
+     * @param callee 被调用者
+     * @return 是否已经检查过
+     */
+    public boolean hit(Object callee) {
+        Object key = key(callee);
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 记录一个检查通过的被调用者
+     *
+     * @param callee 被调用者
+     */
+    public void add(Object callee) {
+        if (megamorphic) {
+            return;
+        }
+        if (size == MAX_ENTRIES) {
+            megamorphic = true;
+            size = 0;
+            return;
+        }
+        keys[size++] = key(callee);
+    }
+
+    private static Object key(Object callee) {
+        if (callee instanceof LoxFunction) {
+            return ((LoxFunction) callee).getDeclaration();
+        }
+        return callee;
+    }
+}
@@ -0,0 +1,26 @@
+package com.cc.lox.interpreter;
+
+import com.cc.lox.parser.statement.Statement;
+
+import java.util.List;
+
+/**
+ * 执行引擎, 运行解析、变量解析完成的语法树; 全局变量在多次运行之间保留
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public interface Engine {
+
+    /**
+     * 执行语句, 运行时错误直接报告
+     *
+     * @param statements 语句
+     */
+    void interpret(List<Statement> statements);
+
+    /**
+     * @return 目前为止 print 输出的内容
+     */
+    String getPrint();
+}
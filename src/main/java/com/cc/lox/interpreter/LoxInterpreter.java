@@ -3,10 +3,21 @@ package com.cc.lox.interpreter;
 import com.cc.lox.Lox;
 import com.cc.lox.clazz.LoxClass;
 import com.cc.lox.clazz.LoxInstance;
-import com.cc.lox.environment.Environment;
+import com.cc.lox.environment.Cell;
+import com.cc.lox.environment.GlobalCell;
+import com.cc.lox.environment.Globals;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
 import com.cc.lox.error.RuntimeError;
 import com.cc.lox.function.LoxCallable;
+import com.cc.lox.function.impl.ClockFunction;
 import com.cc.lox.function.impl.LoxFunction;
+import com.cc.lox.jit.CompiledCode;
+import com.cc.lox.jit.CompiledLoop;
+import com.cc.lox.jit.FunctionProfile;
+import com.cc.lox.jit.Jit;
+import com.cc.lox.jit.LoopProfile;
+import com.cc.lox.parser.LazyStatements;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
 import com.cc.lox.parser.expression.impl.*;
@@ -17,6 +28,9 @@ import com.cc.lox.scanner.Token;
 import com.cc.lox.scanner.type.TokenType;
 
 import java.util.*;
+import java.util.function.Consumer;
+
+import static com.cc.lox.interpreter.Values.*;
 
 /**
  * 计算表达式
@@ -24,55 +38,104 @@ import java.util.*;
  * @author cc
  * @date 2023/10/10
  */
-public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisitor<Void> {
+public class LoxInterpreter implements Engine, ExpressionVisitor<Object>, StatementVisitor<Void> {
+
+    private final Globals globals = new Globals();
 
-    private final Environment globals = new Environment();
+    private static final int INITIAL_STACK_SIZE = 256;
+
+    /**
+     * 当前闭包捕获的外层变量, 顶层代码为 null
+     */
+    private Cell[] upvalues = null;
+
+    /**
+     * 局部变量所在的值栈, 每次函数调用占用其中一段栈帧, 被闭包捕获的变量在栈帧里存放 {@link Cell}
+     */
+    private Object[] stack = new Object[INITIAL_STACK_SIZE];
 
-    private Environment environment = new Environment(globals);
+    /**
+     * 当前栈帧的开始位置
+     */
+    private int fp = 0;
 
-    private final Map<Expression, Integer> locals = new HashMap<>();
+    /**
+     * 当前栈帧的结束位置, 被调用函数的栈帧从这里开始
+     */
+    private int top = 0;
 
     private final StringBuilder print = new StringBuilder();
 
-    public LoxInterpreter() {
-        globals.define(new Token(TokenType.FUN, "clock", "clock", -1), new LoxCallable() {
-            @Override
-            public int getArity() {
-                return 0;
-            }
+    /**
+     * 即时编译器, 不开启时为 null
+     */
+    private final Jit jit;
 
-            @Override
-            public Object call(LoxInterpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
+    /**
+     * 正在解释执行的函数的统计, 用于统计循环回边; 顶层代码或者没有开启即时编译时为 null
+     */
+    private FunctionProfile profile = null;
 
-            @Override
-            public String toString() {
-                return "global fun clock";
-            }
-        });
-    }
+    /**
+     * 执行了 return: 外层的代码块和循环见到后不再执行后面的语句, 一直传到函数调用处取走返回值
+     */
+    private boolean returning = false;
 
-    public String getPrint() {
-        return print.toString();
+    /**
+     * return 语句的返回值
+     */
+    private Object returnValue = null;
+
+    /**
+     * 尾调用 return f(...) 求值完参数后不直接调用, 把被调用的函数留在这里,
+     * 由 {@link #executeFunction} 在同一个栈帧里接着执行, Java 栈不增长
+     */
+    private LoxFunction tailCall = null;
+
+    private LoxInstance tailReceiver = null;
+
+    private int tailCount = 0;
+
+    /**
+     * 尾调用的参数, 在多次尾调用之间复用
+     */
+    private Object[] tailArguments = new Object[LoxCallable.MAX_FIXED_ARITY];
+
+    public LoxInterpreter() {
+        globals.define(ClockFunction.NAME, new ClockFunction());
+        this.jit = null;
     }
 
     /**
-     * 设置变量相对环境的深度
+     * 开启即时编译
      *
-     * @param expression expression
-     * @param depth      depth
+     * @param jitThreshold 函数的调用次数加循环次数达到多少时编译
      */
-    public void setLocal(Expression expression, int depth) {
-        this.locals.put(expression, depth);
+    public LoxInterpreter(int jitThreshold) {
+        globals.define(ClockFunction.NAME, new ClockFunction());
+        this.jit = new Jit(globals, jitThreshold);
+    }
+
+    @Override
+    public String getPrint() {
+        return print.toString();
     }
 
+
     /**
      * 执行语句
      *
      * @param statements 语句
      */
+    @Override
     public void interpret(List<Statement> statements) {
+        fp = 0;
+        top = 0;
+        upvalues = null;
+        profile = null;
+        returning = false;
+        returnValue = null;
+        tailCall = null;
         try {
             for (Statement statement : statements) {
                 execute(statement);
@@ -83,28 +146,231 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
     }
 
     /**
-     * 执行一个语法快
+     * 调用一个函数, 在值栈上为它分配栈帧
      *
-     * @param statements  语句
-     * @param environment 当前环境
+     * @param declaration 函数声明
+     * @param upvalues    闭包捕获的外层变量
+     * @param receiver    方法绑定的实例, 普通函数为 null
+     * @param count       参数个数
+     * @param a0          不超过 {@link LoxCallable#MAX_FIXED_ARITY} 个参数时, 参数直接传入, arguments 为 null
+     * @param arguments   参数更多时的参数数组
+     * @return 返回值
      */
-    public void executeBlock(List<Statement> statements, Environment environment) {
-        Environment previous = this.environment;
+    public Object executeFunction(FunctionStatement declaration, Cell[] upvalues, LoxInstance receiver,
+                                  int count, Object a0, Object a1, Object a2, Object a3, Object[] arguments) {
+        // 延迟解析的函数体在第一次调用时才解析, 之后才知道栈帧的布局
+        List<Statement> body = LazyStatements.ensureParsed(declaration.getBody());
+        FunctionProfile callee = null;
+        boolean deferred = false;
+        if (Objects.nonNull(jit)) {
+            callee = jit.profile(declaration);
+            CompiledCode code = Objects.nonNull(arguments) ? callee.enter(arguments) : callee.enter(a0, a1, a2, a3);
+            if (Objects.nonNull(code)) {
+                // 编译后的代码按数组接收参数, 只在真正进入编译后的代码时打包
+                Object[] values = Objects.nonNull(arguments) ? arguments : Arrays.copyOf(new Object[]{a0, a1, a2, a3}, count);
+                Object result = runCompiled(callee, code, upvalues, receiver, values);
+                if (result != CompiledCode.DEOPTIMIZE) {
+                    if (result != CompiledCode.TAIL_CALL) {
+                        return result;
+                    }
+                    deferred = true;
+                }
+            }
+        }
+        Cell[] callerUpvalues = this.upvalues;
+        FunctionProfile callerProfile = profile;
+        int callerFp = fp;
+        int callerTop = top;
+        fp = top;
+        profile = callee;
         try {
-            this.environment = environment;
+            while (true) {
+                // 编译后的代码已经把尾调用记下时, 直接进入蹦床
+                if (!deferred) {
+                    reserve(fp + declaration.getFrameSize());
+                    this.upvalues = upvalues;
+                    if (Objects.nonNull(declaration.getThisSlot())) {
+                        define(declaration.getThisSlot(), receiver);
+                    }
+                    List<Slot> paramSlots = declaration.getParamSlots();
+                    if (Objects.nonNull(arguments)) {
+                        for (int i = 0; i < paramSlots.size(); i++) {
+                            define(paramSlots.get(i), arguments[i]);
+                        }
+                    } else if (count > 0) {
+                        define(paramSlots.get(0), a0);
+                        if (count > 1) {
+                            define(paramSlots.get(1), a1);
+                        }
+                        if (count > 2) {
+                            define(paramSlots.get(2), a2);
+                        }
+                        if (count > 3) {
+                            define(paramSlots.get(3), a3);
+                        }
+                    }
+                    for (Statement statement : body) {
+                        execute(statement);
+                        if (returning) {
+                            break;
+                        }
+                    }
+                    returning = false;
+                    if (Objects.isNull(tailCall)) {
+                        Object result = returnValue;
+                        returnValue = null;
+                        return result;
+                    }
+                }
 
-            for (Statement statement : statements) {
-                execute(statement);
+                // 蹦床: 清空当前栈帧, 换成尾调用的函数接着执行
+                LoxFunction next = tailCall;
+                tailCall = null;
+                Arrays.fill(stack, fp, top, null);
+                top = fp;
+                declaration = next.getDeclaration();
+                body = LazyStatements.ensureParsed(declaration.getBody());
+                upvalues = next.getUpvalues();
+                receiver = tailReceiver;
+                tailReceiver = null;
+                count = tailCount;
+                arguments = tailArguments;
+                deferred = false;
+                if (Objects.nonNull(jit)) {
+                    callee = jit.profile(declaration);
+                    // 复用的参数数组只看前 count 个, 进入编译后的代码时才复制, 之后的尾调用还会改写它
+                    CompiledCode code = callee.enter(arguments);
+                    if (Objects.nonNull(code)) {
+                        Object result = runCompiled(callee, code, upvalues, receiver, Arrays.copyOf(arguments, count));
+                        if (result != CompiledCode.DEOPTIMIZE) {
+                            if (result != CompiledCode.TAIL_CALL) {
+                                return result;
+                            }
+                            deferred = true;
+                        }
+                    }
+                    profile = callee;
+                }
             }
         } finally {
-            this.environment = previous;
+            // 不让已经返回的栈帧继续引用对象
+            Arrays.fill(stack, fp, top, null);
+            fp = callerFp;
+            top = callerTop;
+            this.upvalues = callerUpvalues;
+            profile = callerProfile;
+        }
+    }
+
+    /**
+     * 执行编译后的代码
+     *
+     * @param callee    函数的统计
+     * @param code      {@link FunctionProfile#enter} 返回的编译后的代码
+     * @param upvalues  闭包捕获的外层变量
+     * @param receiver  this
+     * @param arguments 参数
+     * @return 返回值; 需要退回解释执行时返回 {@link CompiledCode#DEOPTIMIZE}
+     */
+    private Object runCompiled(FunctionProfile callee, CompiledCode code, Cell[] upvalues, LoxInstance receiver, Object[] arguments) {
+        Object result = code.invoke(this, upvalues, receiver, arguments);
+        if (result == CompiledCode.DEOPTIMIZE) {
+            callee.deoptimize(arguments);
+        }
+        return result;
+    }
+
+    /**
+     * 创建闭包时按捕获列表取出外层变量的 cell, 只捕获函数体真正引用的变量
+     *
+     * @param declaration 函数声明
+     * @return 捕获的 cell
+     */
+    private Cell[] capture(FunctionStatement declaration) {
+        List<Slot> slots = declaration.getUpvalues();
+        Cell[] cells = new Cell[slots.size()];
+        for (int i = 0; i < cells.length; i++) {
+            Slot slot = slots.get(i);
+            cells[i] = slot.getType() == SlotType.UPVALUE ? upvalues[slot.getIndex()] : (Cell) stack[fp + slot.getIndex()];
+        }
+        return cells;
+    }
+
+    /**
+     * 保证当前栈帧至少到 end
+     *
+     * @param end 结束位置
+     */
+    private void reserve(int end) {
+        if (end <= top) {
+            return;
+        }
+        top = end;
+        if (top > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+        }
+    }
+
+    /**
+     * @param slot 解析器记录的位置
+     * @return 局部变量的值
+     */
+    private Object load(Slot slot) {
+        switch (slot.getType()) {
+            case LOCAL:
+                return stack[fp + slot.getIndex()];
+            case CELL:
+                return ((Cell) stack[fp + slot.getIndex()]).getValue();
+            default:
+                return upvalues[slot.getIndex()].getValue();
+        }
+    }
+
+    /**
+     * 给已经定义的局部变量赋值
+     *
+     * @param slot  解析器记录的位置
+     * @param value value
+     */
+    private void store(Slot slot, Object value) {
+        switch (slot.getType()) {
+            case LOCAL:
+                stack[fp + slot.getIndex()] = value;
+                break;
+            case CELL:
+                ((Cell) stack[fp + slot.getIndex()]).setValue(value);
+                break;
+            default:
+                upvalues[slot.getIndex()].setValue(value);
+        }
+    }
+
+    /**
+     * 定义一个局部变量, 被捕获的变量每次定义都创建新的 cell
+     *
+     * @param slot  解析器记录的位置
+     * @param value value
+     */
+    private void define(Slot slot, Object value) {
+        if (slot.getType() == SlotType.CELL) {
+            stack[fp + slot.getIndex()] = new Cell(value);
+        } else {
+            stack[fp + slot.getIndex()] = value;
         }
     }
 
     @Override
     public Void visitBlockStatement(BlockStatement statement) {
-        Environment newEnv = new Environment(this.environment);
-        executeBlock(statement.getStatements(), newEnv);
+        if (statement.isScoped()) {
+            // 顶层代码没有函数栈帧, 由代码块保证栈帧足够大
+            reserve(fp + statement.getFrameSize());
+        }
+        for (Statement inner : statement.getStatements()) {
+            execute(inner);
+            if (returning) {
+                break;
+            }
+        }
         return null;
     }
 
@@ -119,25 +385,38 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
             superclass = (LoxClass) object;
         }
 
-        environment.define(statement.getName(), null);
+        GlobalCell cell = null;
+        if (Objects.isNull(statement.getSlot())) {
+            cell = statement.getCell();
+            if (!globals.owns(cell)) {
+                cell = globals.cell(statement.getName().getLexeme());
+                statement.setCell(cell);
+            }
+            cell.define(null);
+        } else {
+            define(statement.getSlot(), null);
+        }
 
         if (Objects.nonNull(statement.getSuperclass())) {
-            environment = new Environment(environment);
-            environment.define(new Token(TokenType.SUPER, TokenType.SUPER.getCode(), TokenType.SUPER.getCode(), -1), superclass);
+            // super 在包住所有方法的作用域里, 顶层代码可能没有代码块保证栈帧足够大
+            Slot superSlot = statement.getSuperSlot();
+            reserve(fp + superSlot.getIndex() + 1);
+            define(superSlot, superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (FunctionStatement method : statement.getMethods()) {
-            LoxFunction function = new LoxFunction(method, environment, method.getName().getLexeme().equals(LoxClass.INIT));
+            LoxFunction function = new LoxFunction(method, capture(method), method.getName().getLexeme().equals(LoxClass.INIT));
             methods.put(method.getName().getLexeme(), function);
         }
 
         LoxClass klass = new LoxClass(statement.getName().getLexeme(), superclass, methods);
 
-        if (Objects.nonNull(statement.getSuperclass())) {
-            environment = environment.getEnclosing();
+        if (Objects.nonNull(cell)) {
+            cell.define(klass);
+        } else {
+            store(statement.getSlot(), klass);
         }
-        environment.assign(statement.getName(), klass);
         return null;
     }
 
@@ -149,13 +428,21 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
 
     @Override
     public Void visitFunctionStatement(FunctionStatement statement) {
-        LoxFunction function = new LoxFunction(statement, environment, false);
-        environment.define(statement.getName(), function);
+        Slot slot = statement.getSlot();
+        if (Objects.isNull(slot)) {
+            declare(null, new LoxFunction(statement, capture(statement), false), statement.getName(), statement.getCell(), statement::setCell);
+            return null;
+        }
+        // 和类一样先定义, 引用自己的局部函数捕获的是已经创建好的 cell
+        define(slot, null);
+        store(slot, new LoxFunction(statement, capture(statement), false));
         return null;
     }
 
     @Override
     public Void visitReturnStatement(ReturnStatement statement) {
+        returnValue = Objects.isNull(statement.getValue()) ? null : evaluate(statement.getValue());
+        returning = true;
         return null;
     }
 
@@ -171,41 +458,109 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
 
     @Override
     public Void visitPrintStatement(PrintStatement statement) {
-        Object value = evaluate(statement.getExpression());
+        print(evaluate(statement.getExpression()));
+        return null;
+    }
+
+    /**
+     * 打印一个值, 编译后的代码也通过这里打印
+     *
+     * @param value value
+     */
+    public void print(Object value) {
         String out = stringify(value);
         System.out.println(out);
         this.print.append(out);
-        return null;
     }
 
     @Override
     public Void visitWhileStatement(WhileStatement statement) {
+        LoopProfile loop = Objects.isNull(jit) ? null : jit.profile(statement);
         while (isTruthy(evaluate(statement.getCondition()))) {
             execute(statement.getBody());
+            if (returning) {
+                return null;
+            }
+            if (Objects.nonNull(profile)) {
+                profile.backEdge();
+            }
+            if (Objects.nonNull(loop) && replace(loop)) {
+                return null;
+            }
         }
         return null;
     }
 
+    /**
+     * 栈上替换: 循环足够热之后把栈帧交给编译后的代码跑完剩下的迭代
+     *
+     * @param loop 循环的统计
+     * @return 循环是否已经由编译后的代码跑完
+     */
+    private boolean replace(LoopProfile loop) {
+        CompiledLoop code = loop.backEdge(index -> fp + index < stack.length && stack[fp + index] instanceof Double);
+        if (Objects.isNull(code)) {
+            return false;
+        }
+        int width = code.getWidth();
+        Object[] frame = Arrays.copyOfRange(stack, fp, fp + width);
+        if (code.run(this, upvalues, frame) == CompiledCode.DEOPTIMIZE) {
+            loop.deoptimize();
+            return false;
+        }
+        // 循环里调用的函数可能让值栈变大, 写回时以当前的值栈为准
+        reserve(fp + width);
+        System.arraycopy(frame, 0, stack, fp, width);
+        return true;
+    }
+
     @Override
     public Void visitVarStatement(VarStatement statement) {
 
-        if (Objects.isNull(statement.getInitializer())) {
-            this.environment.define(statement.getName(), null);
-            return null;
+        Object value = null;
+        if (Objects.nonNull(statement.getInitializer())) {
+            value = evaluate(statement.getInitializer());
         }
-        this.environment.define(statement.getName(), evaluate(statement.getInitializer()));
+        declare(statement.getSlot(), value, statement.getName(), statement.getCell(), statement::setCell);
         return null;
     }
 
+    /**
+     * 定义一个变量, 局部变量写入值栈, 全局变量写入存储单元
+     *
+     * @param slot   解析器记录的位置, 全局变量为 null
+     * @param value  value
+     * @param name   变量名
+     * @param cached 语法树节点上缓存的单元
+     * @param cache  缓存单元
+     */
+    private void declare(Slot slot, Object value, Token name, GlobalCell cached, Consumer<GlobalCell> cache) {
+        if (Objects.nonNull(slot)) {
+            define(slot, value);
+            return;
+        }
+        GlobalCell cell = cached;
+        if (!globals.owns(cell)) {
+            cell = globals.cell(name.getLexeme());
+            cache.accept(cell);
+        }
+        cell.define(value);
+    }
+
     @Override
     public Object visitAssignExpression(AssignExpression expression) {
         Object value = evaluate(expression.getValue());
-        Integer distance = locals.get(expression);
-        if (distance != null) {
-            environment.assignAt(distance, expression.getName(), value);
-        } else {
-            globals.assign(expression.getName(), value);
+        Slot slot = expression.getSlot();
+        if (slot != null) {
+            store(slot, value);
+            return value;
         }
+        GlobalCell cell = expression.getCell();
+        if (!globals.owns(cell)) {
+            cell = globals.cell(expression.getName().getLexeme());
+            expression.setCell(cell);
+        }
+        cell.assign(expression.getName(), value);
         return value;
     }
 
@@ -255,29 +610,154 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
 
     @Override
     public Object visitCallExpression(CallExpression expression) {
-        Object callee = evaluate(expression.getCallee());
+        if (expression.getCallee() instanceof GetExpression) {
+            return invokeMethod(expression, (GetExpression) expression.getCallee());
+        }
+        return call(expression, evaluate(expression.getCallee()), null);
+    }
+
+    /**
+     * obj.name(...): 是方法时直接以 obj 作为 this 调用, 不创建绑定后的函数; 是字段时按普通调用处理
+     */
+    private Object invokeMethod(CallExpression expression, GetExpression callee) {
+        Object object = evaluate(callee.getObject());
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(callee.getName(), "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        LoxFunction method = instance.getMethod(callee.getName(), callee.getSelector());
+        if (Objects.isNull(method)) {
+            return call(expression, instance.get(callee.getName(), callee.getSelector()), null);
+        }
+        return call(expression, method, instance);
+    }
+
+    /**
+     * 对参数求值后调用, 不超过 {@link LoxCallable#MAX_FIXED_ARITY} 个参数时走固定参数个数的入口, 不创建参数数组
+     *
+     * @param expression 调用表达式
+     * @param callee     被调用的值
+     * @param receiver   不为 null 时 callee 是这个实例的方法, 以它作为 this 调用
+     * @return 返回值
+     */
+    private Object call(CallExpression expression, Object callee, LoxInstance receiver) {
+        List<Expression> arguments = expression.getArguments();
+        int count = arguments.size();
+        if (count > LoxCallable.MAX_FIXED_ARITY) {
+            Object[] values = new Object[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = evaluate(arguments.get(i));
+            }
+            check(expression, callee, count);
+            if (expression.isTail() && deferTailCall(callee, receiver)) {
+                tailArguments = values;
+                tailCount = count;
+                return null;
+            }
+            if (Objects.nonNull(receiver)) {
+                return ((LoxFunction) callee).invoke(this, receiver, values);
+            }
+            return ((LoxCallable) callee).call(this, values);
+        }
+
+        Object a0 = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object a1 = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object a2 = count > 2 ? evaluate(arguments.get(2)) : null;
+        Object a3 = count > 3 ? evaluate(arguments.get(3)) : null;
+        check(expression, callee, count);
+        if (expression.isTail() && deferTailCall(callee, receiver)) {
+            Object[] buffer = tailArguments;
+            buffer[0] = a0;
+            buffer[1] = a1;
+            buffer[2] = a2;
+            buffer[3] = a3;
+            tailCount = count;
+            return null;
+        }
+        if (Objects.nonNull(receiver)) {
+            return ((LoxFunction) callee).invoke(this, receiver, count, a0, a1, a2, a3);
+        }
+        LoxCallable function = (LoxCallable) callee;
+        switch (count) {
+            case 0:
+                return function.call(this);
+            case 1:
+                return function.call(this, a0);
+            case 2:
+                return function.call(this, a0, a1);
+            case 3:
+                return function.call(this, a0, a1, a2);
+            default:
+                return function.call(this, a0, a1, a2, a3);
+        }
+    }
+
+    /**
+     * 编译后的代码里的尾调用, 推迟时返回 {@link CompiledCode#TAIL_CALL}, 由 {@link #executeFunction} 的蹦床执行
+     *
+     * @param callee    被调用的值, 已经检查过
+     * @param arguments 参数
+     * @return 是否推迟了调用
+     */
+    public boolean deferTailCall(Object callee, Object[] arguments) {
+        if (!deferTailCall(callee, (LoxInstance) null)) {
+            return false;
+        }
+        if (arguments.length > tailArguments.length) {
+            tailArguments = arguments;
+        } else {
+            System.arraycopy(arguments, 0, tailArguments, 0, arguments.length);
+        }
+        tailCount = arguments.length;
+        return true;
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expression argument : expression.getArguments()) {
-            arguments.add(evaluate(argument));
+    /**
+     * 尾调用的被调用者是解释执行的函数时, 记下它等 return 传回 {@link #executeFunction} 后再执行, 参数由调用方记录
+     *
+     * @param callee   被调用的值, 已经检查过
+     * @param receiver 调用方法时的实例
+     * @return 是否推迟了调用
+     */
+    private boolean deferTailCall(Object callee, LoxInstance receiver) {
+        if (!(callee instanceof LoxFunction) || !((LoxFunction) callee).isTailCallable()) {
+            return false;
         }
+        LoxFunction function = (LoxFunction) callee;
+        tailCall = function;
+        tailReceiver = Objects.nonNull(receiver) ? receiver : function.getReceiver();
+        return true;
+    }
 
+    /**
+     * 检查被调用者可以调用并且参数个数正确, 检查过的记在调用点的缓存里
+     */
+    private void check(CallExpression expression, Object callee, int count) {
+        CallSiteCache cache = expression.getCache();
+        if (Objects.isNull(cache)) {
+            cache = new CallSiteCache();
+            expression.setCache(cache);
+        }
+        // 命中缓存的被调用者已经检查过可以调用, 参数个数也对
+        if (cache.hit(callee)) {
+            return;
+        }
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expression.getParen(), "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
-        if (arguments.size() != function.getArity()) {
-            throw new RuntimeError(expression.getParen(), "Expected " + function.getArity() + " arguments but got " + arguments.size() + ".");
+        if (count != function.getArity()) {
+            throw new RuntimeError(expression.getParen(), "Expected " + function.getArity() + " arguments but got " + count + ".");
         }
-        return function.call(this, arguments);
+        cache.add(callee);
     }
 
     @Override
     public Object visitGetExpression(GetExpression expression) {
         Object object = evaluate(expression.getObject());
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expression.getName());
+            return ((LoxInstance) object).get(expression.getName(), expression.getSelector());
         }
 
         throw new RuntimeError(expression.getName(), "Only instances have properties.");
@@ -319,17 +799,15 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
         }
 
         Object value = evaluate(expression.getValue());
-        ((LoxInstance) object).set(expression.getName(), value);
+        ((LoxInstance) object).set(expression.getSelector(), value);
         return value;
     }
 
     @Override
     public Object visitSuperExpression(SuperExpression expression) {
-        int distance = locals.get(expression);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, TokenType.SUPER.getCode());
-        // 这里默认 this 会比 super 的 distance 少一, 查看: com.cc.lox.resolve.Resolver.visitClassStatement
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, TokenType.THIS.getCode());
-        LoxFunction method = superclass.findMethod(expression.getMethod().getLexeme());
+        LoxClass superclass = (LoxClass) load(expression.getSlot());
+        LoxInstance object = (LoxInstance) load(expression.getThisSlot());
+        LoxFunction method = superclass.findMethod(expression.getSelector());
         if (Objects.isNull(method)) {
             throw new RuntimeError(expression.getMethod(), "Undefined property '" + expression.getMethod().getLexeme() + "'.");
         }
@@ -338,7 +816,7 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
 
     @Override
     public Object visitThisExpression(ThisExpression expression) {
-        return lookUpVariable(expression.getKeyword(), expression);
+        return load(expression.getSlot());
     }
 
     @Override
@@ -359,94 +837,27 @@ public class LoxInterpreter implements ExpressionVisitor<Object>, StatementVisit
 
     @Override
     public Object visitVariableExpression(VariableExpression expression) {
-        return lookUpVariable(expression.getName(), expression);
+        return lookUpVariable(expression);
     }
 
     /**
-     * @param name token
-     * @param expr expression
+     * @param expression 变量
      * @return 变量的值
      */
-    private Object lookUpVariable(Token name, Expression expr) {
-        Integer distance = locals.get(expr);
-        if (Objects.nonNull(distance)) {
-            return environment.getAt(distance, name.getLexeme());
-        } else {
-            return globals.get(name);
+    private Object lookUpVariable(VariableExpression expression) {
+        Slot slot = expression.getSlot();
+        if (Objects.nonNull(slot)) {
+            return load(slot);
         }
-    }
-
-
-    /**
-     * @param object value
-     * @return 字符串
-     */
-    private String stringify(Object object) {
-        if (Objects.isNull(object)) {
-            return "nil";
-        }
-
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
+        // 第一次执行之后直接使用缓存的存储单元
+        GlobalCell cell = expression.getCell();
+        if (!globals.owns(cell)) {
+            cell = globals.cell(expression.getName().getLexeme());
+            expression.setCell(cell);
         }
-
-        return object.toString();
-    }
-
-    /**
-     * @param operator token
-     * @param operand  value
-     */
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
-    }
-
-    /**
-     * @param operator token
-     * @param left     left
-     * @param right    right
-     */
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-
-        throw new RuntimeError(operator, "Operands must be numbers.");
-    }
-
-
-    /**
-     * @param a a
-     * @param b b
-     * @return 两个对象是否相等
-     */
-    private boolean isEqual(Object a, Object b) {
-        if (Objects.isNull(a) && Objects.isNull(b)) {
-            return true;
-        }
-        if (Objects.isNull(a)) {
-            return false;
-        }
-
-        return a.equals(b);
+        return cell.get(expression.getName());
     }
 
-    /**
-     * @param object 值
-     * @return 是否为真
-     */
-    private boolean isTruthy(Object object) {
-        if (Objects.isNull(object)) {
-            return false;
-        }
-        if (object instanceof Boolean) {
-            return (boolean) object;
-        }
-        return true;
-    }
 
     /**
      * 对表达式求值
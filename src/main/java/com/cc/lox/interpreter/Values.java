@@ -0,0 +1,88 @@
+package com.cc.lox.interpreter;
+
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.scanner.Token;
+
+import java.util.Objects;
+
+/**
+ * 各个执行引擎共用的值语义: 真假、相等、打印和数字检查
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public final class Values {
+
+    private Values() {
+    }
+
+    /**
+     * @param object value
+     * @return 字符串
+     */
+    public static String stringify(Object object) {
+        if (Objects.isNull(object)) {
+            return "nil";
+        }
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return object.toString();
+    }
+
+    /**
+     * @param operator token
+     * @param operand  value
+     */
+    public static void checkNumberOperand(Token operator, Object operand) {
+        if (operand instanceof Double) return;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    /**
+     * @param operator token
+     * @param left     left
+     * @param right    right
+     */
+    public static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    /**
+     * @param a a
+     * @param b b
+     * @return 两个对象是否相等
+     */
+    public static boolean isEqual(Object a, Object b) {
+        if (Objects.isNull(a) && Objects.isNull(b)) {
+            return true;
+        }
+        if (Objects.isNull(a)) {
+            return false;
+        }
+
+        return a.equals(b);
+    }
+
+    /**
+     * @param object 值
+     * @return 是否为真
+     */
+    public static boolean isTruthy(Object object) {
+        if (Objects.isNull(object)) {
+            return false;
+        }
+        if (object instanceof Boolean) {
+            return (boolean) object;
+        }
+        return true;
+    }
+}
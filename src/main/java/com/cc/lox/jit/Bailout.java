@@ -0,0 +1,19 @@
+package com.cc.lox.jit;
+
+/**
+ * 即时编译器放弃编译时抛出, 函数或者循环继续解释执行
+ * <p>
+ * 只表示遇到了不支持的语法或者超出了 class 文件的限制; 生成的字节码有错之类的真正的错误不用它, 直接向外抛出
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class Bailout extends RuntimeException {
+
+    /**
+     * @param reason 放弃的原因, 不需要栈轨迹
+     */
+    Bailout(String reason) {
+        super(reason, null, false, false);
+    }
+}
@@ -0,0 +1,213 @@
+package com.cc.lox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 最小的 class 文件生成器, 只支持即时编译用到的常量和一个类里的若干方法
+ * <p>
+ * 版本号用 49 (Java 5), 这个版本的 class 由类型推导校验器校验, 不需要生成 StackMapTable
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class ClassWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+
+    static final int ACC_FINAL = 0x0010;
+
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+
+    private static final int CONSTANT_DOUBLE = 6;
+
+    private static final int CONSTANT_CLASS = 7;
+
+    private static final int CONSTANT_STRING = 8;
+
+    private static final int CONSTANT_FIELD = 9;
+
+    private static final int CONSTANT_METHOD = 10;
+
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+    /**
+     * 常量的键 -> 常量池下标, 相同的常量只写一次
+     */
+    private final Map<String, Integer> entries = new HashMap<>();
+
+    /**
+     * 下一个常量的下标, double 占两个位置
+     */
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+
+    private int methodCount = 0;
+
+    private final int thisClass;
+
+    private final int superClass;
+
+    /**
+     * @param name      类的内部名称, 比如 com/cc/lox/Foo
+     * @param superName 父类的内部名称
+     */
+    ClassWriter(String name, String superName) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, out -> {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+        }, 1);
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, out -> {
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(name);
+        }, 1);
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return entry("S" + value, out -> {
+            out.writeByte(CONSTANT_STRING);
+            out.writeShort(utf8);
+        }, 1);
+    }
+
+    int doubleConstant(double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), out -> {
+            out.writeByte(CONSTANT_DOUBLE);
+            out.writeDouble(value);
+        }, 2);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELD, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHOD, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int classIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + ":" + descriptor, out -> {
+            out.writeByte(CONSTANT_NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        }, 1);
+        return entry(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(classIndex);
+            out.writeShort(nameAndType);
+        }, 1);
+    }
+
+    /**
+     * 添加一个带 Code 属性的方法, 不生成异常表和调试信息
+     *
+     * @param access     访问标志
+     * @param name       方法名
+     * @param descriptor 方法描述符
+     * @param code       方法体
+     */
+    void method(int access, String name, String descriptor, CodeBuilder code) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int codeIndex = utf8("Code");
+        byte[] bytes = code.toByteArray();
+        try {
+            methods.writeShort(access);
+            methods.writeShort(nameIndex);
+            methods.writeShort(descriptorIndex);
+            methods.writeShort(1);
+            methods.writeShort(codeIndex);
+            methods.writeInt(12 + bytes.length);
+            methods.writeShort(code.getMaxStack());
+            methods.writeShort(code.getMaxLocals());
+            methods.writeInt(bytes.length);
+            methods.write(bytes);
+            // 异常表和属性都为空
+            methods.writeShort(0);
+            methods.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methodCount++;
+    }
+
+    /**
+     * @return class 文件的内容
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            // 没有接口和字段
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int entry(String key, PoolWriter writer, int width) {
+        Integer index = entries.get(key);
+        if (index != null) {
+            return index;
+        }
+        if (poolCount + width > 0xffff) {
+            throw new Bailout("Too many constants in class file.");
+        }
+        try {
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index = poolCount;
+        poolCount += width;
+        entries.put(key, index);
+        return index;
+    }
+
+    @FunctionalInterface
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
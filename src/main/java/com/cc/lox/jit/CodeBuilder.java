@@ -0,0 +1,315 @@
+package com.cc.lox.jit;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一个方法的 JVM 字节码, 边生成边统计操作数栈的最大深度
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class CodeBuilder {
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int DCONST_0 = 0x0e;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP_X1 = 0x5a;
+    static final int DUP_X2 = 0x5b;
+    static final int DUP2 = 0x5c;
+    static final int SWAP = 0x5f;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int INSTANCEOF = 0xc1;
+    static final int WIDE = 0xc4;
+
+    private final ClassWriter classWriter;
+
+    private byte[] code = new byte[256];
+
+    private int size = 0;
+
+    /**
+     * 当前的操作数栈深度, 以 slot 计, double 占两个
+     */
+    private int depth = 0;
+
+    @Getter
+    private int maxStack = 0;
+
+    @Getter
+    private int maxLocals;
+
+    private final List<Label> labels = new ArrayList<>();
+
+    CodeBuilder(ClassWriter classWriter, int maxLocals) {
+        this.classWriter = classWriter;
+        this.maxLocals = maxLocals;
+    }
+
+    /**
+     * 跳转目标, 绑定之前的跳转在绑定时回填
+     */
+    static final class Label {
+
+        private int position = -1;
+
+        /**
+         * 跳到这里时的栈深度, 还没有跳转指向它时为 -1
+         */
+        private int depth = -1;
+
+        /**
+         * 待回填的跳转指令的位置
+         */
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    Label label() {
+        Label label = new Label();
+        labels.add(label);
+        return label;
+    }
+
+    /**
+     * 把标签绑定到当前位置; 前面的指令不会落到这里时, 栈深度取自跳转
+     *
+     * @param label 标签
+     */
+    void mark(Label label) {
+        label.position = size;
+        if (label.depth >= 0) {
+            depth = label.depth;
+        } else {
+            label.depth = depth;
+        }
+        for (int at : label.fixups) {
+            patch(at, label.position - at);
+        }
+    }
+
+    /**
+     * @param opcode 跳转指令
+     * @param label  目标
+     */
+    void jump(int opcode, Label label) {
+        int at = size;
+        adjust(opcode == GOTO ? 0 : -1);
+        write(opcode);
+        write(0);
+        write(0);
+        label.depth = depth;
+        if (label.position >= 0) {
+            patch(at, label.position - at);
+        } else {
+            label.fixups.add(at);
+        }
+    }
+
+    private void patch(int at, int offset) {
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new Bailout("Jump too far in compiled function.");
+        }
+        code[at + 1] = (byte) (offset >> 8);
+        code[at + 2] = (byte) offset;
+    }
+
+    /**
+     * 没有操作数的指令
+     *
+     * @param opcode 指令
+     * @param delta  栈深度的变化
+     */
+    void op(int opcode, int delta) {
+        adjust(delta);
+        write(opcode);
+    }
+
+    void iconst(int value) {
+        adjust(1);
+        if (value >= -1 && value <= 5) {
+            write(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            write(BIPUSH);
+            write(value);
+        } else {
+            write(SIPUSH);
+            writeShort(value);
+        }
+    }
+
+    void ldc(String value) {
+        constant(classWriter.string(value));
+    }
+
+    void ldc(double value) {
+        if (value == 0 && Double.doubleToRawLongBits(value) == 0) {
+            op(DCONST_0, 2);
+            return;
+        }
+        adjust(2);
+        write(LDC2_W);
+        writeShort(classWriter.doubleConstant(value));
+    }
+
+    private void constant(int index) {
+        adjust(1);
+        if (index <= 0xff) {
+            write(LDC);
+            write(index);
+        } else {
+            write(LDC_W);
+            writeShort(index);
+        }
+    }
+
+    void load(int opcode, int local) {
+        adjust(opcode == DLOAD ? 2 : 1);
+        local(opcode, local);
+    }
+
+    void store(int opcode, int local) {
+        adjust(opcode == DSTORE ? -2 : -1);
+        local(opcode, local);
+    }
+
+    private void local(int opcode, int local) {
+        maxLocals = Math.max(maxLocals, local + (opcode == DLOAD || opcode == DSTORE ? 2 : 1));
+        if (local <= 0xff) {
+            write(opcode);
+            write(local);
+        } else {
+            write(WIDE);
+            write(opcode);
+            writeShort(local);
+        }
+    }
+
+    /**
+     * NEW, ANEWARRAY, CHECKCAST, INSTANCEOF
+     *
+     * @param opcode       指令
+     * @param internalName 类型的内部名称
+     */
+    void type(int opcode, String internalName) {
+        adjust(opcode == NEW ? 1 : 0);
+        write(opcode);
+        writeShort(classWriter.classRef(internalName));
+    }
+
+    void getField(int opcode, String owner, String name, String descriptor) {
+        int size = slots(descriptor.charAt(0));
+        adjust(opcode == GETFIELD ? size - 1 : size);
+        write(opcode);
+        writeShort(classWriter.fieldRef(owner, name, descriptor));
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+        int delta = -argumentSlots(descriptor) + slots(descriptor.charAt(descriptor.indexOf(')') + 1));
+        adjust(opcode == INVOKESTATIC ? delta : delta - 1);
+        write(opcode);
+        writeShort(classWriter.methodRef(owner, name, descriptor));
+    }
+
+    /**
+     * @return 方法体的字节码
+     */
+    byte[] toByteArray() {
+        for (Label label : labels) {
+            if (label.position < 0 && !label.fixups.isEmpty()) {
+                throw new IllegalStateException("Unbound label in compiled function.");
+            }
+        }
+        if (size > 0xffff) {
+            throw new Bailout("Compiled function too large.");
+        }
+        return Arrays.copyOf(code, size);
+    }
+
+    private void adjust(int delta) {
+        depth += delta;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void write(int b) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = (byte) b;
+    }
+
+    private void writeShort(int value) {
+        write(value >> 8);
+        write(value);
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            slots += slots(c);
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+            if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            i++;
+        }
+        return slots;
+    }
+
+    private static int slots(char type) {
+        switch (type) {
+            case 'V':
+                return 0;
+            case 'D':
+            case 'J':
+                return 2;
+            default:
+                return 1;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.cc.lox.jit;
+
+import com.cc.lox.clazz.LoxInstance;
+import com.cc.lox.environment.Cell;
+import com.cc.lox.interpreter.LoxInterpreter;
+
+/**
+ * 即时编译生成的类的父类, 每个编译过的函数声明对应一个子类
+ * <p>
+ * 生成的类由单独的类加载器加载, 和这里不在同一个运行时包, 所以子类用到的成员都不能是包级私有的
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public abstract class CompiledCode {
+
+    /**
+     * 入口处的类型假设不成立时的返回值, 调用者回到解释器执行这一次调用
+     */
+    public static final Object DEOPTIMIZE = new Object();
+
+    /**
+     * 尾调用别的函数时的返回值, 被调用的函数和参数已经记在解释器里, 调用者在蹦床里接着执行
+     */
+    public static final Object TAIL_CALL = new Object();
+
+    /**
+     * 生成的代码用到的 token 和全局变量单元, 按编译时分配的下标读取
+     */
+    protected final Object[] constants;
+
+    protected CompiledCode(Object[] constants) {
+        this.constants = constants;
+    }
+
+    /**
+     * @param interpreter 调用其他函数和打印时使用的解释器
+     * @param upvalues    闭包捕获的外层变量
+     * @param receiver    方法绑定的实例, 普通函数为 null
+     * @param arguments   参数
+     * @return 返回值, 或者 {@link #DEOPTIMIZE}、{@link #TAIL_CALL}
+     */
+    public abstract Object invoke(LoxInterpreter interpreter, Cell[] upvalues, LoxInstance receiver, Object[] arguments);
+}
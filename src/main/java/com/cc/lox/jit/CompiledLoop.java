@@ -0,0 +1,43 @@
+package com.cc.lox.jit;
+
+import com.cc.lox.environment.Cell;
+import com.cc.lox.interpreter.LoxInterpreter;
+import lombok.Getter;
+
+/**
+ * 栈上替换生成的类的父类: 解释器跑到一半的循环从这里接着跑完
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public abstract class CompiledLoop {
+
+    /**
+     * 生成的代码用到的 token 和全局变量单元, 按编译时分配的下标读取
+     */
+    protected final Object[] constants;
+
+    /**
+     * 循环读写的栈帧宽度, 从当前栈帧开始算
+     */
+    @Getter
+    private int width;
+
+    protected CompiledLoop(Object[] constants) {
+        this.constants = constants;
+    }
+
+    void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * 进入时从 frame 读取循环用到的局部变量, 正常退出时写回
+     *
+     * @param interpreter 调用其他函数和打印时使用的解释器
+     * @param upvalues    当前闭包捕获的外层变量
+     * @param frame       当前栈帧的副本, 长度为 {@link #getWidth()}
+     * @return null, 或者 {@link CompiledCode#DEOPTIMIZE}, 这时 frame 没有被修改
+     */
+    public abstract Object run(LoxInterpreter interpreter, Cell[] upvalues, Object[] frame);
+}
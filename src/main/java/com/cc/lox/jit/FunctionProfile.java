@@ -0,0 +1,138 @@
+package com.cc.lox.jit;
+
+import com.cc.lox.function.LoxCallable;
+import com.cc.lox.parser.statement.impl.FunctionStatement;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 一个函数声明在一个解释器里的执行统计, 同一个声明创建的所有闭包共享
+ * <p>
+ * 调用次数和循环回边次数之和达到阈值之后编译成 JVM 字节码; 编译时假设一直是数字的参数仍然是数字,
+ * 假设不成立时放弃编译结果回到解释器, 重新统计之后不再做这个假设
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class FunctionProfile {
+
+    /**
+     * 放弃编译结果超过这个次数之后这个函数只解释执行
+     */
+    private static final int MAX_DEOPTIMIZATIONS = 8;
+
+    @Getter(AccessLevel.PACKAGE)
+    private final Jit owner;
+
+    private final FunctionStatement declaration;
+
+    /**
+     * 调用次数加上循环回边次数
+     */
+    private int counter = 0;
+
+    /**
+     * 每个参数到目前为止是否一直是数字
+     */
+    private final boolean[] numbers;
+
+    private CompiledCode code;
+
+    private int deoptimizations = 0;
+
+    /**
+     * 函数体里有不支持编译的语法, 或者放弃编译结果的次数太多
+     */
+    private boolean disabled = false;
+
+    FunctionProfile(Jit owner, FunctionStatement declaration) {
+        this.owner = owner;
+        this.declaration = declaration;
+        this.numbers = new boolean[declaration.getParams().size()];
+        Arrays.fill(numbers, true);
+    }
+
+    /**
+     * 每次调用之前统计, 足够热的时候编译
+     *
+     * @param arguments 参数, 可以是比参数个数更长的复用数组, 只看前面的参数
+     * @return 编译好的代码, 还需要解释执行时返回 null
+     */
+    public CompiledCode enter(Object[] arguments) {
+        if (Objects.nonNull(code) || disabled) {
+            return code;
+        }
+        record(arguments);
+        return count();
+    }
+
+    /**
+     * 不超过 {@link LoxCallable#MAX_FIXED_ARITY} 个参数时直接统计, 不为统计打包参数数组
+     *
+     * @param a0 参数, 超过参数个数的忽略
+     * @return 编译好的代码, 还需要解释执行时返回 null
+     */
+    public CompiledCode enter(Object a0, Object a1, Object a2, Object a3) {
+        if (Objects.nonNull(code) || disabled) {
+            return code;
+        }
+        int count = numbers.length;
+        if (count > 0) {
+            numbers[0] &= a0 instanceof Double;
+        }
+        if (count > 1) {
+            numbers[1] &= a1 instanceof Double;
+        }
+        if (count > 2) {
+            numbers[2] &= a2 instanceof Double;
+        }
+        if (count > 3) {
+            numbers[3] &= a3 instanceof Double;
+        }
+        return count();
+    }
+
+    private CompiledCode count() {
+        if (++counter >= owner.getThreshold()) {
+            code = owner.compile(declaration, this);
+            disabled = Objects.isNull(code);
+        }
+        return code;
+    }
+
+    /**
+     * 解释执行的循环每跑一圈统计一次
+     */
+    public void backEdge() {
+        counter++;
+    }
+
+    /**
+     * 编译后的代码在入口发现参数类型和假设不一致, 放弃编译结果
+     *
+     * @param arguments 这次调用的参数
+     */
+    public void deoptimize(Object[] arguments) {
+        code = null;
+        counter = 0;
+        record(arguments);
+        disabled = ++deoptimizations > MAX_DEOPTIMIZATIONS;
+    }
+
+    /**
+     * @param index 参数下标
+     * @return 编译时是否假设这个参数是数字
+     */
+    boolean isNumber(int index) {
+        return numbers[index];
+    }
+
+    private void record(Object[] arguments) {
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] &= arguments[i] instanceof Double;
+        }
+    }
+}
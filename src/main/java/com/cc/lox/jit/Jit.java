@@ -0,0 +1,122 @@
+package com.cc.lox.jit;
+
+import com.cc.lox.environment.Globals;
+import com.cc.lox.parser.statement.impl.FunctionStatement;
+import com.cc.lox.parser.statement.impl.WhileStatement;
+import lombok.Getter;
+
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * 树遍历解释器的即时编译器: 热的函数和循环编译成 JVM 类, 交给 HotSpot 继续内联和分配寄存器,
+ * 冷的代码继续解释执行
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class Jit {
+
+    private static final String PACKAGE = "com.cc.lox.jit.compiled.";
+
+    /**
+     * 调用次数加循环回边次数达到多少时编译
+     */
+    @Getter
+    private final int threshold;
+
+    private final Globals globals;
+
+    private final JitClassLoader loader = new JitClassLoader();
+
+    /**
+     * 已经生成的类的个数, 用于生成不重复的类名
+     */
+    private int classes = 0;
+
+    /**
+     * @param globals   解释器的全局变量, 编译后的代码直接引用其中的存储单元
+     * @param threshold 编译阈值
+     */
+    public Jit(Globals globals, int threshold) {
+        this.globals = globals;
+        this.threshold = threshold;
+    }
+
+    /**
+     * 取出函数声明在这个解释器里的统计, 缓存在语法树节点上
+     *
+     * @param declaration 函数声明
+     * @return 统计
+     */
+    public FunctionProfile profile(FunctionStatement declaration) {
+        FunctionProfile profile = declaration.getProfile();
+        if (Objects.isNull(profile) || profile.getOwner() != this) {
+            profile = new FunctionProfile(this, declaration);
+            declaration.setProfile(profile);
+        }
+        return profile;
+    }
+
+    /**
+     * 取出循环在这个解释器里的统计, 缓存在语法树节点上
+     *
+     * @param statement 循环
+     * @return 统计
+     */
+    public LoopProfile profile(WhileStatement statement) {
+        LoopProfile profile = statement.getProfile();
+        if (Objects.isNull(profile) || profile.getOwner() != this) {
+            profile = new LoopProfile(this, statement);
+            statement.setProfile(profile);
+        }
+        return profile;
+    }
+
+    /**
+     * @param declaration 函数声明, 函数体已经解析完成
+     * @param profile     参数类型的统计
+     * @return 编译好的代码, 放弃编译时返回 null
+     */
+    CompiledCode compile(FunctionStatement declaration, FunctionProfile profile) {
+        String name = PACKAGE + declaration.getName().getLexeme() + "$" + (++classes);
+        try {
+            JitCompiler compiler = new JitCompiler(globals);
+            byte[] bytes = compiler.compileFunction(name.replace('.', '/'), declaration, profile::isNumber);
+            Class<?> type = loader.define(name, bytes);
+            return (CompiledCode) instantiate(type, compiler);
+        } catch (Bailout e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param statement  循环
+     * @param numberSlot 栈帧里的局部变量现在是否是数字
+     * @return 编译好的循环, 放弃编译时返回 null
+     */
+    CompiledLoop compile(WhileStatement statement, IntPredicate numberSlot) {
+        String name = PACKAGE + "loop$" + (++classes);
+        try {
+            JitCompiler compiler = new JitCompiler(globals);
+            byte[] bytes = compiler.compileLoop(name.replace('.', '/'), statement, numberSlot);
+            Class<?> type = loader.define(name, bytes);
+            CompiledLoop loop = (CompiledLoop) instantiate(type, compiler);
+            loop.setWidth(compiler.getWidth());
+            return loop;
+        } catch (Bailout e) {
+            return null;
+        }
+    }
+
+    /**
+     * 生成的类都有一个接收常量数组的构造函数, 创建失败说明生成的 class 文件有错, 不能当作放弃编译
+     */
+    private static Object instantiate(Class<?> type, JitCompiler compiler) {
+        try {
+            return type.getConstructor(Object[].class).newInstance((Object) compiler.getConstants());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot instantiate compiled class " + type.getName() + ".", e);
+        }
+    }
+}
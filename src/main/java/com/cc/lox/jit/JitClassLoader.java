@@ -0,0 +1,23 @@
+package com.cc.lox.jit;
+
+/**
+ * 加载即时编译生成的类, 每个解释器一个, 解释器不再使用之后生成的类可以一起被回收
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class JitClassLoader extends ClassLoader {
+
+    JitClassLoader() {
+        super(CompiledCode.class.getClassLoader());
+    }
+
+    /**
+     * @param name  类名
+     * @param bytes class 文件
+     * @return 加载的类
+     */
+    Class<?> define(String name, byte[] bytes) {
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,902 @@
+package com.cc.lox.jit;
+
+import com.cc.lox.environment.Globals;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+import com.cc.lox.jit.CodeBuilder.Label;
+import com.cc.lox.parser.expression.Expression;
+import com.cc.lox.parser.expression.ExpressionVisitor;
+import com.cc.lox.parser.expression.impl.*;
+import com.cc.lox.parser.statement.Statement;
+import com.cc.lox.parser.statement.StatementVisitor;
+import com.cc.lox.parser.statement.impl.*;
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+import static com.cc.lox.jit.CodeBuilder.*;
+
+/**
+ * 把一个函数声明编译成 {@link CompiledCode} 的子类, 或者把一个正在解释执行的循环编译成 {@link CompiledLoop} 的子类
+ * <p>
+ * 局部变量放在 JVM 局部变量里, 所有定义和赋值都是数字的局部变量不装箱, 用 double 保存;
+ * 参数是否是数字来自解释执行时的统计, 循环外面定义的局部变量是否是数字来自进入循环时的值,
+ * 在入口检查, 不成立时返回 {@link CompiledCode#DEOPTIMIZE}。
+ * 不知道类型的运算调用 {@link JitRuntime}, 语义和报错与解释器一致。
+ * 尾调用自己时更新参数后跳回函数开头, 尾调用别的函数时交给解释器的蹦床, 都不占用 Java 栈。
+ * 函数体里有嵌套的函数、类或者 super 时抛出 {@link Bailout}, 不编译
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class JitCompiler implements ExpressionVisitor<ValueType>, StatementVisitor<Void> {
+
+    private static final String CODE = "com/cc/lox/jit/CompiledCode";
+    private static final String LOOP = "com/cc/lox/jit/CompiledLoop";
+    private static final String RUNTIME = "com/cc/lox/jit/JitRuntime";
+    private static final String VALUES = "com/cc/lox/interpreter/Values";
+    private static final String INTERPRETER = "com/cc/lox/interpreter/LoxInterpreter";
+    private static final String CELL = "com/cc/lox/environment/Cell";
+    private static final String GLOBAL_CELL = "com/cc/lox/environment/GlobalCell";
+    private static final String TOKEN = "com/cc/lox/scanner/Token";
+    private static final String INSTANCE = "com/cc/lox/clazz/LoxInstance";
+    private static final String FUNCTION = "com/cc/lox/parser/statement/impl/FunctionStatement";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOLEAN = "java/lang/Boolean";
+
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+    private static final String TOKEN_DESC = "L" + TOKEN + ";";
+    private static final String INVOKE_DESC = "(L" + INTERPRETER + ";[L" + CELL + ";L" + INSTANCE + ";[Ljava/lang/Object;)" + OBJECT_DESC;
+    private static final String RUN_DESC = "(L" + INTERPRETER + ";[L" + CELL + ";[Ljava/lang/Object;)" + OBJECT_DESC;
+    private static final String BINARY_DESC = "(" + OBJECT_DESC + OBJECT_DESC + TOKEN_DESC + ")";
+    private static final String CALL_DESC = "(" + OBJECT_DESC + "[Ljava/lang/Object;" + TOKEN_DESC + "L" + INTERPRETER + ";)" + OBJECT_DESC;
+
+    /**
+     * invoke 和 run 方法的参数所在的 JVM 局部变量, 函数的局部变量从 FIRST_LOCAL 开始
+     */
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int UPVALUES_LOCAL = 2;
+    private static final int RECEIVER_LOCAL = 3;
+    private static final int FRAME_LOCAL = 3;
+    private static final int ARGUMENTS_LOCAL = 4;
+    private static final int FIRST_LOCAL = 5;
+
+    private final Globals globals;
+
+    /**
+     * 已经确定不能用 double 保存的局部变量的栈帧下标
+     */
+    private final Set<Integer> objects = new HashSet<>();
+
+    /**
+     * 这一遍生成时发现不能用 double 保存的局部变量
+     */
+    private final Set<Integer> violations = new HashSet<>();
+
+    /**
+     * 局部变量是否可以假设为数字, 还要再排除掉 {@link #objects}
+     */
+    private IntPredicate candidate;
+
+    /**
+     * 生成的代码读写过的局部变量, 循环进入和退出时要和解释器的栈帧交换
+     */
+    private final Set<Integer> used = new TreeSet<>();
+
+    /**
+     * 在循环里面定义的局部变量, 进入循环时不需要读取
+     */
+    private final Set<Integer> declared = new HashSet<>();
+
+    /**
+     * 正在编译的是循环而不是函数
+     */
+    private boolean loop;
+
+    /**
+     * 正在编译的函数
+     */
+    private FunctionStatement function;
+
+    /**
+     * 函数开头检查完参数类型之后的位置, 尾调用自己时跳到这里
+     */
+    private Label restart;
+
+    private final List<Object> constants = new ArrayList<>();
+
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+
+    /**
+     * 生成的类的父类, 常量数组定义在这里
+     */
+    private String superName;
+
+    private ClassWriter classWriter;
+
+    private CodeBuilder code;
+
+    /**
+     * @param globals 全局变量
+     */
+    JitCompiler(Globals globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * @return 生成的代码引用的常量, 作为构造函数的参数
+     */
+    Object[] getConstants() {
+        return constants.toArray();
+    }
+
+    /**
+     * @return 循环用到的栈帧宽度
+     */
+    int getWidth() {
+        return used.isEmpty() ? 0 : ((TreeSet<Integer>) used).last() + 1;
+    }
+
+    /**
+     * 编译成 {@link CompiledCode} 的子类
+     *
+     * @param className   类的内部名称
+     * @param declaration 函数声明
+     * @param numberParam 参数是否假设为数字
+     * @return class 文件
+     */
+    byte[] compileFunction(String className, FunctionStatement declaration, IntPredicate numberParam) {
+        Set<Integer> excluded = new HashSet<>();
+        if (Objects.nonNull(declaration.getThisSlot())) {
+            excluded.add(declaration.getThisSlot().getIndex());
+        }
+        List<Slot> paramSlots = declaration.getParamSlots();
+        for (int i = 0; i < paramSlots.size(); i++) {
+            if (!numberParam.test(i)) {
+                excluded.add(paramSlots.get(i).getIndex());
+            }
+        }
+        candidate = index -> !excluded.contains(index);
+        function = declaration;
+        return compile(className, CODE, "invoke", INVOKE_DESC, () -> function(declaration));
+    }
+
+    /**
+     * 编译成 {@link CompiledLoop} 的子类
+     *
+     * @param className  类的内部名称
+     * @param statement  循环
+     * @param numberSlot 进入循环时栈帧里的值是否是数字
+     * @return class 文件
+     */
+    byte[] compileLoop(String className, WhileStatement statement, IntPredicate numberSlot) {
+        loop = true;
+        candidate = index -> declared.contains(index) || numberSlot.test(index);
+        return compile(className, LOOP, "run", RUN_DESC, () -> loop(statement));
+    }
+
+    /**
+     * 先假设所有局部变量都是数字, 生成时发现不成立的去掉再生成一遍, 直到没有冲突
+     */
+    private byte[] compile(String className, String superName, String name, String descriptor, Runnable body) {
+        this.superName = superName;
+        do {
+            objects.addAll(violations);
+            violations.clear();
+            used.clear();
+            constants.clear();
+            constantIndexes.clear();
+            classWriter = new ClassWriter(className, superName);
+
+            CodeBuilder constructor = new CodeBuilder(classWriter, 2);
+            constructor.load(ALOAD, 0);
+            constructor.load(ALOAD, 1);
+            constructor.invoke(INVOKESPECIAL, superName, "<init>", "([Ljava/lang/Object;)V");
+            constructor.op(RETURN, 0);
+            classWriter.method(ClassWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", constructor);
+
+            code = new CodeBuilder(classWriter, FIRST_LOCAL);
+            body.run();
+            classWriter.method(ClassWriter.ACC_PUBLIC, name, descriptor, code);
+        } while (!violations.isEmpty());
+        return classWriter.toByteArray();
+    }
+
+    private void function(FunctionStatement declaration) {
+        Label deoptimize = code.label();
+        List<Slot> paramSlots = declaration.getParamSlots();
+        for (int i = 0; i < paramSlots.size(); i++) {
+            if (isNumber(paramSlots.get(i))) {
+                argument(i);
+                code.type(INSTANCEOF, DOUBLE);
+                code.jump(IFEQ, deoptimize);
+            }
+        }
+
+        restart = code.label();
+        code.mark(restart);
+        // 所有局部变量先初始化, 校验器在任何位置都能确定它们的类型
+        for (int i = 0; i < declaration.getFrameSize(); i++) {
+            initialize(i);
+        }
+        if (Objects.nonNull(declaration.getThisSlot())) {
+            define(declaration.getThisSlot(), () -> {
+                code.load(ALOAD, RECEIVER_LOCAL);
+                return ValueType.OBJECT;
+            });
+        }
+        for (int i = 0; i < paramSlots.size(); i++) {
+            Slot slot = paramSlots.get(i);
+            int index = i;
+            define(slot, () -> {
+                argument(index);
+                if (!isNumber(slot)) {
+                    return ValueType.OBJECT;
+                }
+                unbox();
+                return ValueType.DOUBLE;
+            });
+        }
+
+        for (Statement statement : declaration.getBody()) {
+            statement.accept(this);
+        }
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+
+        code.mark(deoptimize);
+        code.getField(GETSTATIC, CODE, "DEOPTIMIZE", OBJECT_DESC);
+        code.op(ARETURN, -1);
+    }
+
+    /**
+     * 循环体先生成, 生成完才知道要从栈帧读取哪些局部变量, 所以读取栈帧的代码放在最后, 从开头跳过去
+     */
+    private void loop(WhileStatement statement) {
+        Label prologue = code.label();
+        Label start = code.label();
+        Label end = code.label();
+        code.jump(GOTO, prologue);
+        code.mark(start);
+        condition(statement.getCondition(), end);
+        statement.getBody().accept(this);
+        code.jump(GOTO, start);
+
+        code.mark(end);
+        for (int index : used) {
+            code.load(ALOAD, FRAME_LOCAL);
+            code.iconst(index);
+            box(load(index));
+            code.op(AASTORE, -3);
+        }
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+
+        Label deoptimize = code.label();
+        code.mark(prologue);
+        for (int index : used) {
+            if (declared.contains(index)) {
+                initialize(index);
+                continue;
+            }
+            frameSlot(index);
+            if (isNumber(index)) {
+                code.type(INSTANCEOF, DOUBLE);
+                code.jump(IFEQ, deoptimize);
+                frameSlot(index);
+                unbox();
+                code.store(DSTORE, local(index));
+            } else {
+                code.store(ASTORE, local(index));
+            }
+        }
+        code.jump(GOTO, start);
+
+        code.mark(deoptimize);
+        code.getField(GETSTATIC, CODE, "DEOPTIMIZE", OBJECT_DESC);
+        code.op(ARETURN, -1);
+    }
+
+    private void initialize(int index) {
+        if (isNumber(index)) {
+            code.ldc(0.0);
+            code.store(DSTORE, local(index));
+        } else {
+            code.op(ACONST_NULL, 1);
+            code.store(ASTORE, local(index));
+        }
+    }
+
+    private void argument(int index) {
+        code.load(ALOAD, ARGUMENTS_LOCAL);
+        code.iconst(index);
+        code.op(AALOAD, -1);
+    }
+
+    private void frameSlot(int index) {
+        code.load(ALOAD, FRAME_LOCAL);
+        code.iconst(index);
+        code.op(AALOAD, -1);
+    }
+
+    private void unbox() {
+        code.type(CHECKCAST, DOUBLE);
+        code.invoke(INVOKEVIRTUAL, DOUBLE, "doubleValue", "()D");
+    }
+
+    /**
+     * @param index 栈帧下标
+     * @return JVM 局部变量下标, 每个局部变量都按 double 留两个位置
+     */
+    private static int local(int index) {
+        return FIRST_LOCAL + index * 2;
+    }
+
+    private boolean isNumber(int index) {
+        return !objects.contains(index) && candidate.test(index);
+    }
+
+    private boolean isNumber(Slot slot) {
+        return slot.getType() == SlotType.LOCAL && isNumber(slot.getIndex());
+    }
+
+    /**
+     * @return 读取的值的类型
+     */
+    private ValueType load(int index) {
+        if (isNumber(index)) {
+            code.load(DLOAD, local(index));
+            return ValueType.DOUBLE;
+        }
+        code.load(ALOAD, local(index));
+        return ValueType.OBJECT;
+    }
+
+    /**
+     * 装箱成解释器使用的对象
+     */
+    private void box(ValueType type) {
+        if (type == ValueType.DOUBLE) {
+            code.invoke(INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+        } else if (type == ValueType.BOOLEAN) {
+            code.invoke(INVOKESTATIC, BOOLEAN, "valueOf", "(Z)Ljava/lang/Boolean;");
+        }
+    }
+
+    /**
+     * 两个操作数都装箱, 左边的在右边下面
+     */
+    private void boxBoth(ValueType left, ValueType right) {
+        box(right);
+        if (left == ValueType.DOUBLE) {
+            code.op(DUP_X2, 1);
+            code.op(POP, -1);
+            box(left);
+            code.op(SWAP, 0);
+        } else if (left == ValueType.BOOLEAN) {
+            code.op(SWAP, 0);
+            box(left);
+            code.op(SWAP, 0);
+        }
+    }
+
+    private void pop(ValueType type) {
+        code.op(type == ValueType.DOUBLE ? POP2 : POP, type == ValueType.DOUBLE ? -2 : -1);
+    }
+
+    private void object(Expression expression) {
+        box(expression.accept(this));
+    }
+
+    /**
+     * 从常量数组里取出常量
+     *
+     * @param value 常量
+     * @param type  常量的类型
+     */
+    private void constant(Object value, String type) {
+        Integer index = constantIndexes.get(value);
+        if (Objects.isNull(index)) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        code.load(ALOAD, 0);
+        code.getField(GETFIELD, superName, "constants", "[Ljava/lang/Object;");
+        code.iconst(index);
+        code.op(AALOAD, -1);
+        code.type(CHECKCAST, type);
+    }
+
+    private void token(Token token) {
+        constant(token, TOKEN);
+    }
+
+    /**
+     * 条件为假时跳转
+     *
+     * @param condition 条件
+     * @param whenFalse 目标
+     */
+    private void condition(Expression condition, Label whenFalse) {
+        ValueType type = condition.accept(this);
+        if (type == ValueType.DOUBLE) {
+            // 数字总是真
+            pop(type);
+            return;
+        }
+        if (type == ValueType.OBJECT) {
+            code.invoke(INVOKESTATIC, VALUES, "isTruthy", "(" + OBJECT_DESC + ")Z");
+        }
+        code.jump(IFEQ, whenFalse);
+    }
+
+    private void violate(Slot slot) {
+        if (isNumber(slot.getIndex())) {
+            violations.add(slot.getIndex());
+        }
+    }
+
+    private ValueType load(Slot slot) {
+        if (slot.getType() != SlotType.UPVALUE) {
+            used.add(slot.getIndex());
+        }
+        switch (slot.getType()) {
+            case LOCAL:
+                return load(slot.getIndex());
+            case CELL:
+                violate(slot);
+                code.load(ALOAD, local(slot.getIndex()));
+                code.type(CHECKCAST, CELL);
+                break;
+            default:
+                code.load(ALOAD, UPVALUES_LOCAL);
+                code.iconst(slot.getIndex());
+                code.op(AALOAD, -1);
+        }
+        code.invoke(INVOKEVIRTUAL, CELL, "getValue", "()" + OBJECT_DESC);
+        return ValueType.OBJECT;
+    }
+
+    /**
+     * 定义局部变量, 被捕获的变量每次定义都创建新的 cell
+     *
+     * @param slot  位置
+     * @param value 生成值的代码
+     */
+    private void define(Slot slot, Supplier<ValueType> value) {
+        used.add(slot.getIndex());
+        if (slot.getType() == SlotType.CELL) {
+            violate(slot);
+            code.type(NEW, CELL);
+            code.op(DUP, 1);
+            box(value.get());
+            code.invoke(INVOKESPECIAL, CELL, "<init>", "(" + OBJECT_DESC + ")V");
+            code.store(ASTORE, local(slot.getIndex()));
+        } else if (isNumber(slot)) {
+            numberOrViolate(slot, value.get());
+            code.store(DSTORE, local(slot.getIndex()));
+        } else {
+            box(value.get());
+            code.store(ASTORE, local(slot.getIndex()));
+        }
+    }
+
+    /**
+     * 保证栈顶是数字; 不是的话这一遍的结果作废, 这里只需要保持栈平衡
+     */
+    private void numberOrViolate(Slot slot, ValueType type) {
+        if (type != ValueType.DOUBLE) {
+            violations.add(slot.getIndex());
+            pop(type);
+            code.ldc(0.0);
+        }
+    }
+
+    @Override
+    public ValueType visitAssignExpression(AssignExpression expression) {
+        Slot slot = expression.getSlot();
+        if (Objects.isNull(slot)) {
+            constant(globals.cell(expression.getName().getLexeme()), GLOBAL_CELL);
+            token(expression.getName());
+            object(expression.getValue());
+            code.op(DUP_X2, 1);
+            code.invoke(INVOKEVIRTUAL, GLOBAL_CELL, "assign", "(" + TOKEN_DESC + OBJECT_DESC + ")V");
+            return ValueType.OBJECT;
+        }
+        if (slot.getType() != SlotType.UPVALUE) {
+            used.add(slot.getIndex());
+        }
+        switch (slot.getType()) {
+            case LOCAL:
+                if (isNumber(slot)) {
+                    numberOrViolate(slot, expression.getValue().accept(this));
+                    code.op(DUP2, 2);
+                    code.store(DSTORE, local(slot.getIndex()));
+                    return ValueType.DOUBLE;
+                }
+                object(expression.getValue());
+                code.op(DUP, 1);
+                code.store(ASTORE, local(slot.getIndex()));
+                return ValueType.OBJECT;
+            case CELL:
+                violate(slot);
+                code.load(ALOAD, local(slot.getIndex()));
+                code.type(CHECKCAST, CELL);
+                break;
+            default:
+                code.load(ALOAD, UPVALUES_LOCAL);
+                code.iconst(slot.getIndex());
+                code.op(AALOAD, -1);
+        }
+        object(expression.getValue());
+        code.op(DUP_X1, 1);
+        code.invoke(INVOKEVIRTUAL, CELL, "setValue", "(" + OBJECT_DESC + ")V");
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitBinaryExpression(BinaryExpression expression) {
+        ValueType left = expression.getLeft().accept(this);
+        ValueType right = expression.getRight().accept(this);
+        boolean numbers = left == ValueType.DOUBLE && right == ValueType.DOUBLE;
+        Token operator = expression.getOperator();
+        switch (operator.getType()) {
+            case MINUS:
+                return arithmetic(numbers, left, right, operator, DSUB, "subtract");
+            case STAR:
+                return arithmetic(numbers, left, right, operator, DMUL, "multiply");
+            case SLASH:
+                return arithmetic(numbers, left, right, operator, DDIV, "divide");
+            case PLUS:
+                if (numbers) {
+                    code.op(DADD, -2);
+                    return ValueType.DOUBLE;
+                }
+                boxBoth(left, right);
+                token(operator);
+                code.invoke(INVOKESTATIC, RUNTIME, "add", BINARY_DESC + OBJECT_DESC);
+                return ValueType.OBJECT;
+            case GREATER:
+                return compare(numbers, left, right, operator, DCMPL, IFLE, "greater");
+            case GREATER_EQUAL:
+                return compare(numbers, left, right, operator, DCMPL, IFLT, "greaterEqual");
+            case LESS:
+                return compare(numbers, left, right, operator, DCMPG, IFGE, "less");
+            case LESS_EQUAL:
+                return compare(numbers, left, right, operator, DCMPG, IFGT, "lessEqual");
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                if (numbers) {
+                    code.invoke(INVOKESTATIC, RUNTIME, "equal", "(DD)Z");
+                } else {
+                    boxBoth(left, right);
+                    code.invoke(INVOKESTATIC, VALUES, "isEqual", "(" + OBJECT_DESC + OBJECT_DESC + ")Z");
+                }
+                if (operator.getType() == TokenType.BANG_EQUAL) {
+                    code.iconst(1);
+                    code.op(IXOR, -1);
+                }
+                return ValueType.BOOLEAN;
+            default:
+                throw new IllegalStateException("Unknown binaryExpression token " + operator.getType());
+        }
+    }
+
+    private ValueType arithmetic(boolean numbers, ValueType left, ValueType right, Token operator, int opcode, String slowPath) {
+        if (numbers) {
+            code.op(opcode, -2);
+        } else {
+            boxBoth(left, right);
+            token(operator);
+            code.invoke(INVOKESTATIC, RUNTIME, slowPath, BINARY_DESC + "D");
+        }
+        return ValueType.DOUBLE;
+    }
+
+    /**
+     * @param compare   比较指令, NaN 时的结果要让 whenFalse 跳转
+     * @param whenFalse 比较结果为假时跳转的指令
+     */
+    private ValueType compare(boolean numbers, ValueType left, ValueType right, Token operator, int compare, int whenFalse, String slowPath) {
+        if (!numbers) {
+            boxBoth(left, right);
+            token(operator);
+            code.invoke(INVOKESTATIC, RUNTIME, slowPath, BINARY_DESC + "Z");
+            return ValueType.BOOLEAN;
+        }
+        Label falseLabel = code.label();
+        Label end = code.label();
+        code.op(compare, -3);
+        code.jump(whenFalse, falseLabel);
+        code.iconst(1);
+        code.jump(GOTO, end);
+        code.mark(falseLabel);
+        code.iconst(0);
+        code.mark(end);
+        return ValueType.BOOLEAN;
+    }
+
+    @Override
+    public ValueType visitCallExpression(CallExpression expression) {
+        object(expression.getCallee());
+        arguments(expression.getArguments());
+        token(expression.getParen());
+        code.load(ALOAD, INTERPRETER_LOCAL);
+        code.invoke(INVOKESTATIC, RUNTIME, "call", CALL_DESC);
+        return ValueType.OBJECT;
+    }
+
+    /**
+     * 对参数求值, 装进一个新的数组留在栈顶
+     */
+    private void arguments(List<Expression> arguments) {
+        code.iconst(arguments.size());
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.iconst(i);
+            object(arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+    }
+
+    /**
+     * return f(...): 被调用的是这个函数自己, 并且参数符合入口的类型假设时, 换上新的参数跳回函数开头;
+     * 否则交给 {@link JitRuntime#tailCall}, 能推迟的调用由解释器的蹦床执行
+     */
+    private void tailCall(CallExpression expression) {
+        object(expression.getCallee());
+        List<Expression> arguments = expression.getArguments();
+        arguments(arguments);
+        Label other = code.label();
+        List<Slot> paramSlots = function.getParamSlots();
+        if (arguments.size() == paramSlots.size()) {
+            code.op(DUP2, 2);
+            code.op(POP, -1);
+            constant(function, FUNCTION);
+            code.load(ALOAD, UPVALUES_LOCAL);
+            code.load(ALOAD, RECEIVER_LOCAL);
+            code.invoke(INVOKESTATIC, RUNTIME, "isSelf", "(" + OBJECT_DESC + "L" + FUNCTION + ";[L" + CELL + ";L" + INSTANCE + ";)Z");
+            code.jump(IFEQ, other);
+            for (int i = 0; i < paramSlots.size(); i++) {
+                if (isNumber(paramSlots.get(i))) {
+                    code.op(DUP, 1);
+                    code.iconst(i);
+                    code.op(AALOAD, -1);
+                    code.type(INSTANCEOF, DOUBLE);
+                    code.jump(IFEQ, other);
+                }
+            }
+            code.store(ASTORE, ARGUMENTS_LOCAL);
+            code.op(POP, -1);
+            code.jump(GOTO, restart);
+        }
+        code.mark(other);
+        token(expression.getParen());
+        code.load(ALOAD, INTERPRETER_LOCAL);
+        code.invoke(INVOKESTATIC, RUNTIME, "tailCall", CALL_DESC);
+        code.op(ARETURN, -1);
+    }
+
+    @Override
+    public ValueType visitGetExpression(GetExpression expression) {
+        object(expression.getObject());
+        token(expression.getName());
+        code.iconst(expression.getSelector());
+        code.invoke(INVOKESTATIC, RUNTIME, "get", "(" + OBJECT_DESC + TOKEN_DESC + "I)" + OBJECT_DESC);
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitGroupingExpression(GroupingExpression expression) {
+        return expression.getExpression().accept(this);
+    }
+
+    @Override
+    public ValueType visitLiteralExpression(LiteralExpression expression) {
+        Object value = expression.getValue();
+        if (value instanceof Double) {
+            code.ldc((double) value);
+            return ValueType.DOUBLE;
+        }
+        if (value instanceof Boolean) {
+            code.iconst((boolean) value ? 1 : 0);
+            return ValueType.BOOLEAN;
+        }
+        if (value instanceof String) {
+            code.ldc((String) value);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitLogicalExpression(LogicalExpression expression) {
+        Label end = code.label();
+        object(expression.getLeft());
+        code.op(DUP, 1);
+        code.invoke(INVOKESTATIC, VALUES, "isTruthy", "(" + OBJECT_DESC + ")Z");
+        code.jump(expression.getOperator().getType() == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP, -1);
+        object(expression.getRight());
+        code.mark(end);
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitSetExpression(SetExpression expression) {
+        object(expression.getObject());
+        token(expression.getName());
+        code.invoke(INVOKESTATIC, RUNTIME, "checkInstance", "(" + OBJECT_DESC + TOKEN_DESC + ")L" + INSTANCE + ";");
+        object(expression.getValue());
+        code.iconst(expression.getSelector());
+        code.invoke(INVOKESTATIC, RUNTIME, "set", "(L" + INSTANCE + ";" + OBJECT_DESC + "I)" + OBJECT_DESC);
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitSuperExpression(SuperExpression expression) {
+        throw new Bailout("super is not compiled.");
+    }
+
+    @Override
+    public ValueType visitThisExpression(ThisExpression expression) {
+        return load(expression.getSlot());
+    }
+
+    @Override
+    public ValueType visitUnaryExpression(UnaryExpression expression) {
+        ValueType type = expression.getRight().accept(this);
+        Token operator = expression.getOperator();
+        switch (operator.getType()) {
+            case MINUS:
+                if (type == ValueType.DOUBLE) {
+                    code.op(DNEG, 0);
+                } else {
+                    box(type);
+                    token(operator);
+                    code.invoke(INVOKESTATIC, RUNTIME, "negate", "(" + OBJECT_DESC + TOKEN_DESC + ")D");
+                }
+                return ValueType.DOUBLE;
+            case BANG:
+                if (type == ValueType.DOUBLE) {
+                    pop(type);
+                    code.iconst(0);
+                    return ValueType.BOOLEAN;
+                }
+                if (type == ValueType.OBJECT) {
+                    code.invoke(INVOKESTATIC, VALUES, "isTruthy", "(" + OBJECT_DESC + ")Z");
+                }
+                code.iconst(1);
+                code.op(IXOR, -1);
+                return ValueType.BOOLEAN;
+            default:
+                throw new IllegalStateException("Unknown unaryExpression token " + operator.getType());
+        }
+    }
+
+    @Override
+    public ValueType visitVariableExpression(VariableExpression expression) {
+        Slot slot = expression.getSlot();
+        if (Objects.nonNull(slot)) {
+            return load(slot);
+        }
+        constant(globals.cell(expression.getName().getLexeme()), GLOBAL_CELL);
+        token(expression.getName());
+        code.invoke(INVOKEVIRTUAL, GLOBAL_CELL, "get", "(" + TOKEN_DESC + ")" + OBJECT_DESC);
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public Void visitBlockStatement(BlockStatement statement) {
+        for (Statement inner : statement.getStatements()) {
+            inner.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStatement(ClassStatement statement) {
+        throw new Bailout("Nested classes are not compiled.");
+    }
+
+    @Override
+    public Void visitExpressionStatement(ExpressionStatement statement) {
+        pop(statement.getExpression().accept(this));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(FunctionStatement statement) {
+        // 闭包只由解释器创建, 解释器先定义函数自己的 cell 再捕获, 编译后的内层函数按捕获好的 upvalues 执行
+        throw new Bailout("Nested functions are not compiled.");
+    }
+
+    @Override
+    public Void visitReturnStatement(ReturnStatement statement) {
+        if (loop) {
+            throw new Bailout("Loops containing return are not compiled.");
+        }
+        if (statement.getValue() instanceof CallExpression && ((CallExpression) statement.getValue()).isTail()) {
+            tailCall((CallExpression) statement.getValue());
+            return null;
+        }
+        if (Objects.isNull(statement.getValue())) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            object(statement.getValue());
+        }
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(IfStatement statement) {
+        Label elseLabel = code.label();
+        condition(statement.getCondition(), elseLabel);
+        statement.getThenBranch().accept(this);
+        if (Objects.isNull(statement.getElseBranch())) {
+            code.mark(elseLabel);
+            return null;
+        }
+        Label end = code.label();
+        code.jump(GOTO, end);
+        code.mark(elseLabel);
+        statement.getElseBranch().accept(this);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(PrintStatement statement) {
+        code.load(ALOAD, INTERPRETER_LOCAL);
+        object(statement.getExpression());
+        code.invoke(INVOKEVIRTUAL, INTERPRETER, "print", "(" + OBJECT_DESC + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(WhileStatement statement) {
+        Label start = code.label();
+        Label end = code.label();
+        code.mark(start);
+        condition(statement.getCondition(), end);
+        statement.getBody().accept(this);
+        code.jump(GOTO, start);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(VarStatement statement) {
+        Slot slot = statement.getSlot();
+        if (Objects.isNull(slot)) {
+            throw new Bailout("Global variables are not compiled.");
+        }
+        if (loop) {
+            declared.add(slot.getIndex());
+        }
+        Expression initializer = statement.getInitializer();
+        define(slot, () -> {
+            if (Objects.isNull(initializer)) {
+                code.op(ACONST_NULL, 1);
+                return ValueType.OBJECT;
+            }
+            return initializer.accept(this);
+        });
+        return null;
+    }
+}
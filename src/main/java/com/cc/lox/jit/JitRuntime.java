@@ -0,0 +1,149 @@
+package com.cc.lox.jit;
+
+import com.cc.lox.clazz.LoxInstance;
+import com.cc.lox.environment.Cell;
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.function.LoxCallable;
+import com.cc.lox.function.impl.LoxFunction;
+import com.cc.lox.interpreter.LoxInterpreter;
+import com.cc.lox.parser.statement.impl.FunctionStatement;
+import com.cc.lox.scanner.Token;
+
+
+import static com.cc.lox.interpreter.Values.checkNumberOperand;
+import static com.cc.lox.interpreter.Values.checkNumberOperands;
+
+/**
+ * 编译后的代码在操作数类型不确定时调用的慢路径, 语义和报错与解释器一致
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public final class JitRuntime {
+
+    private JitRuntime() {
+    }
+
+    public static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return left + (String) right;
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    public static double subtract(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    public static double multiply(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    public static double divide(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left / (double) right;
+    }
+
+    public static boolean greater(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    public static boolean greaterEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    public static boolean less(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    public static boolean lessEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    /**
+     * 和 {@link Double#equals(Object)} 一致: NaN 等于自己, 0.0 不等于 -0.0
+     */
+    public static boolean equal(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    public static double negate(Object operand, Token operator) {
+        checkNumberOperand(operator, operand);
+        return -(double) operand;
+    }
+
+    /**
+     * @param callee      被调用的值
+     * @param arguments   参数
+     * @param paren       右括号, 用于报告错误
+     * @param interpreter 解释器
+     * @return 返回值
+     */
+    public static Object call(Object callee, Object[] arguments, Token paren, LoxInterpreter interpreter) {
+        return check(callee, arguments, paren).call(interpreter, arguments);
+    }
+
+    /**
+     * return f(...) 调用的不是函数自己时, 能推迟的调用记在解释器里, 由调用者的蹦床执行
+     *
+     * @return 返回值, 或者 {@link CompiledCode#TAIL_CALL}
+     */
+    public static Object tailCall(Object callee, Object[] arguments, Token paren, LoxInterpreter interpreter) {
+        LoxCallable function = check(callee, arguments, paren);
+        if (interpreter.deferTailCall(callee, arguments)) {
+            return CompiledCode.TAIL_CALL;
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    /**
+     * @return 被调用者是不是正在执行的这个闭包, 方法还要绑定在同一个实例上
+     */
+    public static boolean isSelf(Object callee, FunctionStatement declaration, Cell[] upvalues, LoxInstance receiver) {
+        if (!(callee instanceof LoxFunction)) {
+            return false;
+        }
+        LoxFunction function = (LoxFunction) callee;
+        return function.getDeclaration() == declaration && function.getUpvalues() == upvalues
+                && function.getReceiver() == receiver && function.isTailCallable();
+    }
+
+    private static LoxCallable check(Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.length != function.getArity()) {
+            throw new RuntimeError(paren, "Expected " + function.getArity() + " arguments but got " + arguments.length + ".");
+        }
+        return function;
+    }
+
+    public static Object get(Object object, Token name, int selector) {
+        if (object instanceof LoxInstance) {
+            return ((LoxInstance) object).get(name, selector);
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    public static LoxInstance checkInstance(Object object, Token name) {
+        if (object instanceof LoxInstance) {
+            return (LoxInstance) object;
+        }
+        throw new RuntimeError(name, "Only instances have fields.");
+    }
+
+    public static Object set(LoxInstance object, Object value, int selector) {
+        object.set(selector, value);
+        return value;
+    }
+}
@@ -0,0 +1,76 @@
+package com.cc.lox.jit;
+
+import com.cc.lox.parser.statement.impl.WhileStatement;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * 一个循环在一个解释器里的回边统计
+ * <p>
+ * 顶层代码里的循环不属于任何函数, 函数级别的编译永远看不到它; 循环的回边次数达到阈值之后,
+ * 把正在跑的循环连同栈帧里的值一起交给编译后的代码, 也就是栈上替换
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class LoopProfile {
+
+    /**
+     * 放弃编译结果超过这个次数之后这个循环只解释执行
+     */
+    private static final int MAX_DEOPTIMIZATIONS = 8;
+
+    @Getter(AccessLevel.PACKAGE)
+    private final Jit owner;
+
+    private final WhileStatement statement;
+
+    private int counter = 0;
+
+    private CompiledLoop code;
+
+    private int deoptimizations = 0;
+
+    /**
+     * 循环里有不支持编译的语法, 或者放弃编译结果的次数太多
+     */
+    private boolean disabled = false;
+
+    LoopProfile(Jit owner, WhileStatement statement) {
+        this.owner = owner;
+        this.statement = statement;
+    }
+
+    /**
+     * 解释执行的循环每跑一圈统计一次, 足够热的时候编译
+     *
+     * @param numberSlot 栈帧里的局部变量现在是否是数字
+     * @return 编译好的循环, 还需要解释执行时返回 null
+     */
+    public CompiledLoop backEdge(IntPredicate numberSlot) {
+        if (disabled) {
+            return null;
+        }
+        if (counter < owner.getThreshold()) {
+            counter++;
+            return null;
+        }
+        if (Objects.isNull(code)) {
+            code = owner.compile(statement, numberSlot);
+            disabled = Objects.isNull(code);
+        }
+        return code;
+    }
+
+    /**
+     * 进入循环时栈帧里的值和编译时的假设不一致, 放弃编译结果
+     */
+    public void deoptimize() {
+        code = null;
+        counter = 0;
+        disabled = ++deoptimizations > MAX_DEOPTIMIZATIONS;
+    }
+}
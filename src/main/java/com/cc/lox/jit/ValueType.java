@@ -0,0 +1,25 @@
+package com.cc.lox.jit;
+
+/**
+ * 编译后的代码里一个值在操作数栈或者局部变量里的表示
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+enum ValueType {
+
+    /**
+     * 未装箱的 double, 占两个 slot
+     */
+    DOUBLE,
+
+    /**
+     * 未装箱的 boolean, 用 int 表示
+     */
+    BOOLEAN,
+
+    /**
+     * 和解释器一样的对象表示
+     */
+    OBJECT
+}
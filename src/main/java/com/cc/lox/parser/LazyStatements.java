@@ -0,0 +1,141 @@
+package com.cc.lox.parser;
+
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.parser.statement.Statement;
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.source.TokenSource;
+import lombok.Getter;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 延迟解析的函数体
+ * <p>
+ * 预解析时只跳过匹配的大括号并记下 token 范围, 第一次访问时才真正解析,
+ * 从来没有被调用过的函数不需要生成语法树
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class LazyStatements extends AbstractList<Statement> {
+
+    /**
+     * 函数名, 用于报告错误
+     */
+    private final Token name;
+
+    /**
+     * 函数体的 token, 解析完成之后释放
+     */
+    private TokenSource tokens;
+
+    /**
+     * 函数体中出现过的标识符, 解析器据此判断外层的哪些变量可能被捕获
+     */
+    @Getter
+    private final Set<String> identifiers;
+
+    /**
+     * 解析好的函数体, 之后的访问不需要加锁
+     */
+    private volatile List<Statement> statements;
+
+    /**
+     * 解析完成之后的回调, 用于延迟的变量解析
+     */
+    private Consumer<List<Statement>> callback;
+
+    /**
+     * 解析或者变量解析失败
+     */
+    private boolean failed = false;
+
+    LazyStatements(Token name, TokenSource tokens, Set<String> identifiers) {
+        this.name = name;
+        this.tokens = tokens;
+        this.identifiers = identifiers;
+    }
+
+    /**
+     * @return 是否已经解析完成
+     */
+    public boolean isParsed() {
+        return Objects.nonNull(statements);
+    }
+
+    /**
+     * 注册解析完成之后的回调, 已经解析完成的直接执行
+     *
+     * @param callback 回调
+     */
+    public void whenParsed(Consumer<List<Statement>> callback) {
+        if (isParsed()) {
+            callback.accept(statements);
+        } else {
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * 保证函数体已经解析
+     *
+     * @param body 函数体, 不是延迟解析的原样返回
+     * @return 解析好的语句列表, 失败抛出运行时错误
+     */
+    public static List<Statement> ensureParsed(List<Statement> body) {
+        return body instanceof LazyStatements ? ((LazyStatements) body).parsed() : body;
+    }
+
+    @Override
+    public Statement get(int index) {
+        return parsed().get(index);
+    }
+
+    @Override
+    public int size() {
+        return parsed().size();
+    }
+
+    /**
+     * @return 解析好的函数体, 失败抛出运行时错误
+     */
+    private List<Statement> parsed() {
+        List<Statement> body = statements;
+        return Objects.nonNull(body) ? body : parse();
+    }
+
+    private synchronized List<Statement> parse() {
+        if (failed) {
+            throw failure();
+        }
+        if (isParsed()) {
+            return statements;
+        }
+        List<Statement> body = new Parser(tokens, true).parseBlock();
+        tokens = null;
+        if (Objects.isNull(body)) {
+            failed = true;
+            throw failure();
+        }
+        if (Objects.nonNull(callback)) {
+            try {
+                callback.accept(body);
+            } catch (RuntimeError error) {
+                failed = true;
+                throw error;
+            } finally {
+                callback = null;
+            }
+        }
+        statements = body;
+        return body;
+    }
+
+    private RuntimeError failure() {
+        return new RuntimeError(name, "Error in body of '" + name.getLexeme() + "'.");
+    }
+}
@@ -8,29 +8,124 @@ import com.cc.lox.parser.expression.impl.*;
 import com.cc.lox.parser.statement.Statement;
 import com.cc.lox.parser.statement.impl.*;
 import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.source.TokenSource;
+import com.cc.lox.scanner.source.impl.ListTokenSource;
 import com.cc.lox.scanner.type.TokenType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import static com.cc.lox.scanner.type.TokenType.*;
 
 /**
- * 递归向下的语法解析器
+ * 语法解析器, 语句递归向下解析, 表达式按照优先级表解析 (Pratt)
  *
  * @author cc
  * @date 2023/10/10
  */
 public class Parser {
 
-    private final List<Token> tokens;
+    /**
+     * 前缀规则, 当前 token 已经被消费
+     */
+    @FunctionalInterface
+    private interface PrefixRule {
+        Expression parse(Parser parser, boolean canAssign);
+    }
+
+    /**
+     * 中缀规则, 运算符 token 已经被消费
+     */
+    @FunctionalInterface
+    private interface InfixRule {
+        Expression parse(Parser parser, Expression left, boolean canAssign);
+    }
+
+    private static final PrefixRule[] PREFIX_RULES = new PrefixRule[TokenType.values().length];
 
-    private int current = 0;
+    private static final InfixRule[] INFIX_RULES = new InfixRule[TokenType.values().length];
+
+    /**
+     * 作为中缀运算符时的优先级, 不是中缀运算符的 token 为 NONE
+     */
+    private static final Precedence[] INFIX_PRECEDENCES = new Precedence[TokenType.values().length];
+
+    static {
+        Arrays.fill(INFIX_PRECEDENCES, Precedence.NONE);
+
+        prefix(FALSE, (parser, canAssign) -> new LiteralExpression(false));
+        prefix(TRUE, (parser, canAssign) -> new LiteralExpression(true));
+        prefix(NIL, (parser, canAssign) -> new LiteralExpression(null));
+        prefix(NUMBER, (parser, canAssign) -> new LiteralExpression(parser.previousToken().getLiteral()));
+        prefix(STRING, (parser, canAssign) -> new LiteralExpression(parser.previousToken().getLiteral()));
+        prefix(THIS, (parser, canAssign) -> new ThisExpression(parser.previousToken()));
+        prefix(IDENTIFIER, (parser, canAssign) -> parser.variable(canAssign));
+        prefix(SUPER, (parser, canAssign) -> parser.superMethod());
+        prefix(LEFT_PAREN, (parser, canAssign) -> parser.grouping());
+        prefix(BANG, (parser, canAssign) -> parser.unary());
+        prefix(MINUS, (parser, canAssign) -> parser.unary());
+
+        infix(OR, Precedence.OR, (parser, left, canAssign) -> parser.logical(left));
+        infix(AND, Precedence.AND, (parser, left, canAssign) -> parser.logical(left));
+        for (TokenType type : new TokenType[]{BANG_EQUAL, EQUAL_EQUAL}) {
+            infix(type, Precedence.EQUALITY, (parser, left, canAssign) -> parser.binary(left));
+        }
+        for (TokenType type : new TokenType[]{GREATER, GREATER_EQUAL, LESS, LESS_EQUAL}) {
+            infix(type, Precedence.COMPARISON, (parser, left, canAssign) -> parser.binary(left));
+        }
+        for (TokenType type : new TokenType[]{MINUS, PLUS}) {
+            infix(type, Precedence.TERM, (parser, left, canAssign) -> parser.binary(left));
+        }
+        for (TokenType type : new TokenType[]{SLASH, STAR}) {
+            infix(type, Precedence.FACTOR, (parser, left, canAssign) -> parser.binary(left));
+        }
+        infix(LEFT_PAREN, Precedence.CALL, (parser, left, canAssign) -> parser.finishCall(left));
+        infix(DOT, Precedence.CALL, (parser, left, canAssign) -> parser.dot(left, canAssign));
+    }
+
+    private static void prefix(TokenType type, PrefixRule rule) {
+        PREFIX_RULES[type.ordinal()] = rule;
+    }
+
+    private static void infix(TokenType type, Precedence precedence, InfixRule rule) {
+        INFIX_RULES[type.ordinal()] = rule;
+        INFIX_PRECEDENCES[type.ordinal()] = precedence;
+    }
+
+    private final TokenSource tokens;
+
+    /**
+     * 函数体是否延迟到第一次调用时再解析
+     */
+    private final boolean lazy;
+
+    /**
+     * 是否发生过语法错误
+     */
+    private boolean hadError = false;
 
     public Parser(List<Token> tokens) {
+        this(new ListTokenSource(tokens));
+    }
+
+    /**
+     * @param tokens token 流, 解析时按需拉取
+     */
+    public Parser(TokenSource tokens) {
+        this(tokens, false);
+    }
+
+    /**
+     * @param tokens token 流, 解析时按需拉取
+     * @param lazy   函数体是否延迟解析
+     */
+    public Parser(TokenSource tokens, boolean lazy) {
         this.tokens = tokens;
+        this.lazy = lazy;
     }
 
     /**
@@ -47,6 +142,16 @@ public class Parser {
         return statements;
     }
 
+    /**
+     * 解析延迟的函数体, token 流只包含函数体内部
+     *
+     * @return 解析好的语句，如果解析失败则返回null
+     */
+    List<Statement> parseBlock() {
+        List<Statement> statements = parse();
+        return hadError ? null : statements;
+    }
+
     /**
      * @return 解析好的表达式，如果解析失败则返回null
      */
@@ -59,6 +164,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
+        hadError = true;
         Lox.error(token, message);
         return new ParseError(message);
     }
@@ -75,18 +181,29 @@ public class Parser {
         throw error(peekToken(), message);
     }
 
+    /**
+     * 和 consumeToken 一样, 但是不需要 token 本身, 可以避免生成 token 对象
+     *
+     * @param type    token type
+     * @param message 信息
+     */
+    private void expectToken(TokenType type, String message) {
+        if (!checkCurrent(type)) {
+            throw error(peekToken(), message);
+        }
+        tokens.advance();
+    }
+
     /**
      * 匹配一个token，如果匹配到了，前进一步
      *
-     * @param types token types
+     * @param type token type
      * @return 是否匹配
      */
-    private boolean matchCurrentTokenAndNext(TokenType... types) {
-        for (TokenType type : types) {
-            if (checkCurrent(type)) {
-                peekTokenAndNext();
-                return true;
-            }
+    private boolean matchCurrentTokenAndNext(TokenType type) {
+        if (checkCurrent(type)) {
+            tokens.advance();
+            return true;
         }
         return false;
     }
@@ -97,7 +214,7 @@ public class Parser {
      * @return 当前的 token
      */
     private Token peekTokenAndNext() {
-        if (!isAtEnd()) current++;
+        tokens.advance();
         return previousToken();
     }
 
@@ -105,21 +222,21 @@ public class Parser {
      * @return 是否结束
      */
     private boolean isAtEnd() {
-        return peekToken().getType() == TokenType.EOF;
+        return tokens.peekType() == TokenType.EOF;
     }
 
     /**
      * @return 当前的token
      */
     private Token peekToken() {
-        return tokens.get(current);
+        return tokens.peek();
     }
 
     /**
      * @return 前一个 token
      */
     private Token previousToken() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
     /**
@@ -128,7 +245,7 @@ public class Parser {
      */
     private boolean checkCurrent(TokenType type) {
         if (isAtEnd()) return false;
-        return peekToken().getType() == type;
+        return tokens.peekType() == type;
     }
 
 
@@ -170,13 +287,13 @@ public class Parser {
         if (matchCurrentTokenAndNext(LESS)) {
             superclass = new VariableExpression(consumeToken(IDENTIFIER, "Expect superclass name."));
         }
-        consumeToken(LEFT_BRACE, "Expect '{' before class body.");
+        expectToken(LEFT_BRACE, "Expect '{' before class body.");
         List<FunctionStatement> methods = new ArrayList<>();
         while (!checkCurrent(RIGHT_BRACE) && !isAtEnd()) {
             methods.add(functionDeclaration(FunctionType.METHOD));
         }
 
-        consumeToken(RIGHT_BRACE, "Expect '}' after class body.");
+        expectToken(RIGHT_BRACE, "Expect '}' after class body.");
 
         return new ClassStatement(name, superclass, methods);
     }
@@ -190,7 +307,7 @@ public class Parser {
      */
     private FunctionStatement functionDeclaration(FunctionType kind) {
         Token name = consumeToken(IDENTIFIER, "Expect " + kind.name() + " name.");
-        consumeToken(LEFT_PAREN, "Expect '(' after " + kind.name() + " name.");
+        expectToken(LEFT_PAREN, "Expect '(' after " + kind.name() + " name.");
         List<Token> parameters = new ArrayList<>();
         if (!checkCurrent(RIGHT_PAREN)) {
             do {
@@ -200,8 +317,16 @@ public class Parser {
                 parameters.add(consumeToken(IDENTIFIER, "Expect parameter name."));
             } while (matchCurrentTokenAndNext(COMMA));
         }
-        consumeToken(RIGHT_PAREN, "Expect ')' after parameters.");
-        consumeToken(LEFT_BRACE, "Expect '{' before " + kind.name() + " body.");
+        expectToken(RIGHT_PAREN, "Expect ')' after parameters.");
+        expectToken(LEFT_BRACE, "Expect '{' before " + kind.name() + " body.");
+        if (lazy) {
+            Set<String> identifiers = new HashSet<>();
+            TokenSource body = tokens.skipBlock(identifiers);
+            if (Objects.isNull(body)) {
+                throw error(peekToken(), "Expect '}' after block.");
+            }
+            return new FunctionStatement(name, parameters, new LazyStatements(name, body, identifiers));
+        }
         List<Statement> body = block();
         return new FunctionStatement(name, parameters, body);
     }
@@ -220,7 +345,7 @@ public class Parser {
             initializer = expression();
         }
 
-        consumeToken(SEMICOLON, "Expect ';' after variable declaration.");
+        expectToken(SEMICOLON, "Expect ';' after variable declaration.");
         return new VarStatement(name, initializer);
     }
 
@@ -271,7 +396,7 @@ public class Parser {
             value = expression();
         }
 
-        consumeToken(SEMICOLON, "Expect ';' after return value.");
+        expectToken(SEMICOLON, "Expect ';' after return value.");
         return new ReturnStatement(keyword, value);
     }
 
@@ -283,7 +408,7 @@ public class Parser {
      * @return expression
      */
     private Statement forStatement() {
-        consumeToken(LEFT_PAREN, "Expect '(' after 'for'.");
+        expectToken(LEFT_PAREN, "Expect '(' after 'for'.");
         Statement init;
         if (matchCurrentTokenAndNext(SEMICOLON)) {
             init = null;
@@ -297,13 +422,13 @@ public class Parser {
         if (!checkCurrent(SEMICOLON)) {
             condition = expression();
         }
-        consumeToken(SEMICOLON, "Expect ';' after loop condition.");
+        expectToken(SEMICOLON, "Expect ';' after loop condition.");
 
         Expression increment = null;
         if (!checkCurrent(RIGHT_PAREN)) {
             increment = expression();
         }
-        consumeToken(RIGHT_PAREN, "Expect ')' after for clauses.");
+        expectToken(RIGHT_PAREN, "Expect ')' after for clauses.");
 
         Statement body = statement();
         if (Objects.nonNull(increment)) {
@@ -326,9 +451,9 @@ public class Parser {
      * @return expression
      */
     private Statement whileStatement() {
-        consumeToken(LEFT_PAREN, "Expect '(' after 'while'.");
+        expectToken(LEFT_PAREN, "Expect '(' after 'while'.");
         Expression condition = expression();
-        consumeToken(RIGHT_PAREN, "Expect ')' after if condition.");
+        expectToken(RIGHT_PAREN, "Expect ')' after if condition.");
 
         Statement body = statement();
         return new WhileStatement(condition, body);
@@ -341,9 +466,9 @@ public class Parser {
      * @return expression
      */
     private Statement ifStatement() {
-        consumeToken(LEFT_PAREN, "Expect '(' after 'if'.");
+        expectToken(LEFT_PAREN, "Expect '(' after 'if'.");
         Expression condition = expression();
-        consumeToken(RIGHT_PAREN, "Expect ')' after if condition.");
+        expectToken(RIGHT_PAREN, "Expect ')' after if condition.");
 
         Statement thenBranch = statement();
         Statement elseBranch = null;
@@ -366,7 +491,7 @@ public class Parser {
             statements.add(declaration());
         }
 
-        consumeToken(RIGHT_BRACE, "Expect '}' after block.");
+        expectToken(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
@@ -379,7 +504,7 @@ public class Parser {
      */
     private Statement printStatement() {
         Expression value = expression();
-        consumeToken(SEMICOLON, "Expect ';' after value.");
+        expectToken(SEMICOLON, "Expect ';' after value.");
         return new PrintStatement(value);
     }
 
@@ -391,7 +516,7 @@ public class Parser {
      */
     private Statement expressionStatement() {
         Expression value = expression();
-        consumeToken(SEMICOLON, "Expect ';' after value.");
+        expectToken(SEMICOLON, "Expect ';' after value.");
         return new ExpressionStatement(value);
     }
 
@@ -403,182 +528,144 @@ public class Parser {
      * @return Expression
      */
     private Expression expression() {
-        return assignment();
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
 
-
     /**
-     * 附值
-     * assignment -> ( call "." )? IDENTIFIER "=" assignment | logic_or ;
+     * 解析优先级不低于 precedence 的表达式
+     * <p>
+     * 先用当前 token 的前缀规则解析出左操作数, 再不断用后续 token 的中缀规则向右扩展,
+     * 直到遇到优先级更低的 token。字面量和变量只需要一次前缀规则调用
      *
-     * @return Expression
+     * @param precedence 最低优先级
+     * @return expression
      */
-    private Expression assignment() {
-        Expression expr = or();
-        if (matchCurrentTokenAndNext(EQUAL)) {
-            Token equals = previousToken();
-            Expression value = assignment();
-            if (expr instanceof VariableExpression) {
-                Token name = ((VariableExpression) expr).getName();
-                return new AssignExpression(name, value);
-            } else if (expr instanceof GetExpression) {
-                GetExpression getExpression = (GetExpression) expr;
-                return new SetExpression(getExpression.getObject(), getExpression.getName(), value);
-            }
-            throw error(equals, "Invalid assignment target.");
+    private Expression parsePrecedence(Precedence precedence) {
+        PrefixRule prefix = PREFIX_RULES[tokens.peekType().ordinal()];
+        if (Objects.isNull(prefix)) {
+            throw error(peekToken(), "Expect expression.");
         }
+        tokens.advance();
 
-        return expr;
-    }
-
-    /**
-     * or
-     * logic_or -> logic_and ( "or" logic_and )* ;
-     *
-     * @return Expression
-     */
-    private Expression or() {
-        Expression expr = and();
+        boolean canAssign = precedence.compareTo(Precedence.ASSIGNMENT) <= 0;
+        Expression expression = prefix.parse(this, canAssign);
 
-        while (matchCurrentTokenAndNext(OR)) {
-            Token operator = previousToken();
-            Expression right = and();
-            expr = new LogicalExpression(expr, operator, right);
+        TokenType operator;
+        while (precedence.compareTo(INFIX_PRECEDENCES[(operator = tokens.peekType()).ordinal()]) <= 0) {
+            tokens.advance();
+            expression = INFIX_RULES[operator.ordinal()].parse(this, expression, canAssign);
         }
 
-        return expr;
+        if (canAssign && matchCurrentTokenAndNext(EQUAL)) {
+            Token equals = previousToken();
+            expression();
+            throw error(equals, "Invalid assignment target.");
+        }
+        return expression;
     }
 
     /**
-     * and
-     * logic_and -> equality ( "and" equality )* ;
+     * 二元运算, 左结合
+     * equality -> comparison ( ( "!=" | "==" ) comparison )* ;
+     * comparison -> term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+     * term -> factor ( ( "-" | "+" ) factor )* ;
+     * factor -> unary ( ( "/" | "*" ) unary )* ;
      *
-     * @return Expression
+     * @param left 左操作数
+     * @return expression
      */
-    private Expression and() {
-        Expression expr = equality();
-
-        while (matchCurrentTokenAndNext(AND)) {
-            Token operator = previousToken();
-            Expression right = equality();
-            expr = new LogicalExpression(expr, operator, right);
-        }
-
-        return expr;
+    private Expression binary(Expression left) {
+        Token operator = previousToken();
+        Expression right = parsePrecedence(INFIX_PRECEDENCES[operator.getType().ordinal()].next());
+        return new BinaryExpression(left, operator, right);
     }
 
     /**
-     * 等于
-     * equality -> comparison ( ( "!=" | "==" ) comparison )*
+     * 逻辑运算, 左结合
+     * logic_or -> logic_and ( "or" logic_and )* ;
+     * logic_and -> equality ( "and" equality )* ;
      *
+     * @param left 左操作数
      * @return expression
      */
-    private Expression equality() {
-        Expression expr = comparison();
-
-        while (matchCurrentTokenAndNext(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previousToken();
-            Expression right = comparison();
-            expr = new BinaryExpression(expr, operator, right);
-        }
-
-        return expr;
+    private Expression logical(Expression left) {
+        Token operator = previousToken();
+        Expression right = parsePrecedence(INFIX_PRECEDENCES[operator.getType().ordinal()].next());
+        return new LogicalExpression(left, operator, right);
     }
 
     /**
-     * 比较
-     * comparison -> term ( ( ">" | ">=" | "<" | "<=" ) term )*
+     * 一元运算
+     * unary -> ( "!" | "-" ) unary | call ;
      *
      * @return expression
      */
-    private Expression comparison() {
-        Expression expr = term();
-
-        while (matchCurrentTokenAndNext(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previousToken();
-            Expression right = term();
-            expr = new BinaryExpression(expr, operator, right);
-        }
-
-        return expr;
+    private Expression unary() {
+        Token operator = previousToken();
+        Expression right = parsePrecedence(Precedence.UNARY);
+        return new UnaryExpression(operator, right);
     }
 
-
     /**
-     * 加减
-     * term -> factor ( ( "-" | "+" ) factor )*
+     * 变量或者附值
+     * assignment -> IDENTIFIER "=" assignment ;
      *
+     * @param canAssign 是否可以附值
      * @return expression
      */
-    private Expression term() {
-        Expression expr = factor();
-
-        while (matchCurrentTokenAndNext(MINUS, PLUS)) {
-            Token operator = previousToken();
-            Expression right = factor();
-            expr = new BinaryExpression(expr, operator, right);
+    private Expression variable(boolean canAssign) {
+        Token name = previousToken();
+        if (canAssign && matchCurrentTokenAndNext(EQUAL)) {
+            return new AssignExpression(name, expression());
         }
-        return expr;
+        return new VariableExpression(name);
     }
 
-
     /**
-     * 乘除
-     * factor -> unary ( ( "/" | "*" ) unary )*
+     * 属性访问或者属性附值
+     * call -> call "." IDENTIFIER ;
+     * assignment -> call "." IDENTIFIER "=" assignment ;
      *
+     * @param object    对象
+     * @param canAssign 是否可以附值
      * @return expression
      */
-    private Expression factor() {
-        Expression expr = unary();
-
-        while (matchCurrentTokenAndNext(SLASH, STAR)) {
-            Token operator = previousToken();
-            Expression right = unary();
-            expr = new BinaryExpression(expr, operator, right);
+    private Expression dot(Expression object, boolean canAssign) {
+        Token name = consumeToken(IDENTIFIER, "Expect property name after '.'.");
+        if (canAssign && matchCurrentTokenAndNext(EQUAL)) {
+            return new SetExpression(object, name, expression());
         }
-
-        return expr;
+        return new GetExpression(object, name);
     }
 
-
     /**
-     * 一元运算
-     * unary -> ( "!" | "-" ) unary | call
+     * 括号
+     * primary -> "(" expression ")" ;
      *
      * @return expression
      */
-    private Expression unary() {
-        if (matchCurrentTokenAndNext(BANG, MINUS)) {
-            Token operator = previousToken();
-            Expression right = unary();
-            return new UnaryExpression(operator, right);
-        }
-
-        return call();
+    private Expression grouping() {
+        Expression expression = expression();
+        expectToken(RIGHT_PAREN, "Expect ')' after expression.");
+        return new GroupingExpression(expression);
     }
 
     /**
-     * 函数调用
-     * call -> primary ( "(" arguments? ")" )* | "." IDENTIFIER )* ;
+     * super
+     * primary -> "super" "." IDENTIFIER ;
      *
      * @return expression
      */
-    private Expression call() {
-        Expression expression = primary();
-        while (!Thread.interrupted()) {
-            if (matchCurrentTokenAndNext(LEFT_PAREN)) {
-                expression = finishCall(expression);
-            } else if (matchCurrentTokenAndNext(DOT)) {
-                Token name = consumeToken(IDENTIFIER, "Expect property name after '.'.");
-                expression = new GetExpression(expression, name);
-            } else {
-                break;
-            }
-        }
-        return expression;
+    private Expression superMethod() {
+        Token keyword = previousToken();
+        expectToken(DOT, "Expect '.' after 'super'.");
+        Token method = consumeToken(IDENTIFIER, "Expect superclass method name.");
+        return new SuperExpression(keyword, method);
     }
 
     /**
+     * 函数调用
+     * call -> call "(" arguments? ")" ;
      * arguments -> expression ( "," expression )* ;
      *
      * @param callee 函数调用者
@@ -600,58 +687,16 @@ public class Parser {
         return new CallExpression(callee, paren, arguments);
     }
 
-    /**
-     * 终止符
-     * primary -> NUMBER | STRING | "true" | "false" | "nil" | "(" expression ")"  | This | IDENTIFIER | "super" "." IDENTIFIER ;
-     *
-     * @return expression
-     */
-    private Expression primary() {
-        if (matchCurrentTokenAndNext(FALSE)) {
-            return new LiteralExpression(false);
-        }
-        if (matchCurrentTokenAndNext(TRUE)) {
-            return new LiteralExpression(true);
-        }
-        if (matchCurrentTokenAndNext(NIL)) {
-            return new LiteralExpression(null);
-        }
-
-        if (matchCurrentTokenAndNext(NUMBER, STRING)) {
-            return new LiteralExpression(previousToken().getLiteral());
-        }
-
-        if (matchCurrentTokenAndNext(LEFT_PAREN)) {
-            Expression expr = expression();
-            consumeToken(RIGHT_PAREN, "Expect ')' after expression.");
-            return new GroupingExpression(expr);
-        }
-        if (matchCurrentTokenAndNext(THIS)) {
-            return new ThisExpression(previousToken());
-        }
-        if (matchCurrentTokenAndNext(IDENTIFIER)) {
-            return new VariableExpression(previousToken());
-        }
-        if (matchCurrentTokenAndNext(SUPER)) {
-            Token keyword = previousToken();
-            consumeToken(DOT, "Expect '.' after 'super'.");
-            Token method = consumeToken(IDENTIFIER, "Expect superclass method name.");
-            return new SuperExpression(keyword, method);
-        }
-        throw error(peekToken(), "Expect expression.");
-    }
-
-
     /**
      * 发生错误的时候，需要忽略当前语句，调到下一个语句
      */
     private void synchronize() {
-        peekTokenAndNext();
+        tokens.advance();
 
         while (!isAtEnd()) {
             if (previousToken().getType() == SEMICOLON) return;
 
-            switch (peekToken().getType()) {
+            switch (tokens.peekType()) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -662,7 +707,7 @@ public class Parser {
                 case RETURN:
                     return;
             }
-            peekTokenAndNext();
+            tokens.advance();
         }
     }
 }
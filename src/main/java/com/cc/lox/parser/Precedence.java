@@ -0,0 +1,39 @@
+package com.cc.lox.parser;
+
+/**
+ * 运算符优先级, 从低到高
+ *
+ * @author cc
+ * @date 2023/10/23
+ */
+public enum Precedence {
+    NONE,
+    // =
+    ASSIGNMENT,
+    // or
+    OR,
+    // and
+    AND,
+    // == !=
+    EQUALITY,
+    // < > <= >=
+    COMPARISON,
+    // + -
+    TERM,
+    // * /
+    FACTOR,
+    // ! -
+    UNARY,
+    // . ()
+    CALL,
+    PRIMARY;
+
+    private static final Precedence[] VALUES = values();
+
+    /**
+     * @return 高一级的优先级, 用于左结合的二元运算符解析右操作数
+     */
+    public Precedence next() {
+        return VALUES[Math.min(ordinal() + 1, VALUES.length - 1)];
+    }
+}
@@ -1,22 +1,31 @@
 package com.cc.lox.parser.expression.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.GlobalCell;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
 import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class AssignExpression extends Expression {
 
     private final Token name;
     private final Expression value;
 
+    @Setter
+    private Slot slot;
+
+    @Setter
+    private GlobalCell cell;
+
     @Override
     public <R> R accept(ExpressionVisitor<R> visitor) {
         return visitor.visitAssignExpression(this);
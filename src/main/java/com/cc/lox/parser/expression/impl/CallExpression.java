@@ -1,16 +1,18 @@
 package com.cc.lox.parser.expression.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import com.cc.lox.interpreter.CallSiteCache;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
 import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class CallExpression extends Expression {
 
@@ -18,6 +20,12 @@ public class CallExpression extends Expression {
     private final Token paren;
     private final List<Expression> arguments;
 
+    @Setter
+    private CallSiteCache cache;
+
+    @Setter
+    private boolean tail;
+
     @Override
     public <R> R accept(ExpressionVisitor<R> visitor) {
         return visitor.visitCallExpression(this);
@@ -1,8 +1,9 @@
 package com.cc.lox.parser.expression.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
@@ -10,13 +11,16 @@ import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class GetExpression extends Expression {
 
     private final Expression object;
     private final Token name;
 
+    @Setter
+    private int selector;
+
     @Override
     public <R> R accept(ExpressionVisitor<R> visitor) {
         return visitor.visitGetExpression(this);
@@ -1,8 +1,9 @@
 package com.cc.lox.parser.expression.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
@@ -10,7 +11,7 @@ import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class SetExpression extends Expression {
 
@@ -18,6 +19,9 @@ public class SetExpression extends Expression {
     private final Token name;
     private final Expression value;
 
+    @Setter
+    private int selector;
+
     @Override
     public <R> R accept(ExpressionVisitor<R> visitor) {
         return visitor.visitSetExpression(this);
@@ -1,22 +1,33 @@
 package com.cc.lox.parser.expression.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import com.cc.lox.environment.Slot;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
 import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class SuperExpression extends Expression {
 
     private final Token keyword;
     private final Token method;
 
+    @Setter
+    private Slot slot;
+
+    @Setter
+    private Slot thisSlot;
+
+    @Setter
+    private int selector;
+
     @Override
     public <R> R accept(ExpressionVisitor<R> visitor) {
         return visitor.visitSuperExpression(this);
@@ -1,21 +1,26 @@
 package com.cc.lox.parser.expression.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import com.cc.lox.environment.Slot;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
 import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class ThisExpression extends Expression {
 
     private final Token keyword;
 
+    @Setter
+    private Slot slot;
+
     @Override
     public <R> R accept(ExpressionVisitor<R> visitor) {
         return visitor.visitThisExpression(this);
@@ -1,8 +1,9 @@
 package com.cc.lox.parser.statement.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 import com.cc.lox.parser.statement.Statement;
 import com.cc.lox.parser.statement.StatementVisitor;
@@ -10,12 +11,18 @@ import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class BlockStatement extends Statement {
 
     private final List<Statement> statements;
 
+    @Setter
+    private int frameSize;
+
+    @Setter
+    private boolean scoped;
+
     @Override
     public <R> R accept(StatementVisitor<R> visitor) {
         return visitor.visitBlockStatement(this);
@@ -1,16 +1,19 @@
 package com.cc.lox.parser.statement.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.GlobalCell;
 import com.cc.lox.parser.statement.Statement;
 import com.cc.lox.parser.statement.StatementVisitor;
 import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class ClassStatement extends Statement {
 
@@ -18,6 +21,15 @@ public class ClassStatement extends Statement {
     private final VariableExpression superclass;
     private final List<FunctionStatement> methods;
 
+    @Setter
+    private Slot slot;
+
+    @Setter
+    private GlobalCell cell;
+
+    @Setter
+    private Slot superSlot;
+
     @Override
     public <R> R accept(StatementVisitor<R> visitor) {
         return visitor.visitClassStatement(this);
@@ -1,16 +1,20 @@
 package com.cc.lox.parser.statement.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.GlobalCell;
+import com.cc.lox.jit.FunctionProfile;
 import com.cc.lox.parser.statement.Statement;
 import com.cc.lox.parser.statement.StatementVisitor;
 import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class FunctionStatement extends Statement {
 
@@ -18,6 +22,27 @@ public class FunctionStatement extends Statement {
     private final List<Token> params;
     private final List<Statement> body;
 
+    @Setter
+    private int frameSize;
+
+    @Setter
+    private List<Slot> paramSlots;
+
+    @Setter
+    private Slot thisSlot;
+
+    @Setter
+    private List<Slot> upvalues;
+
+    @Setter
+    private Slot slot;
+
+    @Setter
+    private GlobalCell cell;
+
+    @Setter
+    private FunctionProfile profile;
+
     @Override
     public <R> R accept(StatementVisitor<R> visitor) {
         return visitor.visitFunctionStatement(this);
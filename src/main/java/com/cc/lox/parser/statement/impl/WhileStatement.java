@@ -1,22 +1,27 @@
 package com.cc.lox.parser.statement.impl;
 
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import com.cc.lox.jit.LoopProfile;
 import com.cc.lox.parser.statement.Statement;
 import com.cc.lox.parser.statement.StatementVisitor;
 import com.cc.lox.scanner.Token;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.impl.*;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public class WhileStatement extends Statement {
 
     private final Expression condition;
     private final Statement body;
 
+    @Setter
+    private LoopProfile profile;
+
     @Override
     public <R> R accept(StatementVisitor<R> visitor) {
         return visitor.visitWhileStatement(this);
@@ -19,35 +19,52 @@ public class GenerateExpression {
 
     private final static String COLON = ":";
 
+    /**
+     * 类型定义的格式: 类名 : 语法字段 [: 解析器或者解释器回填的字段]
+     * 语法字段是 final 的并且出现在构造函数里, 回填的字段可以通过 setter 修改
+     */
+    private final static int RESOLVED_INDEX = 2;
+
+    /**
+     * 回填字段用到的类型需要的 import
+     */
+    private final static Map<String, String> RESOLVED_IMPORTS = Map.of(
+            "Slot", "com.cc.lox.environment.Slot",
+            "GlobalCell", "com.cc.lox.environment.GlobalCell",
+            "FunctionProfile", "com.cc.lox.jit.FunctionProfile",
+            "LoopProfile", "com.cc.lox.jit.LoopProfile",
+            "CallSiteCache", "com.cc.lox.interpreter.CallSiteCache"
+    );
+
     public static void main(String[] args) throws IOException {
 
         Map<String, List<String>> all = new HashMap<>();
 
         all.put("Expression", Arrays.asList(
-                "Assign   : Token name, Expression value",
+                "Assign   : Token name, Expression value : Slot slot, GlobalCell cell",
                 "Binary   : Expression left, Token operator, Expression right",
-                "Call     : Expression callee, Token paren, List<Expression> arguments",
-                "Get      : Expression object, Token name",
+                "Call     : Expression callee, Token paren, List<Expression> arguments : CallSiteCache cache, boolean tail",
+                "Get      : Expression object, Token name : int selector",
                 "Grouping : Expression expression",
                 "Literal  : Object value",
                 "Logical  : Expression left, Token operator, Expression right",
-                "Set      : Expression object, Token name, Expression value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expression object, Token name, Expression value : int selector",
+                "Super    : Token keyword, Token method : Slot slot, Slot thisSlot, int selector",
+                "This     : Token keyword : Slot slot",
                 "Unary    : Token operator, Expression right",
-                "Variable : Token name"
+                "Variable : Token name : Slot slot, GlobalCell cell"
         ));
 
         all.put("Statement", Arrays.asList(
-                "Block      : List<Statement> statements",
-                "Class      : Token name, VariableExpression superclass, List<FunctionStatement> methods",
+                "Block      : List<Statement> statements : int frameSize, boolean scoped",
+                "Class      : Token name, VariableExpression superclass, List<FunctionStatement> methods : Slot slot, GlobalCell cell, Slot superSlot",
                 "Expression : Expression expression",
-                "Function   : Token name, List<Token> params, List<Statement> body",
+                "Function   : Token name, List<Token> params, List<Statement> body : int frameSize, List<Slot> paramSlots, Slot thisSlot, List<Slot> upvalues, Slot slot, GlobalCell cell, FunctionProfile profile",
                 "Return     : Token keyword, Expression value",
                 "If         : Expression condition, Statement thenBranch, Statement elseBranch",
                 "Print      : Expression expression",
-                "While      : Expression condition, Statement body",
-                "Var        : Token name, Expression initializer"
+                "While      : Expression condition, Statement body : LoopProfile profile",
+                "Var        : Token name, Expression initializer : Slot slot, GlobalCell cell"
         ));
 
         for (Map.Entry<String, List<String>> entry : all.entrySet()) {
@@ -100,26 +117,50 @@ public class GenerateExpression {
 
     private static void defineImpl(String outputDir, String baseName, List<String> types) throws IOException {
         for (String type : types) {
-            String className = type.split(COLON)[0].trim();
-            String fields = type.split(COLON)[1].trim();
+            String[] parts = type.split(COLON);
+            String className = parts[0].trim();
+            String fields = parts[1].trim();
+            String resolved = parts.length > RESOLVED_INDEX ? parts[RESOLVED_INDEX].trim() : null;
             String path = outputDir + "/" + className + baseName + ".java";
             PrintWriter writer = new PrintWriter(path, StandardCharsets.UTF_8);
             writer.println("package com.cc.lox.parser." + baseName.toLowerCase() + ".impl;");
             writer.println();
             writer.println("import java.util.List;");
-            writer.println("import lombok.AllArgsConstructor;");
-            writer.println("import lombok.Getter;");
+            if (Objects.isNull(resolved)) {
+                writer.println("import lombok.AllArgsConstructor;");
+                writer.println("import lombok.Getter;");
+            } else {
+                writer.println("import lombok.Getter;");
+                writer.println("import lombok.RequiredArgsConstructor;");
+                writer.println("import lombok.Setter;");
+            }
             writer.println();
+            if (Objects.nonNull(resolved)) {
+                Set<String> imports = new LinkedHashSet<>();
+                for (String field : resolved.split(", ")) {
+                    for (String fieldType : field.split(" ")[0].split("\\W+")) {
+                        if (RESOLVED_IMPORTS.containsKey(fieldType)) {
+                            imports.add(RESOLVED_IMPORTS.get(fieldType));
+                        }
+                    }
+                }
+                for (String name : imports) {
+                    writer.println("import " + name + ";");
+                }
+            }
             writer.println("import com.cc.lox.parser." + baseName.toLowerCase() + "." + baseName + ";");
             writer.println("import com.cc.lox.parser." + baseName.toLowerCase() + "." + baseName + "Visitor;");
             writer.println("import com.cc.lox.scanner.Token;");
             writer.println("import com.cc.lox.parser.expression.Expression;");
             writer.println("import com.cc.lox.parser.expression.impl.*;");
             writer.println();
-            writer.println("@AllArgsConstructor");
+            writer.println(Objects.isNull(resolved) ? "@AllArgsConstructor" : "@RequiredArgsConstructor");
             writer.println("@Getter");
             writer.println("public class " + className + baseName + " extends " + baseName + " {");
             defineType(writer, fields);
+            if (Objects.nonNull(resolved)) {
+                defineResolved(writer, resolved);
+            }
             writer.println("    @Override");
             writer.println("    public <R> R accept(" + baseName + "Visitor<R> visitor) {");
             writer.println("        return visitor.visit" + className + baseName + "(this);");
@@ -140,6 +181,15 @@ public class GenerateExpression {
         writer.println();
     }
 
+    private static void defineResolved(PrintWriter writer, String fields) {
+        // Resolved fields, filled in by the resolver.
+        for (String field : fields.split(", ")) {
+            writer.println("    @Setter");
+            writer.println("    private " + field + ";");
+            writer.println();
+        }
+    }
+
     private static void clearFile(String filePath) {
         File file = new File(filePath);
         if (!file.delete()) {
@@ -0,0 +1,106 @@
+package com.cc.lox.resolve;
+
+import com.cc.lox.environment.Slot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解析时一个函数(或者顶层代码)的栈帧布局, 局部变量在栈帧中分配偏移,
+ * 代码块结束之后它的偏移可以被后面的代码块复用
+ * <p>
+ * 函数引用的外层变量记在捕获列表里, 创建闭包时按列表从外层栈帧或者外层闭包中取出对应的 cell
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class Frame {
+
+    /**
+     * 外层函数的栈帧, 顶层代码为 null
+     */
+    private final Frame enclosing;
+
+    /**
+     * 下一个可以分配的偏移
+     */
+    private int next = 0;
+
+    /**
+     * 栈帧需要的大小
+     */
+    private int size = 0;
+
+    /**
+     * 捕获的外层变量
+     */
+    private final List<Variable> captured = new ArrayList<>();
+
+    /**
+     * 每个捕获的变量在外层函数中的位置
+     */
+    private final List<Slot> upvalues = new ArrayList<>();
+
+    Frame(Frame enclosing) {
+        this.enclosing = enclosing;
+    }
+
+    /**
+     * @return 新分配的偏移
+     */
+    int allocate() {
+        size = Math.max(size, next + 1);
+        return next++;
+    }
+
+    /**
+     * @return 当前位置, 离开作用域时用来释放之后分配的偏移
+     */
+    int mark() {
+        return next;
+    }
+
+    /**
+     * @param mark 进入作用域时的位置
+     */
+    void release(int mark) {
+        next = mark;
+    }
+
+    /**
+     * @return 栈帧需要的大小
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 捕获一个外层函数的变量, 中间的函数也会依次捕获它
+     *
+     * @param variable 外层函数的变量
+     * @return 在捕获列表中的下标
+     */
+    int upvalue(Variable variable) {
+        int index = captured.indexOf(variable);
+        if (index >= 0) {
+            return index;
+        }
+        Slot slot;
+        if (variable.getFrame() == enclosing) {
+            variable.capture();
+            slot = Slot.cell(variable.getOffset());
+        } else {
+            slot = Slot.upvalue(enclosing.upvalue(variable));
+        }
+        captured.add(variable);
+        upvalues.add(slot);
+        return upvalues.size() - 1;
+    }
+
+    /**
+     * @return 每个捕获的变量在外层函数中的位置
+     */
+    List<Slot> getUpvalues() {
+        return upvalues;
+    }
+}
@@ -3,8 +3,11 @@ package com.cc.lox.resolve;
 import com.cc.lox.Lox;
 import com.cc.lox.clazz.ClassType;
 import com.cc.lox.clazz.LoxClass;
+import com.cc.lox.clazz.Selector;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.error.RuntimeError;
 import com.cc.lox.function.FunctionType;
-import com.cc.lox.interpreter.LoxInterpreter;
+import com.cc.lox.parser.LazyStatements;
 import com.cc.lox.parser.expression.Expression;
 import com.cc.lox.parser.expression.ExpressionVisitor;
 import com.cc.lox.parser.expression.impl.*;
@@ -15,17 +18,16 @@ import com.cc.lox.scanner.Token;
 import com.cc.lox.scanner.type.TokenType;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
- * 记录每个变量在环境中的位置
+ * 把每个变量的位置记录到语法树节点上: 局部变量在栈帧中的偏移, 或者外层变量在闭包捕获列表中的下标
  *
  * @author cc
  * @date 2023/10/13
  */
 public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void> {
 
-    private final LoxInterpreter interpreter;
-
     /**
      * 标识当前是否在函数里
      */
@@ -36,25 +38,48 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
      */
     private ClassType currentClass = ClassType.NONE;
 
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
 
-    public Resolver(LoxInterpreter interpreter) {
-        this.interpreter = interpreter;
-        beginScope();
+    /**
+     * 是否发生过解析错误
+     */
+    private boolean hadError = false;
+
+    /**
+     * 当前函数的栈帧布局, 顶层代码也有一个
+     */
+    private Frame frame = new Frame(null);
+
+    /**
+     * 顶层没有作用域, 顶层声明的变量都是全局变量
+     */
+    public Resolver() {
+    }
+
+    /**
+     * 延迟解析函数体时使用, 还原函数定义时的作用域
+     *
+     * @param parent 函数定义时的解析器
+     */
+    private Resolver(Resolver parent) {
+        this.currentClass = parent.currentClass;
+        for (Scope scope : parent.scopes) {
+            this.scopes.push(scope.snapshot());
+        }
     }
 
     /**
      * 开始一个作用域
      */
     private void beginScope() {
-        scopes.push(new HashMap<>());
+        scopes.push(new Scope(frame));
     }
 
     /**
      * 离开一个作用域
      */
     private void endScope() {
-        scopes.pop();
+        scopes.pop().finish();
     }
 
     /**
@@ -81,18 +106,34 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
     }
 
     /**
-     * 记录一个表达式的位置
+     * 查找一个变量, 位置确定之后写回语法树; 其他函数的变量会加入当前函数的捕获列表
      *
-     * @param expression expression
-     * @param name       token
+     * @param name   变量名
+     * @param setter 写回局部变量的位置, 全局变量写回 null
      */
-    private void resolveLocal(Expression expression, Token name) {
+    private void resolveLocal(String name, Consumer<Slot> setter) {
+        Variable variable = lookup(name);
+        if (Objects.isNull(variable)) {
+            setter.accept(null);
+        } else if (variable.getFrame() == frame) {
+            variable.reference(setter);
+        } else {
+            setter.accept(Slot.upvalue(frame.upvalue(variable)));
+        }
+    }
+
+    /**
+     * @param name 变量名
+     * @return 最内层可见的局部变量, 没有返回 null
+     */
+    private Variable lookup(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.getLexeme())) {
-                interpreter.setLocal(expression, scopes.size() - 1 - i);
-                return;
+            Variable variable = scopes.get(i).get(name);
+            if (Objects.nonNull(variable)) {
+                return variable;
             }
         }
+        return null;
     }
 
     /**
@@ -104,10 +145,10 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
         if (scopes.isEmpty()) {
             return;
         }
-        if (scopes.peek().containsKey(name.getLexeme())) {
-            Lox.error(name, "Already variable with this name in this scope.");
+        if (scopes.peek().contains(name.getLexeme())) {
+            error(name, "Already variable with this name in this scope.");
         }
-        scopes.peek().put(name.getLexeme(), false);
+        scopes.peek().declare(name.getLexeme());
     }
 
     /**
@@ -119,32 +160,113 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
         if (scopes.isEmpty()) {
             return;
         }
-        scopes.peek().put(name.getLexeme(), true);
+        scopes.peek().define(name.getLexeme());
     }
 
     /**
-     * 解析一个函数
+     * 记录声明的位置
+     *
+     * @param name   刚声明的 token
+     * @param setter 写回局部变量的位置, 全局变量写回 null
+     */
+    private void declared(Token name, Consumer<Slot> setter) {
+        if (scopes.isEmpty()) {
+            setter.accept(null);
+            return;
+        }
+        scopes.peek().get(name.getLexeme()).reference(setter);
+    }
+
+    /**
+     * @param token   token
+     * @param message 信息
+     */
+    private void error(Token token, String message) {
+        hadError = true;
+        Lox.error(token, message);
+    }
+
+    /**
+     * 解析一个函数, 还没有解析的延迟函数体等到第一次执行时再解析
      *
      * @param function function
      * @param type     type
      */
     private void resolveFunction(FunctionStatement function, FunctionType type) {
+        Frame functionFrame = new Frame(frame);
+        if (function.getBody() instanceof LazyStatements) {
+            LazyStatements body = (LazyStatements) function.getBody();
+            if (!body.isParsed()) {
+                // 闭包在函数体解析之前就要创建, 函数体中出现过的名字对应的外层变量都先捕获
+                for (String name : body.getIdentifiers()) {
+                    Variable variable = lookup(name);
+                    if (Objects.nonNull(variable)) {
+                        functionFrame.upvalue(variable);
+                    }
+                }
+                function.setUpvalues(functionFrame.getUpvalues());
+                Resolver deferred = new Resolver(this);
+                body.whenParsed(statements -> deferred.resolveDeferred(function, type, statements, functionFrame));
+                return;
+            }
+        }
+        resolveFunction(function, type, function.getBody(), functionFrame);
+    }
+
+    /**
+     * @param function      function
+     * @param type          type
+     * @param body          函数体
+     * @param functionFrame 函数的栈帧布局
+     */
+    private void resolveFunction(FunctionStatement function, FunctionType type, List<Statement> body, Frame functionFrame) {
         FunctionType enclosingFunction = currentFunction;
+        Frame enclosingFrame = frame;
         currentFunction = type;
+        frame = functionFrame;
         beginScope();
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // this 是方法的第一个局部变量
+            scopes.peek().define(TokenType.THIS.getCode());
+            scopes.peek().get(TokenType.THIS.getCode()).reference(function::setThisSlot);
+        }
         for (Token param : function.getParams()) {
             declare(param);
             define(param);
         }
-        resolve(function.getBody());
+        resolve(body);
+        Slot[] paramSlots = new Slot[function.getParams().size()];
+        for (int i = 0; i < paramSlots.length; i++) {
+            int index = i;
+            scopes.peek().get(function.getParams().get(i).getLexeme()).reference(slot -> paramSlots[index] = slot);
+        }
         endScope();
+        function.setParamSlots(Arrays.asList(paramSlots));
+        function.setFrameSize(frame.size());
+        function.setUpvalues(frame.getUpvalues());
+        frame = enclosingFrame;
         currentFunction = enclosingFunction;
     }
 
+    /**
+     * 解析延迟的函数体
+     *
+     * @param function function
+     * @param type     type
+     * @param body          刚解析出的函数体
+     * @param functionFrame 函数定义时创建的栈帧布局, 已经包含捕获列表
+     */
+    private void resolveDeferred(FunctionStatement function, FunctionType type, List<Statement> body, Frame functionFrame) {
+        resolveFunction(function, type, body, functionFrame);
+        if (hadError) {
+            throw new RuntimeError(function.getName(), "Error in body of '" + function.getName().getLexeme() + "'.");
+        }
+    }
+
     @Override
     public Void visitAssignExpression(AssignExpression expression) {
         resolve(expression.getValue());
-        resolveLocal(expression, expression.getName());
+        resolveLocal(expression.getName().getLexeme(), expression::setSlot);
         return null;
     }
 
@@ -167,6 +289,7 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
     @Override
     public Void visitGetExpression(GetExpression expression) {
         resolve(expression.getObject());
+        expression.setSelector(Selector.of(expression.getName().getLexeme()));
         return null;
     }
 
@@ -192,27 +315,30 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
     public Void visitSetExpression(SetExpression expression) {
         resolve(expression.getValue());
         resolve(expression.getObject());
+        expression.setSelector(Selector.of(expression.getName().getLexeme()));
         return null;
     }
 
     @Override
     public Void visitSuperExpression(SuperExpression expression) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expression.getKeyword(), "Can't use 'super' outside of a class.");
+            error(expression.getKeyword(), "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expression.getMethod(), "Can't use 'super' in a class with no superclass.");
+            error(expression.getMethod(), "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expression, expression.getKeyword());
+        resolveLocal(TokenType.SUPER.getCode(), expression::setSlot);
+        resolveLocal(TokenType.THIS.getCode(), expression::setThisSlot);
+        expression.setSelector(Selector.of(expression.getMethod().getLexeme()));
         return null;
     }
 
     @Override
     public Void visitThisExpression(ThisExpression expression) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expression.getKeyword(), "Can't use 'this' outside of a class.");
+            error(expression.getKeyword(), "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expression, expression.getKeyword());
+        resolveLocal(TokenType.THIS.getCode(), expression::setSlot);
         return null;
     }
 
@@ -224,22 +350,42 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
 
     @Override
     public Void visitVariableExpression(VariableExpression expression) {
-        if (!scopes.isEmpty() && Boolean.FALSE.equals(scopes.peek().get(expression.getName().getLexeme()))) {
-            Lox.error(expression.getName(), "Can't read local variable in its own initializer.");
+        if (!scopes.isEmpty() && scopes.peek().isUndefined(expression.getName().getLexeme())) {
+            error(expression.getName(), "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expression, expression.getName());
+        resolveLocal(expression.getName().getLexeme(), expression::setSlot);
         return null;
     }
 
     @Override
     public Void visitBlockStatement(BlockStatement statement) {
+        // 没有声明变量的代码块(比如 for 循环脱糖出来的循环体)不需要作用域
+        if (!declaresVariable(statement.getStatements())) {
+            resolve(statement.getStatements());
+            return null;
+        }
         beginScope();
         resolve(statement.getStatements());
         endScope();
+        statement.setScoped(true);
+        statement.setFrameSize(frame.size());
         return null;
     }
 
+    /**
+     * @param statements 代码块中的语句
+     * @return 是否直接声明了变量, 嵌套代码块里的声明不算
+     */
+    private boolean declaresVariable(List<Statement> statements) {
+        for (Statement statement : statements) {
+            if (statement instanceof VarStatement || statement instanceof FunctionStatement || statement instanceof ClassStatement) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public Void visitClassStatement(ClassStatement statement) {
         ClassType enclosingClass = currentClass;
@@ -247,19 +393,19 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
 
         declare(statement.getName());
         define(statement.getName());
+        declared(statement.getName(), statement::setSlot);
 
         if (Objects.nonNull(statement.getSuperclass())) {
             if (statement.getName().getLexeme().equals(statement.getSuperclass().getName().getLexeme())) {
-                Lox.error(statement.getSuperclass().getName(), "A class can't inherit from itself.");
+                error(statement.getSuperclass().getName(), "A class can't inherit from itself.");
             }
             currentClass = ClassType.SUBCLASS;
             resolve(statement.getSuperclass());
             beginScope();
-            scopes.peek().put(TokenType.SUPER.getCode(), true);
+            scopes.peek().define(TokenType.SUPER.getCode());
+            scopes.peek().get(TokenType.SUPER.getCode()).reference(statement::setSuperSlot);
         }
 
-        beginScope();
-        scopes.peek().put(TokenType.THIS.getCode(), true);
         for (FunctionStatement method : statement.getMethods()) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.getName().getLexeme().equals(LoxClass.INIT)) {
@@ -267,7 +413,6 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
             }
             resolveFunction(method, declaration);
         }
-        endScope();
 
         if (Objects.nonNull(statement.getSuperclass())) {
             endScope();
@@ -287,6 +432,7 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
     public Void visitFunctionStatement(FunctionStatement statement) {
         declare(statement.getName());
         define(statement.getName());
+        declared(statement.getName(), statement::setSlot);
 
         resolveFunction(statement, FunctionType.FUNCTION);
         return null;
@@ -295,11 +441,15 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
     @Override
     public Void visitReturnStatement(ReturnStatement statement) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(statement.getKeyword(), "Can't return from top-level code.");
+            error(statement.getKeyword(), "Can't return from top-level code.");
         }
         if (Objects.nonNull(statement.getValue())) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(statement.getKeyword(), "Can't return a value from an initializer.");
+                error(statement.getKeyword(), "Can't return a value from an initializer.");
+            }
+            // return f(...) 的调用结果直接作为返回值, 解释器可以复用当前栈帧执行
+            if (statement.getValue() instanceof CallExpression) {
+                ((CallExpression) statement.getValue()).setTail(true);
             }
             resolve(statement.getValue());
         }
@@ -336,6 +486,7 @@ public class Resolver implements ExpressionVisitor<Void>, StatementVisitor<Void>
         }
         declare(statement.getName());
         define(statement.getName());
+        declared(statement.getName(), statement::setSlot);
         return null;
     }
 }
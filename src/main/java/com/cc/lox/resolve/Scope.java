@@ -0,0 +1,133 @@
+package com.cc.lox.resolve;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 解析时的一个作用域, 记录变量的声明顺序和是否已经定义完成
+ * <p>
+ * 变量在所属函数的栈帧中分配偏移, 作用域结束时释放
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class Scope {
+
+    /**
+     * 变量, 按声明顺序
+     */
+    private final Map<String, Variable> variables;
+
+    /**
+     * 已经声明但是还没有定义完成的变量
+     */
+    private final Set<String> undefined;
+
+    /**
+     * 所属函数的栈帧
+     */
+    private final Frame frame;
+
+    /**
+     * 只有声明顺序小于 limit 的变量可见, 用于还原某一时刻的作用域
+     */
+    private final int limit;
+
+    /**
+     * 进入作用域时栈帧的位置
+     */
+    private final int mark;
+
+    /**
+     * @param frame 所属函数的栈帧
+     */
+    Scope(Frame frame) {
+        this(new LinkedHashMap<>(), new HashSet<>(), frame, Integer.MAX_VALUE, frame.mark());
+    }
+
+    private Scope(Map<String, Variable> variables, Set<String> undefined, Frame frame, int limit, int mark) {
+        this.variables = variables;
+        this.undefined = undefined;
+        this.frame = frame;
+        this.limit = limit;
+        this.mark = mark;
+    }
+
+    /**
+     * @return 当前时刻的只读视图, 之后声明的变量在视图中不可见
+     */
+    Scope snapshot() {
+        return new Scope(variables, undefined, frame, variables.size(), mark);
+    }
+
+    /**
+     * @param name 变量名
+     * @return 是否可见
+     */
+    boolean contains(String name) {
+        return Objects.nonNull(get(name));
+    }
+
+    /**
+     * @param name 变量名
+     * @return 可见的变量, 没有返回 null
+     */
+    Variable get(String name) {
+        Variable variable = variables.get(name);
+        return Objects.nonNull(variable) && variable.getOrder() < limit ? variable : null;
+    }
+
+    /**
+     * @return 所属函数的栈帧
+     */
+    Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * @param name 变量名
+     * @return 是否已经声明但是还没有定义完成
+     */
+    boolean isUndefined(String name) {
+        return contains(name) && undefined.contains(name);
+    }
+
+    /**
+     * 声明一个变量
+     *
+     * @param name 变量名
+     */
+    void declare(String name) {
+        add(name);
+        undefined.add(name);
+    }
+
+    /**
+     * 定义一个变量, 没有声明的会先声明
+     *
+     * @param name 变量名
+     */
+    void define(String name) {
+        add(name);
+        undefined.remove(name);
+    }
+
+    private void add(String name) {
+        if (!variables.containsKey(name)) {
+            variables.put(name, new Variable(variables.size(), frame, frame.allocate()));
+        }
+    }
+
+    /**
+     * 作用域结束, 写回所有引用, 释放栈帧中的偏移
+     */
+    void finish() {
+        for (Variable variable : variables.values()) {
+            variable.finish();
+        }
+        frame.release(mark);
+    }
+}
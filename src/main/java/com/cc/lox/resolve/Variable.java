@@ -0,0 +1,98 @@
+package com.cc.lox.resolve;
+
+import com.cc.lox.environment.Slot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 解析时的一个局部变量
+ * <p>
+ * 变量是否被闭包捕获要等它的作用域结束才能确定, 所以先记下所属函数里所有引用它的地方,
+ * 作用域结束之后再统一把最终的位置写回语法树
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class Variable {
+
+    /**
+     * 在作用域中的声明顺序
+     */
+    private final int order;
+
+    /**
+     * 所属函数的栈帧
+     */
+    private final Frame frame;
+
+    /**
+     * 栈帧中的偏移
+     */
+    private final int offset;
+
+    /**
+     * 是否被闭包捕获
+     */
+    private boolean captured = false;
+
+    /**
+     * 作用域是否已经结束, 位置已经确定
+     */
+    private boolean finalized = false;
+
+    /**
+     * 还没有写回位置的引用
+     */
+    private final List<Consumer<Slot>> sites = new ArrayList<>();
+
+    Variable(int order, Frame frame, int offset) {
+        this.order = order;
+        this.frame = frame;
+        this.offset = offset;
+    }
+
+    int getOrder() {
+        return order;
+    }
+
+    Frame getFrame() {
+        return frame;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    /**
+     * 标记为被捕获, 只能在作用域结束之前调用
+     */
+    void capture() {
+        if (finalized && !captured) {
+            throw new IllegalStateException("Variable captured after its scope ended.");
+        }
+        captured = true;
+    }
+
+    /**
+     * 记录所属函数里的一个引用, 位置确定之后写回, 只能在作用域结束之前调用
+     *
+     * @param setter 写回位置
+     */
+    void reference(Consumer<Slot> setter) {
+        sites.add(setter);
+    }
+
+    /**
+     * 作用域结束, 确定位置并写回所有引用
+     */
+    void finish() {
+        finalized = true;
+        Slot slot = captured ? Slot.cell(offset) : Slot.local(offset);
+        for (Consumer<Slot> site : sites) {
+            site.accept(slot);
+        }
+        sites.clear();
+    }
+}
@@ -0,0 +1,97 @@
+package com.cc.lox.scanner;
+
+import com.cc.lox.scanner.source.CharSource;
+import com.cc.lox.scanner.type.TokenMetaType;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 关键字的完美哈希表
+ * <p>
+ * 哈希值只依赖首字符、尾字符和长度，类加载时搜索一组没有冲突的乘数，
+ * 查找时最多只需要和一个候选关键字做比较
+ *
+ * @author cc
+ * @date 2023/10/20
+ */
+public final class KeywordTable {
+
+    private static final int SIZE = 64;
+
+    private static final int MASK = SIZE - 1;
+
+    private static final TokenType[] TABLE = new TokenType[SIZE];
+
+    private static final int FIRST_FACTOR;
+
+    private static final int LAST_FACTOR;
+
+    static {
+        List<TokenType> keywords = Arrays.stream(TokenType.values())
+                .filter(t -> t.getType() == TokenMetaType.KEYWORD)
+                .collect(Collectors.toList());
+
+        int first = 0;
+        int last = 0;
+        search:
+        for (int a = 1; a < SIZE; a++) {
+            for (int b = 1; b < SIZE; b++) {
+                Arrays.fill(TABLE, null);
+                boolean perfect = true;
+                for (TokenType keyword : keywords) {
+                    String code = keyword.getCode();
+                    int h = hash(code.charAt(0), code.charAt(code.length() - 1), code.length(), a, b);
+                    if (TABLE[h] != null) {
+                        perfect = false;
+                        break;
+                    }
+                    TABLE[h] = keyword;
+                }
+                if (perfect) {
+                    first = a;
+                    last = b;
+                    break search;
+                }
+            }
+        }
+        if (first == 0) {
+            throw new IllegalStateException("No perfect hash for keywords.");
+        }
+        FIRST_FACTOR = first;
+        LAST_FACTOR = last;
+    }
+
+    private KeywordTable() {
+    }
+
+    private static int hash(char first, char last, int length, int a, int b) {
+        return (first * a + last * b + length) & MASK;
+    }
+
+    /**
+     * @param source 源文本
+     * @param start  开始位置
+     * @param end    结束位置(不包含)
+     * @return 关键字类型, 不是关键字返回 null
+     */
+    public static TokenType lookup(CharSource source, int start, int end) {
+        int length = end - start;
+        TokenType candidate = TABLE[hash(source.charAt(start), source.charAt(end - 1), length, FIRST_FACTOR, LAST_FACTOR)];
+        if (candidate == null) {
+            return null;
+        }
+        String code = candidate.getCode();
+        if (code.length() != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(start + i) != code.charAt(i)) {
+                return null;
+            }
+        }
+        return candidate;
+    }
+}
@@ -1,149 +1,94 @@
 package com.cc.lox.scanner;
 
 import com.cc.lox.Lox;
-import com.cc.lox.scanner.type.TokenMatchFunction;
+import com.cc.lox.scanner.source.CharSource;
 import com.cc.lox.scanner.type.TokenMetaType;
 import com.cc.lox.scanner.type.TokenType;
 
-import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 import static com.cc.lox.scanner.type.TokenType.*;
 
 /**
  * 分词扫描器
+ * <p>
+ * 用字符分类表驱动的状态机，每个 token 只看一次首字符就能确定走哪个分支。
+ * 可以一次扫描全部 token, 也可以通过 {@link #nextToken()} 按需拉取
  *
  * @author cc
  */
 public class Scanner {
 
-    private static final Function<Character, Boolean> IS_DIGIT = (c) -> c >= '0' && c <= '9';
-
-    private static final Function<Character, Boolean> IS_ALPHA = c -> (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
-
-    private static final Function<Character, Boolean> IS_ALPHA_NUMERIC = c -> IS_ALPHA.apply(c) || IS_DIGIT.apply(c);
-
     /**
-     * 不做匹配
+     * 字符分类
      */
-    public static final TokenMatchFunction<Scanner, String, Boolean> FALSE_MATCH = (f, c) -> false;
+    private static final byte OTHER = 0;
+    private static final byte BLANK = 1;
+    private static final byte NEW_LINE = 2;
+    private static final byte DIGIT = 3;
+    private static final byte ALPHA = 4;
+    private static final byte QUOTE = 5;
+    private static final byte SINGLE = 6;
+    private static final byte OPERATOR = 7;
+    private static final byte SLASH_SIGN = 8;
+
+    private static final int TABLE_SIZE = 128;
 
     /**
-     * 默认匹配全部
+     * ascii 字符到字符分类的映射, 非 ascii 字符都是 OTHER
      */
-    public static final TokenMatchFunction<Scanner, String, Boolean> DEFAULT_MATCH = (scanner, code) -> {
-        for (char c : code.toCharArray()) {
-            if (!scanner.matchCurrentCharAndNext(c)) {
-                return false;
-            }
-        }
-        return true;
-    };
+    private static final byte[] CHAR_CLASS = new byte[TABLE_SIZE];
 
     /**
-     * 下一个不可以是 noMore 的匹配
+     * 单字符 token
      */
-    public static TokenMatchFunction<Scanner, String, Boolean> getNoMoreMatch(char noMore) {
-        return (scanner, code) -> {
-            for (char c : code.toCharArray()) {
-                if (!scanner.matchCurrentCharAndNext(c)) {
-                    return false;
-                }
-            }
-            boolean more = scanner.matchCurrentCharAndNext(noMore);
-            return !more;
-        };
-    }
+    private static final TokenType[] SINGLE_TOKEN = new TokenType[TABLE_SIZE];
 
     /**
-     * 注释的匹配
+     * 可以后接 '=' 的运算符, 没有后接 '=' 时的 token
      */
-    public static final TokenMatchFunction<Scanner, String, Boolean> COMMIT_MATCH = (scanner, code) -> {
-        for (char c : code.toCharArray()) {
-            if (!scanner.matchCurrentCharAndNext(c)) {
-                return false;
-            }
-        }
-        boolean inCommit = true;
-        while (inCommit) {
-            inCommit = !scanner.matchCurrentCharAndNext('\n') && !scanner.isAtEnd();
-        }
-        return true;
-    };
+    private static final TokenType[] OPERATOR_TOKEN = new TokenType[TABLE_SIZE];
 
     /**
-     * 字符串的匹配
+     * 可以后接 '=' 的运算符, 后接 '=' 时的 token
      */
-    public static final TokenMatchFunction<Scanner, String, Boolean> STRING_MATCH = (scanner, code) -> {
-        char sign = '"';
-        if (!scanner.matchCurrentCharAndNext(sign)) {
-            return false;
-        }
-        char cur;
-        while ((cur = scanner.peekCharAndNext()) != sign && !scanner.isAtEnd()) {
-            if (cur == '\n') {
-                scanner.addLine();
-            }
-        }
+    private static final TokenType[] OPERATOR_EQUAL_TOKEN = new TokenType[TABLE_SIZE];
 
-        if (scanner.isAtEnd() && scanner.peekPreviousChar() != sign) {
-            Lox.error(scanner.getLine(), "Unterminated string.");
-            return true;
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASS[c] = DIGIT;
         }
-        return true;
-    };
-
-
-    /**
-     * 数字的匹配
-     */
-    public static final TokenMatchFunction<Scanner, String, Boolean> NUMBER_MATCH = (scanner, code) -> {
-
-        if (!IS_DIGIT.apply(scanner.peekCharAndNext())) {
-            return false;
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHAR_CLASS[c] = ALPHA;
         }
-
-        while (IS_DIGIT.apply(scanner.peekChar())) {
-            scanner.peekCharAndNext();
+        for (char c = 'A'; c <= 'Z'; c++) {
+            CHAR_CLASS[c] = ALPHA;
         }
+        CHAR_CLASS['_'] = ALPHA;
+        CHAR_CLASS['"'] = QUOTE;
+        CHAR_CLASS['/'] = SLASH_SIGN;
 
-        // Look for a fractional part.
-        if (scanner.peekChar() == '.' && IS_DIGIT.apply(scanner.peekNextChar())) {
-            // Consume the "."
-            scanner.peekCharAndNext();
-            while (IS_DIGIT.apply(scanner.peekChar())) {
-                scanner.peekCharAndNext();
+        for (TokenType type : TokenType.values()) {
+            String code = type.getCode();
+            if (type.getType() == TokenMetaType.SIMPLE) {
+                CHAR_CLASS[code.charAt(0)] = SINGLE;
+                SINGLE_TOKEN[code.charAt(0)] = type;
+            } else if (type.getType() == TokenMetaType.SPLIT && code.length() == 1) {
+                CHAR_CLASS[code.charAt(0)] = type == SPLASH_N ? NEW_LINE : BLANK;
+            } else if (type.getType() == TokenMetaType.MORE && code.charAt(0) != '/') {
+                if (code.length() == 1) {
+                    CHAR_CLASS[code.charAt(0)] = OPERATOR;
+                    OPERATOR_TOKEN[code.charAt(0)] = type;
+                } else {
+                    OPERATOR_EQUAL_TOKEN[code.charAt(0)] = type;
+                }
             }
         }
-        return true;
-    };
-
-
-    /**
-     * 变量的匹配
-     */
-    public static final TokenMatchFunction<Scanner, String, Boolean> IDENTIFIER_MATCH = (scanner, code) -> {
-        if (!IS_ALPHA.apply(scanner.peekChar())) {
-            return false;
-        }
-
-        if (IS_DIGIT.apply(scanner.peekChar())) {
-            return false;
-        }
-        // consume the first
-        scanner.peekCharAndNext();
-        while (IS_ALPHA_NUMERIC.apply(scanner.peekChar())) {
-            scanner.peekCharAndNext();
-        }
-        return true;
-    };
-
-    private final Map<String, TokenType> KEY_WORD_MAP = Arrays.stream(values()).filter(t -> t.getType() == TokenMetaType.KEYWORD).collect(Collectors.toMap(TokenType::getCode, t -> t));
-
-    private final String source;
+    }
 
-    private final List<Token> tokens = new ArrayList<>();
+    private final CharSource source;
 
     /**
      * 扫描开始的地方
@@ -164,6 +109,13 @@ public class Scanner {
      * @param source 源文本
      */
     public Scanner(String source) {
+        this(CharSource.of(source));
+    }
+
+    /**
+     * @param source 字符源
+     */
+    public Scanner(CharSource source) {
         this.source = source;
     }
 
@@ -173,90 +125,182 @@ public class Scanner {
      * @return 扫描结果
      */
     public List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.getType() != EOF);
+        return tokens;
+    }
+
+    /**
+     * 扫描分词到紧凑的缓冲区, 不生成 token 对象, 源文本会一直保留
+     *
+     * @return 扫描结果
+     */
+    public TokenBuffer scanBuffer() {
+        TokenBuffer buffer = new TokenBuffer(source);
         while (!isAtEnd()) {
-            // We are at the beginning of the next lexeme.
             start = current;
-            scanNextToken();
+            TokenType type = scanNextToken();
+            if (Objects.nonNull(type)) {
+                buffer.add(type, start, current - start, line);
+            }
         }
-
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        buffer.add(EOF, current, 0, line);
+        return buffer;
     }
 
     /**
-     * add line
+     * 扫描下一个 token
+     *
+     * @return token, 结束之后一直返回 EOF
      */
-    private void addLine() {
-        this.line++;
+    public Token nextToken() {
+        while (!isAtEnd()) {
+            // We are at the beginning of the next lexeme.
+            start = current;
+            source.release(start);
+            TokenType type = scanNextToken();
+            if (Objects.nonNull(type)) {
+                return new Token(type, source.substring(start, current), literal(type), line);
+            }
+        }
+        return new Token(EOF, "", null, line);
     }
 
     /**
-     * @return line
+     * @param c 字符
+     * @return 字符分类
      */
-    private int getLine() {
-        return line;
+    private static byte classOf(char c) {
+        return c < TABLE_SIZE ? CHAR_CLASS[c] : OTHER;
     }
 
     /**
      * @return 是否扫描结束
      */
     private boolean isAtEnd() {
-        return current >= source.length();
+        return source.isAtEnd(current);
     }
 
     /**
-     * 扫描下一个token
+     * 扫描下一个词素
+     *
+     * @return token 类型, 空白、注释和错误返回 null
      */
-    private void scanNextToken() {
-        TokenType result = null;
-        for (TokenType type : TokenType.values()) {
-            final int current = this.current;
-            if (type.match(this)) {
-                result = type;
-                break;
-            }
-            this.current = current;
+    private TokenType scanNextToken() {
+        char c = source.charAt(current++);
+        switch (classOf(c)) {
+            case BLANK:
+                return null;
+            case NEW_LINE:
+                line++;
+                return null;
+            case SINGLE:
+                return SINGLE_TOKEN[c];
+            case OPERATOR:
+                return matchCurrentCharAndNext('=') ? OPERATOR_EQUAL_TOKEN[c] : OPERATOR_TOKEN[c];
+            case SLASH_SIGN:
+                if (matchCurrentCharAndNext('/')) {
+                    // A comment goes until the end of the line.
+                    while (!isAtEnd() && source.charAt(current) != '\n') {
+                        current++;
+                    }
+                    return null;
+                }
+                return SLASH;
+            case QUOTE:
+                return scanString();
+            case DIGIT:
+                return scanNumber();
+            case ALPHA:
+                return scanIdentifier();
+            default:
+                Lox.error(line, "Unexpected character.");
+                return null;
         }
-        if (Objects.isNull(result)) {
-            Lox.error(line, "Unexpected character.");
-            // The error char must be consumed;
-            peekCharAndNext();
-        } else if (result.getType() == TokenMetaType.SPLIT) {
-            if (result == SPLASH_N) {
-                this.addLine();
-            }
-        } else if (result == STRING) {
-            String value = source.substring(start + 1, current - 1);
-            addToken(result, value);
-        } else if (result == NUMBER) {
-            addToken(result, Double.parseDouble(source.substring(start, current)));
-        } else if (result == IDENTIFIER) {
-            String text = source.substring(start, current);
-            TokenType type = KEY_WORD_MAP.get(text);
-            if (Objects.nonNull(type)) {
-                result = type;
+    }
+
+    /**
+     * @param type 当前词素的类型
+     * @return 当前词素的值
+     */
+    private Object literal(TokenType type) {
+        if (type == STRING) {
+            return source.substring(start + 1, current - 1);
+        }
+        if (type == NUMBER) {
+            return Double.parseDouble(source.substring(start, current));
+        }
+        return null;
+    }
+
+    /**
+     * 字符串, 开头的 '"' 已经被消费
+     *
+     * @return token 类型, 没有结束的字符串返回 null
+     */
+    private TokenType scanString() {
+        while (!isAtEnd() && source.charAt(current) != '"') {
+            if (source.charAt(current) == '\n') {
+                line++;
             }
-            addToken(result);
-        } else {
-            addToken(result);
+            current++;
+        }
+
+        if (isAtEnd()) {
+            Lox.error(line, "Unterminated string.");
+            return null;
         }
 
+        // The closing ".
+        current++;
+        return STRING;
     }
 
     /**
-     * @param type token 类型
+     * 数字, 第一个数字已经被消费
+     *
+     * @return token 类型
      */
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    private TokenType scanNumber() {
+        skipDigits();
+
+        // Look for a fractional part.
+        if (peekChar() == '.' && classOf(peekNextChar()) == DIGIT) {
+            // Consume the "."
+            current++;
+            skipDigits();
+        }
+        return NUMBER;
     }
 
     /**
-     * @param type    token 类型
-     * @param literal 值
+     * 变量或者关键字, 第一个字母已经被消费
+     *
+     * @return token 类型
      */
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private TokenType scanIdentifier() {
+        while (!isAtEnd()) {
+            byte type = classOf(source.charAt(current));
+            if (type != ALPHA && type != DIGIT) {
+                break;
+            }
+            current++;
+        }
+        TokenType keyword = KeywordTable.lookup(source, start, current);
+        return Objects.isNull(keyword) ? IDENTIFIER : keyword;
+    }
+
+    /**
+     * 跳过连续的数字
+     */
+    private void skipDigits() {
+        while (!isAtEnd() && classOf(source.charAt(current)) == DIGIT) {
+            current++;
+        }
     }
 
     /**
@@ -277,17 +321,6 @@ public class Scanner {
         return true;
     }
 
-    /**
-     * 前进一步
-     *
-     * @return 当前 char
-     */
-    private char peekCharAndNext() {
-        char res = peekChar();
-        current++;
-        return res;
-    }
-
     /**
      * @return 当前的 char, 结尾返回 \0
      */
@@ -298,24 +331,13 @@ public class Scanner {
         return source.charAt(current);
     }
 
-
     /**
      * @return 下一个的 char, 结尾返回 \0
      */
     private char peekNextChar() {
-        if (current + 1 >= source.length()) {
+        if (source.isAtEnd(current + 1)) {
             return '\0';
         }
         return source.charAt(current + 1);
     }
-
-    /**
-     * @return 上一个的 char, 结尾返回 \0
-     */
-    private char peekPreviousChar() {
-        if (current - 1 < 0) {
-            return '\0';
-        }
-        return source.charAt(current - 1);
-    }
 }
@@ -0,0 +1,227 @@
+package com.cc.lox.scanner;
+
+import com.cc.lox.scanner.source.CharSource;
+import com.cc.lox.scanner.type.TokenMetaType;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑的 token 缓冲区
+ * <p>
+ * 每个 token 只在几个平行的基本类型数组里记录类型、开始位置、长度和行号，
+ * 词素和值只有在真正被用到的时候才从源文本中取出, 相同的词素只保留一份
+ *
+ * @author cc
+ * @date 2023/10/22
+ */
+public class TokenBuffer {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final CharSource source;
+
+    /**
+     * 缓冲区自己保存的词素文本, 只有 {@link #TokenBuffer()} 创建的缓冲区才有
+     */
+    private final StringBuilder text;
+
+    private byte[] types = new byte[INITIAL_CAPACITY];
+
+    private int[] starts = new int[INITIAL_CAPACITY];
+
+    private int[] lengths = new int[INITIAL_CAPACITY];
+
+    private int[] lines = new int[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    /**
+     * 词素的驻留表, 开放寻址
+     */
+    private String[] interned = new String[INITIAL_CAPACITY];
+
+    private int internedSize = 0;
+
+    /**
+     * @param source 字符源, 缓冲区存在期间不能被释放
+     */
+    public TokenBuffer(CharSource source) {
+        this.source = source;
+        this.text = null;
+    }
+
+    /**
+     * 自己保存词素的缓冲区, 用于收集流式扫描出来的 token, 这时字符源已经被释放
+     */
+    public TokenBuffer() {
+        this(new StringBuilder());
+    }
+
+    private TokenBuffer(StringBuilder text) {
+        this.source = CharSource.of(text);
+        this.text = text;
+    }
+
+    /**
+     * 追加一个已经生成的 token, 只有字面量需要保存词素
+     *
+     * @param token token
+     */
+    public void add(Token token) {
+        TokenType type = token.getType();
+        int start = text.length();
+        if (type.getType() == TokenMetaType.LITERALS) {
+            text.append(token.getLexeme());
+        }
+        add(type, start, text.length() - start, token.getLine());
+    }
+
+    /**
+     * 追加一个 token
+     *
+     * @param type   类型
+     * @param start  开始位置
+     * @param length 长度
+     * @param line   行号
+     */
+    void add(TokenType type, int start, int length, int line) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        size++;
+    }
+
+    /**
+     * @return token 数量, 包括最后的 EOF
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 下标
+     * @return 类型
+     */
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    /**
+     * @param index 下标
+     * @return 行号
+     */
+    public int line(int index) {
+        return lines[index];
+    }
+
+    /**
+     * @param index 下标
+     * @return 词素, 符号和关键字直接使用 token 类型上的字面量
+     */
+    public String lexeme(int index) {
+        TokenType type = type(index);
+        if (type.getType() != TokenMetaType.LITERALS) {
+            return type.getCode();
+        }
+        return intern(starts[index], lengths[index]);
+    }
+
+    /**
+     * @param index 下标
+     * @return 值, 只有字符串和数字有值
+     */
+    public Object literal(int index) {
+        TokenType type = type(index);
+        if (type == TokenType.STRING) {
+            return intern(starts[index] + 1, lengths[index] - 2);
+        }
+        if (type == TokenType.NUMBER) {
+            return Double.parseDouble(lexeme(index));
+        }
+        return null;
+    }
+
+    /**
+     * @param index 下标
+     * @return 生成 token 对象
+     */
+    public Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }
+
+    /**
+     * 取出源文本中的一段, 相同的内容返回同一个字符串
+     *
+     * @param start  开始位置
+     * @param length 长度
+     * @return 字符串
+     */
+    private String intern(int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + source.charAt(start + i);
+        }
+        int mask = interned.length - 1;
+        int slot = hash & mask;
+        String candidate;
+        while ((candidate = interned[slot]) != null) {
+            if (candidate.hashCode() == hash && sameContent(candidate, start, length)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String value = source.substring(start, start + length);
+        interned[slot] = value;
+        if (++internedSize * 2 > interned.length) {
+            rehash();
+        }
+        return value;
+    }
+
+    /**
+     * @param candidate 已经驻留的字符串
+     * @param start     开始位置
+     * @param length    长度
+     * @return 内容是否相同
+     */
+    private boolean sameContent(String candidate, int start, int length) {
+        if (candidate.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 驻留表扩容
+     */
+    private void rehash() {
+        String[] old = interned;
+        interned = new String[old.length * 2];
+        int mask = interned.length - 1;
+        for (String value : old) {
+            if (value != null) {
+                int slot = value.hashCode() & mask;
+                while (interned[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                interned[slot] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.cc.lox.scanner.source;
+
+import com.cc.lox.scanner.source.impl.ByteBufferReader;
+import com.cc.lox.scanner.source.impl.ReaderCharSource;
+import com.cc.lox.scanner.source.impl.SequenceCharSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 扫描器读取的字符源, 位置都是从源文本开头算起的绝对位置
+ *
+ * @author cc
+ * @date 2023/10/21
+ */
+public interface CharSource {
+
+    /**
+     * @param position 位置
+     * @return 这个位置是否已经超出了源文本
+     */
+    boolean isAtEnd(int position);
+
+    /**
+     * @param position 位置, 调用前需要确认没有超出源文本
+     * @return 字符
+     */
+    char charAt(int position);
+
+    /**
+     * @param start 开始位置
+     * @param end   结束位置(不包含)
+     * @return 子串
+     */
+    String substring(int start, int end);
+
+    /**
+     * 告诉字符源 position 之前的字符不会再被读取, 可以释放
+     *
+     * @param position 位置
+     */
+    default void release(int position) {
+    }
+
+    /**
+     * @param source 内存中的源文本, 比如 String 或者 CharBuffer
+     * @return 字符源
+     */
+    static CharSource of(CharSequence source) {
+        return new SequenceCharSource(source);
+    }
+
+    /**
+     * @param reader reader, 按需读取
+     * @return 字符源
+     */
+    static CharSource of(Reader reader) {
+        return new ReaderCharSource(reader);
+    }
+
+    /**
+     * @param bytes   字节, 比如内存映射的文件
+     * @param charset 编码
+     * @return 字符源, 按需解码
+     */
+    static CharSource of(ByteBuffer bytes, Charset charset) {
+        return of(new ByteBufferReader(bytes, charset));
+    }
+
+    /**
+     * 以内存映射的方式读取文件, 按需解码
+     *
+     * @param path    文件路径
+     * @param charset 编码
+     * @return 字符源
+     * @throws IOException io 错误
+     */
+    static CharSource map(Path path, Charset charset) throws IOException {
+        return of(mapFile(path), charset);
+    }
+
+    /**
+     * @param path 文件路径
+     * @return 只读的内存映射
+     * @throws IOException io 错误
+     */
+    static MappedByteBuffer mapFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
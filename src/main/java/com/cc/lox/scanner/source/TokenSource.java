@@ -0,0 +1,75 @@
+package com.cc.lox.scanner.source;
+
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.TokenBuffer;
+import com.cc.lox.scanner.source.impl.BufferTokenSource;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.Set;
+
+/**
+ * 语法解析器按需拉取的 token 流
+ *
+ * @author cc
+ * @date 2023/10/21
+ */
+public interface TokenSource {
+
+    /**
+     * @return 当前的 token, 不消费
+     */
+    Token peek();
+
+    /**
+     * @return 当前 token 的类型, 实现可以不生成 token 对象
+     */
+    default TokenType peekType() {
+        return peek().getType();
+    }
+
+    /**
+     * @return 上一个被消费的 token
+     */
+    Token previous();
+
+    /**
+     * 消费当前的 token, 到达 EOF 之后不再前进
+     */
+    void advance();
+
+    /**
+     * 跳过一个代码块, 开头的 '{' 已经被消费, 结尾匹配的 '}' 也会被消费
+     *
+     * @param identifiers 收集代码块中出现过的标识符, 包括 this 和 super
+     * @return 代码块内部的 token 流, 以 EOF 结束; 没有匹配的 '}' 返回 null
+     */
+    default TokenSource skipBlock(Set<String> identifiers) {
+        return skipBlock(identifiers, new TokenBuffer());
+    }
+
+    /**
+     * 跳过一个代码块, 跳过的 token 追加到紧凑缓冲区里, 不保留 token 对象
+     *
+     * @param identifiers 收集代码块中出现过的标识符, 包括 this 和 super
+     * @param into        自己保存词素的缓冲区, 可以被多个代码块共用
+     * @return 缓冲区中代码块内部的一段; 没有匹配的 '}' 返回 null
+     */
+    default TokenSource skipBlock(Set<String> identifiers, TokenBuffer into) {
+        int start = into.size();
+        int depth = 0;
+        for (TokenType type = peekType(); type != TokenType.EOF; type = peekType()) {
+            // 结尾的 '}' 也留在缓冲区里, 提供 EOF 的行号
+            into.add(peek());
+            advance();
+            if (type == TokenType.RIGHT_BRACE && depth-- == 0) {
+                return new BufferTokenSource(into, start, into.size() - 1);
+            }
+            if (type == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER) {
+                identifiers.add(previous().getLexeme());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+package com.cc.lox.scanner.source.impl;
+
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.TokenBuffer;
+import com.cc.lox.scanner.source.TokenSource;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.Set;
+
+/**
+ * 在紧凑缓冲区上移动的游标, 只有解析器真正取 token 的时候才生成 token 对象
+ *
+ * @author cc
+ * @date 2023/10/22
+ */
+public class BufferTokenSource implements TokenSource {
+
+    private final TokenBuffer buffer;
+
+    private int current;
+
+    /**
+     * 游标的结束位置(不包含), 到达之后一直是 EOF
+     */
+    private final int end;
+
+    /**
+     * 最近一次生成的 token, 避免同一个 token 被重复生成
+     */
+    private Token cached;
+
+    private int cachedIndex = -1;
+
+    public BufferTokenSource(TokenBuffer buffer) {
+        this(buffer, 0, buffer.size() - 1);
+    }
+
+    /**
+     * @param buffer 缓冲区
+     * @param start  开始位置
+     * @param end    结束位置(不包含), 这个位置的 token 提供 EOF 的行号
+     */
+    public BufferTokenSource(TokenBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.current = start;
+        this.end = end;
+    }
+
+    @Override
+    public Token peek() {
+        return tokenAt(current);
+    }
+
+    @Override
+    public TokenType peekType() {
+        return current < end ? buffer.type(current) : TokenType.EOF;
+    }
+
+    @Override
+    public Token previous() {
+        return tokenAt(current - 1);
+    }
+
+    @Override
+    public void advance() {
+        if (current < end) {
+            current++;
+        }
+    }
+
+    /**
+     * 只移动游标, 返回共享同一个缓冲区的子范围
+     */
+    @Override
+    public TokenSource skipBlock(Set<String> identifiers) {
+        int start = current;
+        int depth = 0;
+        for (; current < end; current++) {
+            TokenType type = buffer.type(current);
+            if (type == TokenType.RIGHT_BRACE && depth-- == 0) {
+                current++;
+                return new BufferTokenSource(buffer, start, current - 1);
+            }
+            if (type == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER) {
+                identifiers.add(buffer.lexeme(current));
+            }
+        }
+        return null;
+    }
+
+    private Token tokenAt(int index) {
+        if (index != cachedIndex) {
+            cached = index < end ? buffer.token(index) : new Token(TokenType.EOF, "", null, buffer.line(index));
+            cachedIndex = index;
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,54 @@
+package com.cc.lox.scanner.source.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 把 ByteBuffer (比如内存映射的文件) 按需解码成字符
+ *
+ * @author cc
+ * @date 2023/10/21
+ */
+public class ByteBufferReader extends Reader {
+
+    private final ByteBuffer bytes;
+
+    private final CharsetDecoder decoder;
+
+    private boolean flushed = false;
+
+    public ByteBufferReader(ByteBuffer bytes, Charset charset) {
+        this.bytes = bytes;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (flushed) {
+            return -1;
+        }
+        CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+        CoderResult result = decoder.decode(bytes, out, true);
+        if (result.isError()) {
+            result.throwException();
+        }
+        if (result.isUnderflow()) {
+            // 输入已经全部解码, 输出装不下的时候下次再 flush
+            flushed = decoder.flush(out).isUnderflow();
+        }
+        int read = out.position() - offset;
+        return read == 0 && flushed ? -1 : read;
+    }
+
+    @Override
+    public void close() {
+    }
+}
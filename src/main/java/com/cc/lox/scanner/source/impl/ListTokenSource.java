@@ -0,0 +1,41 @@
+package com.cc.lox.scanner.source.impl;
+
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.source.TokenSource;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.List;
+
+/**
+ * 已经扫描好的 token 列表, 最后一个必须是 EOF
+ *
+ * @author cc
+ * @date 2023/10/21
+ */
+public class ListTokenSource implements TokenSource {
+
+    private final List<Token> tokens;
+
+    private int current = 0;
+
+    public ListTokenSource(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public Token peek() {
+        return tokens.get(current);
+    }
+
+    @Override
+    public Token previous() {
+        return tokens.get(current - 1);
+    }
+
+    @Override
+    public void advance() {
+        if (peek().getType() != TokenType.EOF) {
+            current++;
+        }
+    }
+}
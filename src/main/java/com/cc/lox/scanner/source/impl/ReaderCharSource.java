@@ -0,0 +1,110 @@
+package com.cc.lox.scanner.source.impl;
+
+import com.cc.lox.scanner.source.CharSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * 从 reader 按需读取的字符源
+ * <p>
+ * 只保留从最近一次 release 的位置到当前读取位置的窗口, 内存占用和最长的 token 有关, 和文件大小无关
+ *
+ * @author cc
+ * @date 2023/10/21
+ */
+public class ReaderCharSource implements CharSource {
+
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private final Reader reader;
+
+    private char[] buffer = new char[INITIAL_CAPACITY];
+
+    /**
+     * buffer[0] 对应的绝对位置
+     */
+    private int base = 0;
+
+    /**
+     * buffer 中有效字符的数量
+     */
+    private int limit = 0;
+
+    /**
+     * 这个位置之前的字符可以丢弃
+     */
+    private int released = 0;
+
+    private boolean eof = false;
+
+    public ReaderCharSource(Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public boolean isAtEnd(int position) {
+        return !fillTo(position);
+    }
+
+    @Override
+    public char charAt(int position) {
+        fillTo(position);
+        return buffer[position - base];
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        fillTo(end - 1);
+        return new String(buffer, start - base, end - start);
+    }
+
+    @Override
+    public void release(int position) {
+        this.released = Math.max(released, position);
+    }
+
+    /**
+     * 读取直到 position 在窗口中
+     *
+     * @param position 位置
+     * @return position 是否在源文本中
+     */
+    private boolean fillTo(int position) {
+        while (position >= base + limit) {
+            if (eof) {
+                return false;
+            }
+            fill();
+        }
+        return true;
+    }
+
+    /**
+     * 再读取一段, 先丢弃已经释放的部分, 窗口还是满的话扩容
+     */
+    private void fill() {
+        int discard = released - base;
+        if (discard > 0) {
+            System.arraycopy(buffer, discard, buffer, 0, limit - discard);
+            limit -= discard;
+            base = released;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+                reader.close();
+            } else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
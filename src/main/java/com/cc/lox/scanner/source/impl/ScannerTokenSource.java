@@ -0,0 +1,64 @@
+package com.cc.lox.scanner.source.impl;
+
+import com.cc.lox.scanner.Scanner;
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.TokenBuffer;
+import com.cc.lox.scanner.source.TokenSource;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 边扫描边解析, 只保留当前和上一个 token
+ *
+ * @author cc
+ * @date 2023/10/21
+ */
+public class ScannerTokenSource implements TokenSource {
+
+    private final Scanner scanner;
+
+    private Token current;
+
+    private Token previous;
+
+    /**
+     * 跳过的代码块共用的紧凑缓冲区, 第一次跳过时创建
+     */
+    private TokenBuffer skipped;
+
+    public ScannerTokenSource(Scanner scanner) {
+        this.scanner = scanner;
+        this.current = scanner.nextToken();
+    }
+
+    @Override
+    public Token peek() {
+        return current;
+    }
+
+    @Override
+    public Token previous() {
+        return previous;
+    }
+
+    @Override
+    public void advance() {
+        if (current.getType() != TokenType.EOF) {
+            previous = current;
+            current = scanner.nextToken();
+        }
+    }
+
+    /**
+     * 字符源已经被释放, 跳过的 token 都追加到同一个缓冲区里
+     */
+    @Override
+    public TokenSource skipBlock(Set<String> identifiers) {
+        if (Objects.isNull(skipped)) {
+            skipped = new TokenBuffer();
+        }
+        return skipBlock(identifiers, skipped);
+    }
+}
@@ -0,0 +1,33 @@
+package com.cc.lox.scanner.source.impl;
+
+import com.cc.lox.scanner.source.CharSource;
+
+/**
+ * 已经完全在内存中的字符源
+ *
+ * @author cc
+ * @date 2023/10/21
+ */
+public class SequenceCharSource implements CharSource {
+
+    private final CharSequence source;
+
+    public SequenceCharSource(CharSequence source) {
+        this.source = source;
+    }
+
+    @Override
+    public boolean isAtEnd(int position) {
+        return position >= source.length();
+    }
+
+    @Override
+    public char charAt(int position) {
+        return source.charAt(position);
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        return source.subSequence(start, end).toString();
+    }
+}
@@ -1,9 +1,7 @@
 package com.cc.lox.scanner.type;
 
-import com.cc.lox.scanner.Scanner;
 import lombok.Getter;
 
-import static com.cc.lox.scanner.Scanner.*;
 import static com.cc.lox.scanner.type.TokenMetaType.*;
 
 /**
@@ -29,21 +27,21 @@ public enum TokenType {
     STAR("*", SIMPLE),
 
     // One or two character tokens.
-    BANG("!", MORE, getNoMoreMatch('=')),
+    BANG("!", MORE),
     BANG_EQUAL("!=", MORE),
-    EQUAL("=", MORE, getNoMoreMatch('=')),
+    EQUAL("=", MORE),
     EQUAL_EQUAL("==", MORE),
-    GREATER(">", MORE, getNoMoreMatch('=')),
+    GREATER(">", MORE),
     GREATER_EQUAL(">=", MORE),
-    LESS("<", MORE, getNoMoreMatch('=')),
+    LESS("<", MORE),
     LESS_EQUAL("<=", MORE),
-    SLASH("/", MORE, getNoMoreMatch('/')),
-    COMMIT("//", MORE, COMMIT_MATCH),
+    SLASH("/", MORE),
+    COMMIT("//", MORE),
 
     // Literals.
-    IDENTIFIER("IDENTIFIER", LITERALS, IDENTIFIER_MATCH),
-    STRING("STRING", LITERALS, STRING_MATCH),
-    NUMBER("NUMBER", LITERALS, NUMBER_MATCH),
+    IDENTIFIER("IDENTIFIER", LITERALS),
+    STRING("STRING", LITERALS),
+    NUMBER("NUMBER", LITERALS),
 
     // Keywords.
     AND("and", KEYWORD),
@@ -67,29 +65,15 @@ public enum TokenType {
     SPLASH_T("\t", SPLIT),
     SPLASH_R("\r", SPLIT),
     SPLASH_N("\n", SPLIT),
-    EOF("", SPLIT, FALSE_MATCH);
+    EOF("", SPLIT);
 
     private final String code;
 
     private final TokenMetaType type;
 
-    /**
-     * 是否和当前token匹配
-     */
-    private final TokenMatchFunction<Scanner, String, Boolean> match;
-
     TokenType(String code, TokenMetaType type) {
-        this(code, type, DEFAULT_MATCH);
-    }
-
-    TokenType(String code, TokenMetaType type, TokenMatchFunction<Scanner, String, Boolean> match) {
         this.code = code;
         this.type = type;
-        this.match = match;
-    }
-
-    public boolean match(Scanner scanner) {
-        return this.match.apply(scanner, code);
     }
 
 }
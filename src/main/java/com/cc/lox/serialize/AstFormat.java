@@ -0,0 +1,57 @@
+package com.cc.lox.serialize;
+
+/**
+ * .loxc 文件格式
+ * <pre>
+ * magic "LOXC" | version u16 | 字符串表 | 语句数量 | 语句 ...
+ * </pre>
+ * 整数都用无符号变长编码, 字符串都是字符串表的下标, 每个节点以一个字节的标签开头, 0 表示 null
+ *
+ * @author cc
+ * @date 2023/10/25
+ */
+public final class AstFormat {
+
+    static final byte[] MAGIC = {'L', 'O', 'X', 'C'};
+
+    static final int VERSION = 8;
+
+    public static final String EXTENSION = ".loxc";
+
+    static final byte NULL = 0;
+
+    // statement
+    static final byte BLOCK = 1;
+    static final byte CLASS = 2;
+    static final byte EXPRESSION = 3;
+    static final byte FUNCTION = 4;
+    static final byte RETURN = 5;
+    static final byte IF = 6;
+    static final byte PRINT = 7;
+    static final byte WHILE = 8;
+    static final byte VAR = 9;
+
+    // expression
+    static final byte ASSIGN = 16;
+    static final byte BINARY = 17;
+    static final byte CALL = 18;
+    static final byte GET = 19;
+    static final byte GROUPING = 20;
+    static final byte LITERAL = 21;
+    static final byte LOGICAL = 22;
+    static final byte SET = 23;
+    static final byte SUPER = 24;
+    static final byte THIS = 25;
+    static final byte UNARY = 26;
+    static final byte VARIABLE = 27;
+
+    // literal value
+    static final byte VALUE_NIL = 0;
+    static final byte VALUE_FALSE = 1;
+    static final byte VALUE_TRUE = 2;
+    static final byte VALUE_NUMBER = 3;
+    static final byte VALUE_STRING = 4;
+
+    private AstFormat() {
+    }
+}
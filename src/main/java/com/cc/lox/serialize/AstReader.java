@@ -0,0 +1,297 @@
+package com.cc.lox.serialize;
+
+import com.cc.lox.cache.CompiledScript;
+import com.cc.lox.cache.ScriptCache;
+import com.cc.lox.clazz.Selector;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+import com.cc.lox.parser.expression.Expression;
+import com.cc.lox.parser.expression.impl.*;
+import com.cc.lox.parser.statement.Statement;
+import com.cc.lox.parser.statement.impl.*;
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.cc.lox.serialize.AstFormat.*;
+
+/**
+ * 读取 .loxc 格式, 直接得到语法树和变量解析结果, 不需要再扫描、解析
+ *
+ * @author cc
+ * @date 2023/10/25
+ */
+public class AstReader {
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private static final SlotType[] SLOT_TYPES = SlotType.values();
+
+    private static final String STRING_TABLE = "corrupt string table";
+
+    private static final String LIST = "corrupt list length";
+
+    private final ByteBuffer in;
+
+    private String[] strings;
+
+    /**
+     * @param in .loxc 文件内容, 通常是内存映射
+     */
+    public AstReader(ByteBuffer in) {
+        this.in = in;
+    }
+
+    /**
+     * @return 编译结果
+     * @throws IOException 格式错误
+     */
+    public CompiledScript read() throws IOException {
+        int size = in.remaining();
+        try {
+            for (byte magic : MAGIC) {
+                if (in.get() != magic) {
+                    throw new IOException("Not a " + EXTENSION + " file.");
+                }
+            }
+            int version = in.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported " + EXTENSION + " version " + version + ", expect " + VERSION + ".");
+            }
+
+            strings = new String[readLength(STRING_TABLE)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readLength(STRING_TABLE)];
+                in.get(bytes);
+                strings[i] = bytes.length == 0 ? "" : new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            List<Statement> statements = readStatements();
+            return new CompiledScript(statements, ScriptCache.estimateWeight(size));
+        } catch (RuntimeException e) {
+            throw new IOException("Broken " + EXTENSION + " file.", e);
+        }
+    }
+
+    private List<Statement> readStatements() throws IOException {
+        int size = readLength(LIST);
+        List<Statement> statements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            statements.add(readStatement());
+        }
+        return statements;
+    }
+
+    private List<Expression> readExpressions() throws IOException {
+        int size = readLength(LIST);
+        List<Expression> expressions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            expressions.add(readExpression());
+        }
+        return expressions;
+    }
+
+    private List<Token> readTokens() throws IOException {
+        int size = readLength(LIST);
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(readToken());
+        }
+        return tokens;
+    }
+
+    private Statement readStatement() throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BLOCK: {
+                BlockStatement block = new BlockStatement(readStatements());
+                block.setScoped(in.get() == VALUE_TRUE);
+                block.setFrameSize(readInt());
+                return block;
+            }
+            case CLASS: {
+                Token name = readToken();
+                VariableExpression superclass = (VariableExpression) readExpression();
+                int size = readLength(LIST);
+                List<FunctionStatement> methods = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    methods.add((FunctionStatement) readStatement());
+                }
+                ClassStatement klass = new ClassStatement(name, superclass, methods);
+                klass.setSlot(readSlot());
+                klass.setSuperSlot(readSlot());
+                return klass;
+            }
+            case EXPRESSION:
+                return new ExpressionStatement(readExpression());
+            case FUNCTION: {
+                FunctionStatement function = new FunctionStatement(readToken(), readTokens(), readStatements());
+                function.setFrameSize(readInt());
+                function.setParamSlots(readSlots());
+                function.setThisSlot(readSlot());
+                function.setUpvalues(readSlots());
+                function.setSlot(readSlot());
+                return function;
+            }
+            case RETURN:
+                return new ReturnStatement(readToken(), readExpression());
+            case IF:
+                return new IfStatement(readExpression(), readStatement(), readStatement());
+            case PRINT:
+                return new PrintStatement(readExpression());
+            case WHILE:
+                return new WhileStatement(readExpression(), readStatement());
+            case VAR: {
+                VarStatement var = new VarStatement(readToken(), readExpression());
+                var.setSlot(readSlot());
+                return var;
+            }
+            default:
+                throw new IOException("Unknown statement tag " + tag + ".");
+        }
+    }
+
+    private Expression readExpression() throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case ASSIGN: {
+                AssignExpression assign = new AssignExpression(readToken(), readExpression());
+                assign.setSlot(readSlot());
+                return assign;
+            }
+            case BINARY:
+                return new BinaryExpression(readExpression(), readToken(), readExpression());
+            case CALL: {
+                CallExpression expression = new CallExpression(readExpression(), readToken(), readExpressions());
+                expression.setTail(in.get() == VALUE_TRUE);
+                return expression;
+            }
+            case GET: {
+                GetExpression expression = new GetExpression(readExpression(), readToken());
+                // 选择子只在当前进程里有效, 不写进文件, 读回时按名字重新分配
+                expression.setSelector(Selector.of(expression.getName().getLexeme()));
+                return expression;
+            }
+            case GROUPING:
+                return new GroupingExpression(readExpression());
+            case LITERAL:
+                return new LiteralExpression(readValue());
+            case LOGICAL:
+                return new LogicalExpression(readExpression(), readToken(), readExpression());
+            case SET: {
+                SetExpression expression = new SetExpression(readExpression(), readToken(), readExpression());
+                expression.setSelector(Selector.of(expression.getName().getLexeme()));
+                return expression;
+            }
+            case SUPER: {
+                SuperExpression expression = new SuperExpression(readToken(), readToken());
+                expression.setSlot(readSlot());
+                expression.setThisSlot(readSlot());
+                expression.setSelector(Selector.of(expression.getMethod().getLexeme()));
+                return expression;
+            }
+            case THIS: {
+                ThisExpression expression = new ThisExpression(readToken());
+                expression.setSlot(readSlot());
+                return expression;
+            }
+            case UNARY:
+                return new UnaryExpression(readToken(), readExpression());
+            case VARIABLE: {
+                VariableExpression variable = new VariableExpression(readToken());
+                variable.setSlot(readSlot());
+                return variable;
+            }
+            default:
+                throw new IOException("Unknown expression tag " + tag + ".");
+        }
+    }
+
+    private Token readToken() {
+        TokenType type = TOKEN_TYPES[readInt()];
+        String lexeme = strings[readInt()];
+        Object literal = readValue();
+        int line = readInt() - 1;
+        return new Token(type, lexeme, literal, line);
+    }
+
+    /**
+     * @return 变量的位置, 全局变量返回 null
+     */
+    private Slot readSlot() {
+        int type = readInt();
+        if (type == 0) {
+            return null;
+        }
+        switch (SLOT_TYPES[type - 1]) {
+            case LOCAL:
+                return Slot.local(readInt());
+            case CELL:
+                return Slot.cell(readInt());
+            default:
+                return Slot.upvalue(readInt());
+        }
+    }
+
+    private List<Slot> readSlots() throws IOException {
+        int size = readLength(LIST);
+        List<Slot> slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(readSlot());
+        }
+        return slots;
+    }
+
+    private Object readValue() {
+        byte type = in.get();
+        switch (type) {
+            case VALUE_FALSE:
+                return false;
+            case VALUE_TRUE:
+                return true;
+            case VALUE_NUMBER:
+                return in.getDouble();
+            case VALUE_STRING:
+                return strings[readInt()];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 读取长度或者个数; 每个元素至少占一个字节, 超过剩余字节数的一定是损坏的文件,
+     * 不能按它分配数组
+     *
+     * @param corrupt 长度不合法时的错误信息
+     * @return 长度
+     * @throws IOException 长度为负数或者超过剩余字节数
+     */
+    private int readLength(String corrupt) throws IOException {
+        int length = readInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException(corrupt);
+        }
+        return length;
+    }
+
+    private int readInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,375 @@
+package com.cc.lox.serialize;
+
+import com.cc.lox.environment.Slot;
+import com.cc.lox.parser.expression.Expression;
+import com.cc.lox.parser.expression.ExpressionVisitor;
+import com.cc.lox.parser.expression.impl.*;
+import com.cc.lox.parser.statement.Statement;
+import com.cc.lox.parser.statement.StatementVisitor;
+import com.cc.lox.parser.statement.impl.*;
+import com.cc.lox.scanner.Token;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.cc.lox.serialize.AstFormat.*;
+
+/**
+ * 把解析好的语法树和变量解析结果写成 .loxc 格式
+ *
+ * @author cc
+ * @date 2023/10/25
+ */
+public class AstWriter implements ExpressionVisitor<Void>, StatementVisitor<Void> {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private final DataOutputStream out = new DataOutputStream(body);
+
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * @param statements 语法树
+     * @return .loxc 文件内容
+     */
+    public byte[] write(List<Statement> statements) {
+        try {
+            writeInt(statements.size());
+            for (Statement statement : statements) {
+                write(statement);
+            }
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream(body.size() + 64);
+            DataOutputStream header = new DataOutputStream(file);
+            header.write(MAGIC);
+            header.writeShort(VERSION);
+            writeInt(header, strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeInt(header, bytes.length);
+                header.write(bytes);
+            }
+            body.writeTo(file);
+            return file.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(Statement statement) {
+        if (Objects.isNull(statement)) {
+            writeByte(NULL);
+            return;
+        }
+        statement.accept(this);
+    }
+
+    private void write(Expression expression) {
+        if (Objects.isNull(expression)) {
+            writeByte(NULL);
+            return;
+        }
+        expression.accept(this);
+    }
+
+    private void writeStatements(List<Statement> statements) {
+        writeInt(statements.size());
+        for (Statement statement : statements) {
+            write(statement);
+        }
+    }
+
+    private void writeExpressions(List<Expression> expressions) {
+        writeInt(expressions.size());
+        for (Expression expression : expressions) {
+            write(expression);
+        }
+    }
+
+    private void writeToken(Token token) {
+        writeInt(token.getType().ordinal());
+        writeString(token.getLexeme());
+        writeValue(token.getLiteral());
+        writeInt(token.getLine() + 1);
+    }
+
+    private void writeTokens(List<Token> tokens) {
+        writeInt(tokens.size());
+        for (Token token : tokens) {
+            writeToken(token);
+        }
+    }
+
+    /**
+     * 变量的位置, 全局变量只写 0, 局部变量写存放方式加 1 和下标
+     *
+     * @param slot 解析器记录的位置
+     */
+    private void writeSlot(Slot slot) {
+        if (Objects.isNull(slot)) {
+            writeInt(0);
+            return;
+        }
+        writeInt(slot.getType().ordinal() + 1);
+        writeInt(slot.getIndex());
+    }
+
+    private void writeSlots(List<Slot> slots) {
+        writeInt(slots.size());
+        for (Slot slot : slots) {
+            writeSlot(slot);
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (Objects.isNull(value)) {
+            writeByte(VALUE_NIL);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+        } else if (value instanceof Double) {
+            writeByte(VALUE_NUMBER);
+            try {
+                out.writeDouble((Double) value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            writeByte(VALUE_STRING);
+            writeString(value.toString());
+        }
+    }
+
+    private void writeString(String string) {
+        Integer index = stringIndexes.get(string);
+        if (Objects.isNull(index)) {
+            index = strings.size();
+            strings.add(string);
+            stringIndexes.put(string, index);
+        }
+        writeInt(index);
+    }
+
+    private void writeByte(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeInt(int value) {
+        try {
+            writeInt(out, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 无符号变长整数, 每个字节 7 位
+     */
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    @Override
+    public Void visitAssignExpression(AssignExpression expression) {
+        writeByte(ASSIGN);
+        writeToken(expression.getName());
+        write(expression.getValue());
+        writeSlot(expression.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(BinaryExpression expression) {
+        writeByte(BINARY);
+        write(expression.getLeft());
+        writeToken(expression.getOperator());
+        write(expression.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(CallExpression expression) {
+        writeByte(CALL);
+        write(expression.getCallee());
+        writeToken(expression.getParen());
+        writeExpressions(expression.getArguments());
+        writeByte(expression.isTail() ? VALUE_TRUE : VALUE_FALSE);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(GetExpression expression) {
+        writeByte(GET);
+        write(expression.getObject());
+        writeToken(expression.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(GroupingExpression expression) {
+        writeByte(GROUPING);
+        write(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(LiteralExpression expression) {
+        writeByte(LITERAL);
+        writeValue(expression.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(LogicalExpression expression) {
+        writeByte(LOGICAL);
+        write(expression.getLeft());
+        writeToken(expression.getOperator());
+        write(expression.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpression(SetExpression expression) {
+        writeByte(SET);
+        write(expression.getObject());
+        writeToken(expression.getName());
+        write(expression.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpression(SuperExpression expression) {
+        writeByte(SUPER);
+        writeToken(expression.getKeyword());
+        writeToken(expression.getMethod());
+        writeSlot(expression.getSlot());
+        writeSlot(expression.getThisSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpression(ThisExpression expression) {
+        writeByte(THIS);
+        writeToken(expression.getKeyword());
+        writeSlot(expression.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(UnaryExpression expression) {
+        writeByte(UNARY);
+        writeToken(expression.getOperator());
+        write(expression.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(VariableExpression expression) {
+        writeByte(VARIABLE);
+        writeToken(expression.getName());
+        writeSlot(expression.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(BlockStatement statement) {
+        writeByte(BLOCK);
+        writeStatements(statement.getStatements());
+        writeByte(statement.isScoped() ? VALUE_TRUE : VALUE_FALSE);
+        writeInt(statement.getFrameSize());
+        return null;
+    }
+
+    @Override
+    public Void visitClassStatement(ClassStatement statement) {
+        writeByte(CLASS);
+        writeToken(statement.getName());
+        write(statement.getSuperclass());
+        writeInt(statement.getMethods().size());
+        for (FunctionStatement method : statement.getMethods()) {
+            write(method);
+        }
+        writeSlot(statement.getSlot());
+        writeSlot(statement.getSuperSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStatement(ExpressionStatement statement) {
+        writeByte(EXPRESSION);
+        write(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(FunctionStatement statement) {
+        writeByte(FUNCTION);
+        writeToken(statement.getName());
+        writeTokens(statement.getParams());
+        writeStatements(statement.getBody());
+        writeInt(statement.getFrameSize());
+        writeSlots(statement.getParamSlots());
+        writeSlot(statement.getThisSlot());
+        writeSlots(statement.getUpvalues());
+        writeSlot(statement.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(ReturnStatement statement) {
+        writeByte(RETURN);
+        writeToken(statement.getKeyword());
+        write(statement.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(IfStatement statement) {
+        writeByte(IF);
+        write(statement.getCondition());
+        write(statement.getThenBranch());
+        write(statement.getElseBranch());
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(PrintStatement statement) {
+        writeByte(PRINT);
+        write(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(WhileStatement statement) {
+        writeByte(WHILE);
+        write(statement.getCondition());
+        write(statement.getBody());
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(VarStatement statement) {
+        writeByte(VAR);
+        writeToken(statement.getName());
+        write(statement.getInitializer());
+        writeSlot(statement.getSlot());
+        return null;
+    }
+}
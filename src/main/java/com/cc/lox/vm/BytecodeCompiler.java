@@ -0,0 +1,481 @@
+package com.cc.lox.vm;
+
+import com.cc.lox.clazz.LoxClass;
+import com.cc.lox.environment.Globals;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+import com.cc.lox.parser.expression.Expression;
+import com.cc.lox.parser.expression.ExpressionVisitor;
+import com.cc.lox.parser.expression.impl.*;
+import com.cc.lox.parser.statement.Statement;
+import com.cc.lox.parser.statement.StatementVisitor;
+import com.cc.lox.parser.statement.impl.*;
+import com.cc.lox.scanner.Token;
+import com.cc.lox.scanner.type.TokenType;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntSupplier;
+
+import static com.cc.lox.vm.OpCode.*;
+
+/**
+ * 把变量解析完成的语法树编译成字节码, 局部变量直接使用解析器分配的栈帧偏移
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class BytecodeCompiler implements ExpressionVisitor<Void>, StatementVisitor<Void> {
+
+    private static final int MAX_SHORT = 0xffff;
+
+    private final VirtualMachine vm;
+
+    private final Globals globals;
+
+    private final Chunk chunk;
+
+    /**
+     * 当前的操作数栈深度
+     */
+    private int depth = 0;
+
+    BytecodeCompiler(VirtualMachine vm, Globals globals, String name) {
+        this.vm = vm;
+        this.globals = globals;
+        this.chunk = new Chunk(name);
+    }
+
+    /**
+     * @param statements 语句
+     * @param frameSize  解析器记录的栈帧大小, 顶层代码由编译器统计;
+     *                   延迟解析的函数体遍历之后才知道, 所以在编译完之后读取
+     * @return 字节码, 结尾隐式返回 nil
+     */
+    Chunk compile(List<Statement> statements, IntSupplier frameSize) {
+        for (Statement statement : statements) {
+            statement.accept(this);
+        }
+        chunk.frameSize = Math.max(chunk.frameSize, frameSize.getAsInt());
+        emit(NIL, null);
+        emit(RETURN, null);
+        chunk.finish();
+        return chunk;
+    }
+
+    private void compile(Expression expression) {
+        expression.accept(this);
+    }
+
+    private void compile(Statement statement) {
+        statement.accept(this);
+    }
+
+    /**
+     * @param op    指令
+     * @param token 报错时使用的 token
+     */
+    private void emit(byte op, Token token) {
+        chunk.write(op, token);
+        adjust(STACK_EFFECTS[op]);
+    }
+
+    private void emitShort(int value) {
+        if (value > MAX_SHORT) {
+            throw new IllegalStateException("Too many constants or locals in '" + chunk.getName() + "'.");
+        }
+        chunk.write(value >> 8, null);
+        chunk.write(value, null);
+    }
+
+    private void emit(byte op, int operand, Token token) {
+        emit(op, token);
+        emitShort(operand);
+    }
+
+    private void adjust(int delta) {
+        depth += delta;
+        chunk.maxStack = Math.max(chunk.maxStack, depth);
+    }
+
+    /**
+     * @return 跳转距离所在的偏移, 目标确定之后回填
+     */
+    private int emitJump(byte op) {
+        emit(op, null);
+        chunk.write(0xff, null);
+        chunk.write(0xff, null);
+        return chunk.size - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk.size - offset - 2;
+        if (jump > MAX_SHORT) {
+            throw new IllegalStateException("Too much code to jump over in '" + chunk.getName() + "'.");
+        }
+        chunk.patch(offset, jump);
+    }
+
+    private void emitLoop(int start) {
+        emit(LOOP, null);
+        int offset = chunk.size - start + 2;
+        if (offset > MAX_SHORT) {
+            throw new IllegalStateException("Loop body too large in '" + chunk.getName() + "'.");
+        }
+        emitShort(offset);
+    }
+
+    private void emitConstant(Object value) {
+        emit(CONSTANT, chunk.addConstant(value), null);
+    }
+
+    /**
+     * 把变量的值压栈
+     */
+    private void load(Slot slot, Token name) {
+        if (Objects.isNull(slot)) {
+            emit(GET_GLOBAL, chunk.addConstant(globals.cell(name.getLexeme())), name);
+            return;
+        }
+        switch (slot.getType()) {
+            case LOCAL:
+                emit(GET_LOCAL, slot.getIndex(), name);
+                break;
+            case CELL:
+                emit(GET_CELL, slot.getIndex(), name);
+                break;
+            default:
+                emit(GET_UPVALUE, slot.getIndex(), name);
+        }
+    }
+
+    /**
+     * 把栈顶的值赋给已经定义的变量, 不弹出
+     */
+    private void assign(Slot slot, Token name) {
+        if (Objects.isNull(slot)) {
+            emit(SET_GLOBAL, chunk.addConstant(globals.cell(name.getLexeme())), name);
+            return;
+        }
+        switch (slot.getType()) {
+            case LOCAL:
+                emit(SET_LOCAL, slot.getIndex(), name);
+                break;
+            case CELL:
+                emit(SET_CELL, slot.getIndex(), name);
+                break;
+            default:
+                emit(SET_UPVALUE, slot.getIndex(), name);
+        }
+    }
+
+    /**
+     * 弹出栈顶的值定义一个变量
+     */
+    private void define(Slot slot, Token name) {
+        if (Objects.isNull(slot)) {
+            emit(DEFINE_GLOBAL, chunk.addConstant(globals.cell(name.getLexeme())), name);
+            return;
+        }
+        chunk.frameSize = Math.max(chunk.frameSize, slot.getIndex() + 1);
+        switch (slot.getType()) {
+            case CELL:
+                emit(DEFINE_CELL, slot.getIndex(), name);
+                break;
+            default:
+                emit(DEFINE_LOCAL, slot.getIndex(), name);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpression(AssignExpression expression) {
+        compile(expression.getValue());
+        assign(expression.getSlot(), expression.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(BinaryExpression expression) {
+        compile(expression.getLeft());
+        compile(expression.getRight());
+        Token operator = expression.getOperator();
+        switch (operator.getType()) {
+            case BANG_EQUAL:
+                emit(EQUAL, operator);
+                emit(NOT, operator);
+                break;
+            case EQUAL_EQUAL:
+                emit(EQUAL, operator);
+                break;
+            case GREATER:
+                emit(GREATER, operator);
+                break;
+            case GREATER_EQUAL:
+                emit(GREATER_EQUAL, operator);
+                break;
+            case LESS:
+                emit(LESS, operator);
+                break;
+            case LESS_EQUAL:
+                emit(LESS_EQUAL, operator);
+                break;
+            case MINUS:
+                emit(SUBTRACT, operator);
+                break;
+            case PLUS:
+                emit(ADD, operator);
+                break;
+            case SLASH:
+                emit(DIVIDE, operator);
+                break;
+            case STAR:
+                emit(MULTIPLY, operator);
+                break;
+            default:
+                throw new IllegalStateException("Unknown binaryExpression token " + operator.getType());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(CallExpression expression) {
+        if (expression.getCallee() instanceof GetExpression) {
+            // obj.name(...) 直接调用方法, 不创建绑定后的函数
+            GetExpression callee = (GetExpression) expression.getCallee();
+            compile(callee.getObject());
+            emit(GET_METHOD, callee.getSelector(), callee.getName());
+            for (Expression argument : expression.getArguments()) {
+                compile(argument);
+            }
+            emit(INVOKE, expression.getParen());
+            chunk.write(expression.getArguments().size(), null);
+            adjust(-expression.getArguments().size() - 1);
+            return null;
+        }
+        compile(expression.getCallee());
+        for (Expression argument : expression.getArguments()) {
+            compile(argument);
+        }
+        emit(CALL, expression.getParen());
+        chunk.write(expression.getArguments().size(), null);
+        adjust(-expression.getArguments().size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(GetExpression expression) {
+        compile(expression.getObject());
+        emit(GET_PROPERTY, expression.getSelector(), expression.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(GroupingExpression expression) {
+        compile(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(LiteralExpression expression) {
+        Object value = expression.getValue();
+        if (Objects.isNull(value)) {
+            emit(NIL, null);
+        } else if (Boolean.TRUE.equals(value)) {
+            emit(TRUE, null);
+        } else if (Boolean.FALSE.equals(value)) {
+            emit(FALSE, null);
+        } else {
+            emitConstant(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(LogicalExpression expression) {
+        compile(expression.getLeft());
+        if (expression.getOperator().getType() == TokenType.OR) {
+            int elseJump = emitJump(JUMP_IF_FALSE);
+            int endJump = emitJump(JUMP);
+            patchJump(elseJump);
+            emit(POP, null);
+            compile(expression.getRight());
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(JUMP_IF_FALSE);
+            emit(POP, null);
+            compile(expression.getRight());
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpression(SetExpression expression) {
+        compile(expression.getObject());
+        // 和解释器一样, 先检查对象再对值求值
+        emit(CHECK_INSTANCE, expression.getName());
+        compile(expression.getValue());
+        emit(SET_PROPERTY, expression.getSelector(), expression.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpression(SuperExpression expression) {
+        load(expression.getThisSlot(), expression.getKeyword());
+        load(expression.getSlot(), expression.getKeyword());
+        emit(GET_SUPER, expression.getSelector(), expression.getMethod());
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpression(ThisExpression expression) {
+        load(expression.getSlot(), expression.getKeyword());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(UnaryExpression expression) {
+        compile(expression.getRight());
+        Token operator = expression.getOperator();
+        switch (operator.getType()) {
+            case MINUS:
+                emit(NEGATE, operator);
+                break;
+            case BANG:
+                emit(NOT, operator);
+                break;
+            default:
+                throw new IllegalStateException("Unknown unaryExpression token " + operator.getType());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(VariableExpression expression) {
+        load(expression.getSlot(), expression.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(BlockStatement statement) {
+        for (Statement inner : statement.getStatements()) {
+            compile(inner);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStatement(ClassStatement statement) {
+        Token name = statement.getName();
+        boolean hasSuperclass = Objects.nonNull(statement.getSuperclass());
+        if (hasSuperclass) {
+            compile(statement.getSuperclass());
+            emit(CHECK_SUPERCLASS, statement.getSuperclass().getName());
+        }
+        emit(NIL, null);
+        define(statement.getSlot(), name);
+        if (hasSuperclass) {
+            emit(DUP, null);
+            define(statement.getSuperSlot(), name);
+        }
+        for (FunctionStatement method : statement.getMethods()) {
+            closure(method, method.getName().getLexeme().equals(LoxClass.INIT));
+        }
+        emit(CLASS, chunk.addConstant(name.getLexeme()), name);
+        emitShort(statement.getMethods().size());
+        chunk.write(hasSuperclass ? 1 : 0, null);
+        adjust(1 - statement.getMethods().size() - (hasSuperclass ? 1 : 0));
+        assign(statement.getSlot(), name);
+        emit(POP, null);
+        return null;
+    }
+
+    private void closure(FunctionStatement function, boolean initializer) {
+        emit(CLOSURE, chunk.addConstant(new FunctionProto(vm, function, initializer)), function.getName());
+    }
+
+    @Override
+    public Void visitExpressionStatement(ExpressionStatement statement) {
+        compile(statement.getExpression());
+        emit(POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(FunctionStatement statement) {
+        Slot slot = statement.getSlot();
+        if (Objects.isNull(slot) || slot.getType() != SlotType.CELL) {
+            closure(statement, false);
+            define(slot, statement.getName());
+            return null;
+        }
+        // 引用自己的局部函数: 和类一样先创建 cell, CLOSURE 捕获它之后再写入
+        emit(NIL, null);
+        define(slot, statement.getName());
+        closure(statement, false);
+        assign(slot, statement.getName());
+        emit(POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(ReturnStatement statement) {
+        if (Objects.isNull(statement.getValue())) {
+            emit(NIL, null);
+        } else {
+            compile(statement.getValue());
+        }
+        emit(RETURN, statement.getKeyword());
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(IfStatement statement) {
+        compile(statement.getCondition());
+        int thenJump = emitJump(JUMP_IF_FALSE);
+        emit(POP, null);
+        compile(statement.getThenBranch());
+        int elseJump = emitJump(JUMP);
+        patchJump(thenJump);
+        // 跳到这里时条件还在栈上
+        adjust(1);
+        emit(POP, null);
+        if (Objects.nonNull(statement.getElseBranch())) {
+            compile(statement.getElseBranch());
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(PrintStatement statement) {
+        compile(statement.getExpression());
+        emit(PRINT, null);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(WhileStatement statement) {
+        int loopStart = chunk.size;
+        compile(statement.getCondition());
+        int exitJump = emitJump(JUMP_IF_FALSE);
+        emit(POP, null);
+        compile(statement.getBody());
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        adjust(1);
+        emit(POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(VarStatement statement) {
+        if (Objects.isNull(statement.getInitializer())) {
+            emit(NIL, null);
+        } else {
+            compile(statement.getInitializer());
+        }
+        define(statement.getSlot(), statement.getName());
+        return null;
+    }
+}
@@ -0,0 +1,40 @@
+package com.cc.lox.vm;
+
+import com.cc.lox.clazz.LoxInstance;
+import com.cc.lox.environment.Cell;
+
+/**
+ * 虚拟机调用栈上的一个栈帧, 对象在调用栈数组里复用
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class CallFrame {
+
+    Chunk chunk;
+
+    /**
+     * 调用其他函数时保存的下一条指令
+     */
+    int ip;
+
+    /**
+     * 栈帧在值栈上开始的位置
+     */
+    int fp;
+
+    /**
+     * 当前闭包捕获的变量
+     */
+    Cell[] upvalues;
+
+    /**
+     * 返回值写到值栈的这个位置, 也就是被调用者原来所在的位置
+     */
+    int slot;
+
+    /**
+     * 初始化方法不管 return 什么都返回 this, 其他函数为 null
+     */
+    LoxInstance initializer;
+}
@@ -0,0 +1,115 @@
+package com.cc.lox.vm;
+
+import com.cc.lox.scanner.Token;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一段编译好的字节码: 紧凑的指令流、常量池, 以及报错时使用的 token
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class Chunk {
+
+    /**
+     * 块名, 用于反汇编
+     */
+    @Getter
+    private final String name;
+
+    byte[] code = new byte[64];
+
+    /**
+     * 指令偏移 -> 报错时使用的 token, 不在指令流里, 只有出错时才读
+     */
+    Token[] tokens = new Token[64];
+
+    Object[] constants;
+
+    /**
+     * 指令流的长度
+     */
+    int size = 0;
+
+    /**
+     * 局部变量占用的栈帧大小
+     */
+    int frameSize;
+
+    /**
+     * 局部变量之上操作数栈的最大深度
+     */
+    int maxStack;
+
+    private final List<Object> pool = new ArrayList<>();
+
+    /**
+     * 数字和字符串常量去重
+     */
+    private final Map<Object, Integer> literals = new HashMap<>();
+
+    Chunk(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param b     字节
+     * @param token 指令对应的 token, 操作数传 null
+     */
+    void write(int b, Token token) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            tokens = Arrays.copyOf(tokens, size * 2);
+        }
+        tokens[size] = token;
+        code[size++] = (byte) b;
+    }
+
+    /**
+     * @param offset 偏移
+     * @param value  u16
+     */
+    void patch(int offset, int value) {
+        code[offset] = (byte) (value >> 8);
+        code[offset + 1] = (byte) value;
+    }
+
+    /**
+     * @param offset 偏移
+     * @return u16
+     */
+    int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    /**
+     * @param value 常量
+     * @return 常量池下标
+     */
+    int addConstant(Object value) {
+        boolean literal = value instanceof Double || value instanceof String;
+        if (literal && literals.containsKey(value)) {
+            return literals.get(value);
+        }
+        pool.add(value);
+        if (literal) {
+            literals.put(value, pool.size() - 1);
+        }
+        return pool.size() - 1;
+    }
+
+    /**
+     * 编译完成, 常量池转成数组
+     */
+    void finish() {
+        constants = pool.toArray();
+        code = Arrays.copyOf(code, size);
+        tokens = Arrays.copyOf(tokens, size);
+    }
+}
@@ -0,0 +1,108 @@
+package com.cc.lox.vm;
+
+import com.cc.lox.environment.GlobalCell;
+import com.cc.lox.scanner.Token;
+
+import java.util.Objects;
+
+import static com.cc.lox.vm.OpCode.*;
+
+/**
+ * 把字节码还原成可读的指令列表, 用于调试编译器
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public final class Disassembler {
+
+    private Disassembler() {
+    }
+
+    /**
+     * 每行一条指令: 偏移、行号、操作码、操作数
+     *
+     * @param chunk 字节码
+     * @return 反汇编结果
+     */
+    public static String disassemble(Chunk chunk) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("== ").append(chunk.getName()).append(" ==\n");
+        int line = -1;
+        for (int offset = 0; offset < chunk.code.length; ) {
+            Token token = chunk.tokens[offset];
+            offset = instruction(chunk, offset, line, builder);
+            if (Objects.nonNull(token)) {
+                line = token.getLine();
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return 下一条指令的偏移
+     */
+    private static int instruction(Chunk chunk, int offset, int previousLine, StringBuilder builder) {
+        byte op = chunk.code[offset];
+        Token token = chunk.tokens[offset];
+        builder.append(String.format("%04d ", offset));
+        if (Objects.isNull(token) || token.getLine() == previousLine) {
+            builder.append("   | ");
+        } else {
+            builder.append(String.format("%4d ", token.getLine()));
+        }
+        builder.append(String.format("%-16s", NAMES[op]));
+        int operand = offset + 1;
+        switch (op) {
+            case CONSTANT:
+            case CLOSURE:
+                builder.append(String.format("%4d '%s'", chunk.readShort(operand), chunk.constants[chunk.readShort(operand)]));
+                break;
+            case GET_GLOBAL:
+            case SET_GLOBAL:
+            case DEFINE_GLOBAL: {
+                Object cell = chunk.constants[chunk.readShort(operand)];
+                String name = cell instanceof GlobalCell && Objects.nonNull(token) ? token.getLexeme() : String.valueOf(cell);
+                builder.append(String.format("%4d '%s'", chunk.readShort(operand), name));
+                break;
+            }
+            case GET_LOCAL:
+            case SET_LOCAL:
+            case DEFINE_LOCAL:
+            case GET_CELL:
+            case SET_CELL:
+            case DEFINE_CELL:
+            case GET_UPVALUE:
+            case SET_UPVALUE:
+                builder.append(String.format("%4d", chunk.readShort(operand)));
+                break;
+            case GET_PROPERTY:
+            case SET_PROPERTY:
+            case GET_SUPER:
+            case GET_METHOD:
+                builder.append(String.format("%4d '%s'", chunk.readShort(operand), token.getLexeme()));
+                break;
+            case CHECK_INSTANCE:
+                builder.append(String.format("     '%s'", token.getLexeme()));
+                break;
+            case JUMP:
+            case JUMP_IF_FALSE:
+                builder.append(String.format("%4d -> %d", offset, operand + 2 + chunk.readShort(operand)));
+                break;
+            case LOOP:
+                builder.append(String.format("%4d -> %d", offset, operand + 2 - chunk.readShort(operand)));
+                break;
+            case CALL:
+            case INVOKE:
+                builder.append(String.format("%4d", chunk.code[operand] & 0xff));
+                break;
+            case CLASS:
+                builder.append(String.format("%4d '%s' methods=%d super=%b", chunk.readShort(operand),
+                        chunk.constants[chunk.readShort(operand)], chunk.readShort(operand + 2), chunk.code[operand + 4] != 0));
+                break;
+            default:
+                break;
+        }
+        builder.append('\n');
+        return operand + OPERAND_BYTES[op];
+    }
+}
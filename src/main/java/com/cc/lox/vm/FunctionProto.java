@@ -0,0 +1,92 @@
+package com.cc.lox.vm;
+
+import com.cc.lox.environment.Cell;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+import com.cc.lox.parser.statement.impl.FunctionStatement;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 函数原型, 放在常量池里; 同一个声明创建的所有闭包共享一份字节码
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class FunctionProto {
+
+    private final VirtualMachine vm;
+
+    @Getter
+    private final FunctionStatement declaration;
+
+    @Getter
+    private final boolean initializer;
+
+    /**
+     * 捕获的变量是否来自外层闭包, 否则来自外层栈帧
+     */
+    private final boolean[] fromUpvalue;
+
+    /**
+     * 捕获的变量在外层闭包或者外层栈帧中的下标
+     */
+    private final int[] indexes;
+
+    /**
+     * 函数体的字节码, 第一次调用时才编译
+     */
+    private Chunk chunk;
+
+    FunctionProto(VirtualMachine vm, FunctionStatement declaration, boolean initializer) {
+        this.vm = vm;
+        this.declaration = declaration;
+        this.initializer = initializer;
+        List<Slot> upvalues = declaration.getUpvalues();
+        this.fromUpvalue = new boolean[upvalues.size()];
+        this.indexes = new int[upvalues.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            fromUpvalue[i] = upvalues.get(i).getType() == SlotType.UPVALUE;
+            indexes[i] = upvalues.get(i).getIndex();
+        }
+    }
+
+    VirtualMachine vm() {
+        return vm;
+    }
+
+    /**
+     * 在定义函数的栈帧里创建闭包
+     *
+     * @param stack    值栈
+     * @param fp       外层栈帧的开始位置
+     * @param upvalues 外层闭包捕获的变量
+     * @return 闭包
+     */
+    VmFunction closure(Object[] stack, int fp, Cell[] upvalues) {
+        Cell[] cells = new Cell[indexes.length];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = fromUpvalue[i] ? upvalues[indexes[i]] : (Cell) stack[fp + indexes[i]];
+        }
+        return new VmFunction(this, cells, null);
+    }
+
+    /**
+     * 延迟解析的函数体这时才被解析
+     *
+     * @return 函数体的字节码
+     */
+    Chunk chunk() {
+        if (Objects.isNull(chunk)) {
+            chunk = vm.compile(declaration.getBody(), declaration::getFrameSize, declaration.getName().getLexeme());
+        }
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.getName().getLexeme() + ">";
+    }
+}
@@ -0,0 +1,160 @@
+package com.cc.lox.vm;
+
+/**
+ * 字节码指令, 操作数紧跟在指令后面, 16 位操作数高位在前
+ * <p>
+ * 可能出错的指令不带 token 操作数, 报错用的 token 记在 {@link Chunk} 里和指令同一个偏移的位置
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+final class OpCode {
+
+    /**
+     * 常量池下标(u16) -> 常量
+     */
+    static final byte CONSTANT = 0;
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte DUP = 5;
+
+    /**
+     * 栈帧偏移(u16), 没有被捕获的局部变量
+     */
+    static final byte GET_LOCAL = 6;
+    static final byte SET_LOCAL = 7;
+    static final byte DEFINE_LOCAL = 8;
+
+    /**
+     * 栈帧偏移(u16), 被捕获的局部变量, 栈帧里存放 cell
+     */
+    static final byte GET_CELL = 9;
+    static final byte SET_CELL = 10;
+    static final byte DEFINE_CELL = 11;
+
+    /**
+     * 捕获列表下标(u16)
+     */
+    static final byte GET_UPVALUE = 12;
+    static final byte SET_UPVALUE = 13;
+
+    /**
+     * 常量池中全局变量单元的下标(u16)
+     */
+    static final byte GET_GLOBAL = 14;
+    static final byte SET_GLOBAL = 15;
+    static final byte DEFINE_GLOBAL = 16;
+
+    /**
+     * 属性名是指令对应的 token, GET_PROPERTY、SET_PROPERTY 和 GET_SUPER 带属性名的选择子(u16)
+     */
+    static final byte GET_PROPERTY = 17;
+    static final byte CHECK_INSTANCE = 18;
+    static final byte SET_PROPERTY = 19;
+    static final byte GET_SUPER = 20;
+
+    static final byte EQUAL = 21;
+    static final byte GREATER = 22;
+    static final byte GREATER_EQUAL = 23;
+    static final byte LESS = 24;
+    static final byte LESS_EQUAL = 25;
+    static final byte ADD = 26;
+    static final byte SUBTRACT = 27;
+    static final byte MULTIPLY = 28;
+    static final byte DIVIDE = 29;
+    static final byte NOT = 30;
+    static final byte NEGATE = 31;
+    static final byte PRINT = 32;
+
+    /**
+     * 向前跳转的距离(u16)
+     */
+    static final byte JUMP = 33;
+
+    /**
+     * 栈顶为假时向前跳转的距离(u16), 不弹出栈顶
+     */
+    static final byte JUMP_IF_FALSE = 34;
+
+    /**
+     * 向后跳转的距离(u16)
+     */
+    static final byte LOOP = 35;
+
+    /**
+     * 参数个数(u8)
+     */
+    static final byte CALL = 36;
+
+    /**
+     * 常量池中函数原型的下标(u16)
+     */
+    static final byte CLOSURE = 37;
+
+    /**
+     * 类名常量下标(u16), 方法个数(u16), 是否有父类(u8)
+     */
+    static final byte CLASS = 38;
+    static final byte CHECK_SUPERCLASS = 39;
+    static final byte RETURN = 40;
+
+    /**
+     * 属性名的选择子(u16); 对象有这个方法时压入 [方法, 对象], 否则压入 [null, 属性值], 不创建绑定后的函数
+     */
+    static final byte GET_METHOD = 41;
+
+    /**
+     * 参数个数(u8), 调用 GET_METHOD 取出的方法或属性值
+     */
+    static final byte INVOKE = 42;
+
+    static final String[] NAMES = {
+            "CONSTANT", "NIL", "TRUE", "FALSE", "POP", "DUP",
+            "GET_LOCAL", "SET_LOCAL", "DEFINE_LOCAL",
+            "GET_CELL", "SET_CELL", "DEFINE_CELL",
+            "GET_UPVALUE", "SET_UPVALUE",
+            "GET_GLOBAL", "SET_GLOBAL", "DEFINE_GLOBAL",
+            "GET_PROPERTY", "CHECK_INSTANCE", "SET_PROPERTY", "GET_SUPER",
+            "EQUAL", "GREATER", "GREATER_EQUAL", "LESS", "LESS_EQUAL",
+            "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "NOT", "NEGATE", "PRINT",
+            "JUMP", "JUMP_IF_FALSE", "LOOP", "CALL", "CLOSURE", "CLASS", "CHECK_SUPERCLASS", "RETURN",
+            "GET_METHOD", "INVOKE"
+    };
+
+    /**
+     * 固定的栈深度变化, CALL 和 CLASS 的变化取决于操作数, 由编译器另外计算
+     */
+    static final int[] STACK_EFFECTS = {
+            1, 1, 1, 1, -1, 1,
+            1, 0, -1,
+            1, 0, -1,
+            1, 0,
+            1, 0, -1,
+            0, 0, -1, -1,
+            -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, 0, 0, -1,
+            0, 0, 0, 0, 1, 0, 0, -1,
+            1, 0
+    };
+
+    /**
+     * 操作数的字节数
+     */
+    static final int[] OPERAND_BYTES = {
+            2, 0, 0, 0, 0, 0,
+            2, 2, 2,
+            2, 2, 2,
+            2, 2,
+            2, 2, 2,
+            2, 0, 2, 2,
+            0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0,
+            2, 2, 2, 1, 2, 5, 0, 0,
+            2, 1
+    };
+
+    private OpCode() {
+    }
+}
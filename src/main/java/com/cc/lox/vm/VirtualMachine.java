@@ -0,0 +1,549 @@
+package com.cc.lox.vm;
+
+import com.cc.lox.Lox;
+import com.cc.lox.clazz.LoxClass;
+import com.cc.lox.clazz.LoxInstance;
+import com.cc.lox.clazz.Selector;
+import com.cc.lox.environment.Cell;
+import com.cc.lox.environment.GlobalCell;
+import com.cc.lox.environment.Globals;
+import com.cc.lox.environment.Slot;
+import com.cc.lox.environment.SlotType;
+import com.cc.lox.error.RuntimeError;
+import com.cc.lox.function.LoxCallable;
+import com.cc.lox.function.impl.ClockFunction;
+import com.cc.lox.function.impl.LoxFunction;
+import com.cc.lox.interpreter.Engine;
+import com.cc.lox.parser.statement.Statement;
+import com.cc.lox.parser.statement.impl.FunctionStatement;
+import com.cc.lox.scanner.Token;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntSupplier;
+
+import static com.cc.lox.interpreter.Values.*;
+import static com.cc.lox.vm.OpCode.*;
+
+/**
+ * 基于栈的字节码虚拟机
+ * <p>
+ * 所有栈帧共用一个值栈, 每个栈帧先是解析器分配的局部变量, 之上是操作数栈;
+ * 调用时参数已经按顺序压在栈上, 正好就是被调用函数最前面的局部变量。
+ * 调用和返回只是在调用栈数组上压入或者弹出栈帧, 同一个分派循环接着执行, 不会递归
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+public class VirtualMachine implements Engine {
+
+    private static final int INITIAL_STACK_SIZE = 1024;
+
+    private static final int INITIAL_FRAMES = 64;
+
+    /**
+     * 调用栈的最大深度, 超过时报告栈溢出
+     */
+    private static final int MAX_FRAMES = 1 << 16;
+
+    private final Globals globals = new Globals();
+
+    private final StringBuilder print = new StringBuilder();
+
+    /**
+     * 编译时是否打印反汇编结果
+     */
+    private final boolean disassemble;
+
+    private Object[] stack = new Object[INITIAL_STACK_SIZE];
+
+    /**
+     * 当前使用到的栈顶, 只在切换栈帧和调用其他函数之前更新
+     */
+    private int sp = 0;
+
+    /**
+     * 调用栈, 分派循环在这些栈帧之间切换, 不占用 Java 的调用栈
+     */
+    private CallFrame[] frames = new CallFrame[INITIAL_FRAMES];
+
+    private int frameCount = 0;
+
+    public VirtualMachine() {
+        this(false);
+    }
+
+    /**
+     * @param disassemble 编译时是否打印反汇编结果
+     */
+    public VirtualMachine(boolean disassemble) {
+        this.disassemble = disassemble;
+        globals.define(ClockFunction.NAME, new ClockFunction());
+    }
+
+    @Override
+    public void interpret(List<Statement> statements) {
+        sp = 0;
+        frameCount = 0;
+        try {
+            Chunk chunk = compile(statements, () -> 0, "script");
+            ensure(chunk.frameSize + chunk.maxStack);
+            push(chunk, 0, null, -1, null);
+            run(0);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } finally {
+            Arrays.fill(stack, null);
+            sp = 0;
+            frameCount = 0;
+        }
+    }
+
+    @Override
+    public String getPrint() {
+        return print.toString();
+    }
+
+    /**
+     * @param statements 语句
+     * @param frameSize  解析器记录的栈帧大小
+     * @param name       块名
+     * @return 字节码
+     */
+    Chunk compile(List<Statement> statements, IntSupplier frameSize, String name) {
+        Chunk chunk = new BytecodeCompiler(this, globals, name).compile(statements, frameSize);
+        if (disassemble) {
+            System.out.print(Disassembler.disassemble(chunk));
+        }
+        return chunk;
+    }
+
+    /**
+     * 从虚拟机外面调用一个闭包, 参数压在当前栈顶之上, 在新的分派循环里执行到它返回
+     *
+     * @param function  闭包
+     * @param receiver  this, 普通函数为 null
+     * @param arguments 参数
+     * @return 返回值
+     */
+    Object call(VmFunction function, LoxInstance receiver, Object[] arguments) {
+        int saved = sp;
+        int savedFrames = frameCount;
+        // 被调用者的位置, 方法的 this 会放在这里
+        int slot = sp;
+        ensure(slot + 1 + arguments.length);
+        System.arraycopy(arguments, 0, stack, slot + 1, arguments.length);
+        try {
+            push(function, receiver, slot + 1, slot, function.getDeclaration().getName());
+            return run(savedFrames);
+        } finally {
+            sp = saved;
+            frameCount = savedFrames;
+        }
+    }
+
+    /**
+     * 调用值栈上的一个值, 参数已经在 base 开始的位置, 调用之前要先更新 sp
+     * <p>
+     * 虚拟机里的闭包和构造时的初始化方法只压入新的栈帧, 由分派循环接着执行;
+     * 其他可调用对象直接调用, 返回值写到 slot, 参数出栈
+     *
+     * @param callee 被调用的值
+     * @param base   第一个参数的位置
+     * @param count  参数个数
+     * @param slot   返回值的位置
+     * @param paren  右括号, 用于报告错误
+     */
+    private void call(Object callee, int base, int count, int slot, Token paren) {
+        if (callee instanceof VmFunction) {
+            VmFunction function = (VmFunction) callee;
+            checkArity(function, count, paren);
+            push(function, function.receiver(), base, slot, paren);
+            return;
+        }
+        if (callee instanceof LoxClass) {
+            LoxClass klass = (LoxClass) callee;
+            LoxFunction initializer = klass.findMethod(Selector.INIT);
+            if (initializer instanceof VmFunction) {
+                checkArity(initializer, count, paren);
+                push((VmFunction) initializer, new LoxInstance(klass), base, slot, paren);
+                return;
+            }
+        }
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable callable = (LoxCallable) callee;
+        checkArity(callable, count, paren);
+        Object result = callable.call(null, Arrays.copyOfRange(stack, base, base + count));
+        // 被调用的对象可能让值栈变大
+        Arrays.fill(stack, slot + 1, base + count, null);
+        stack[slot] = result;
+        sp = slot + 1;
+    }
+
+    /**
+     * 为闭包压入栈帧, 参数已经在 base 开始的位置
+     *
+     * @param function 闭包
+     * @param receiver this, 普通函数为 null
+     * @param base     第一个参数的位置
+     * @param slot     返回值的位置
+     * @param token    调用的位置, 用于报告栈溢出
+     */
+    private void push(VmFunction function, LoxInstance receiver, int base, int slot, Token token) {
+        if (frameCount == MAX_FRAMES) {
+            throw new RuntimeError(token, "Stack overflow.");
+        }
+        Chunk chunk = function.proto().chunk();
+        FunctionStatement declaration = function.getDeclaration();
+        Slot thisSlot = declaration.getThisSlot();
+        // 方法的 this 在参数前面, 覆盖掉被调用者所在的位置
+        int fp = Objects.isNull(thisSlot) ? base : base - 1;
+        ensure(fp + chunk.frameSize + chunk.maxStack);
+        Object[] stack = this.stack;
+        if (Objects.nonNull(thisSlot)) {
+            stack[fp + thisSlot.getIndex()] = thisSlot.getType() == SlotType.CELL ? new Cell(receiver) : receiver;
+        }
+        for (Slot param : declaration.getParamSlots()) {
+            if (param.getType() == SlotType.CELL) {
+                stack[fp + param.getIndex()] = new Cell(stack[fp + param.getIndex()]);
+            }
+        }
+        push(chunk, fp, function.upvalues(), slot, function.proto().isInitializer() ? receiver : null);
+    }
+
+    private void push(Chunk chunk, int fp, Cell[] upvalues, int slot, LoxInstance initializer) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (Objects.isNull(frame)) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.chunk = chunk;
+        frame.ip = 0;
+        frame.fp = fp;
+        frame.upvalues = upvalues;
+        frame.slot = slot;
+        frame.initializer = initializer;
+        frameCount++;
+        sp = fp + chunk.frameSize;
+    }
+
+    private static void checkArity(LoxCallable callable, int count, Token paren) {
+        if (count != callable.getArity()) {
+            throw new RuntimeError(paren, "Expected " + callable.getArity() + " arguments but got " + count + ".");
+        }
+    }
+
+    /**
+     * 保证值栈至少到 end
+     */
+    private void ensure(int end) {
+        if (end > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(end, stack.length * 2));
+        }
+    }
+
+    /**
+     * 指令分派循环, 执行调用栈顶上的栈帧, 直到调用栈回到 base 层
+     * <p>
+     * 当前栈帧的状态放在局部变量里, 切换栈帧时保存 ip 和栈顶, 再从新的栈顶栈帧重新装载
+     *
+     * @param base 进入时调用栈的深度, 最外层的栈帧在 base 位置
+     * @return 最外层栈帧的返回值
+     */
+    private Object run(int base) {
+        execution:
+        for (; ; ) {
+            CallFrame frame = frames[frameCount - 1];
+            Chunk chunk = frame.chunk;
+            byte[] code = chunk.code;
+            Object[] constants = chunk.constants;
+            Cell[] upvalues = frame.upvalues;
+            int fp = frame.fp;
+            int ip = frame.ip;
+            Object[] stack = this.stack;
+            int sp = this.sp;
+            for (; ; ) {
+                int at = ip;
+                switch (code[ip++]) {
+                    case CONSTANT:
+                        stack[sp++] = constants[readShort(code, ip)];
+                        ip += 2;
+                        break;
+                    case NIL:
+                        stack[sp++] = null;
+                        break;
+                    case TRUE:
+                        stack[sp++] = true;
+                        break;
+                    case FALSE:
+                        stack[sp++] = false;
+                        break;
+                    case POP:
+                        stack[--sp] = null;
+                        break;
+                    case DUP:
+                        stack[sp] = stack[sp - 1];
+                        sp++;
+                        break;
+                    case GET_LOCAL:
+                        stack[sp++] = stack[fp + readShort(code, ip)];
+                        ip += 2;
+                        break;
+                    case SET_LOCAL:
+                        stack[fp + readShort(code, ip)] = stack[sp - 1];
+                        ip += 2;
+                        break;
+                    case DEFINE_LOCAL:
+                        stack[fp + readShort(code, ip)] = stack[--sp];
+                        ip += 2;
+                        break;
+                    case GET_CELL:
+                        stack[sp++] = ((Cell) stack[fp + readShort(code, ip)]).getValue();
+                        ip += 2;
+                        break;
+                    case SET_CELL:
+                        ((Cell) stack[fp + readShort(code, ip)]).setValue(stack[sp - 1]);
+                        ip += 2;
+                        break;
+                    case DEFINE_CELL:
+                        stack[fp + readShort(code, ip)] = new Cell(stack[--sp]);
+                        ip += 2;
+                        break;
+                    case GET_UPVALUE:
+                        stack[sp++] = upvalues[readShort(code, ip)].getValue();
+                        ip += 2;
+                        break;
+                    case SET_UPVALUE:
+                        upvalues[readShort(code, ip)].setValue(stack[sp - 1]);
+                        ip += 2;
+                        break;
+                    case GET_GLOBAL:
+                        stack[sp++] = ((GlobalCell) constants[readShort(code, ip)]).get(chunk.tokens[at]);
+                        ip += 2;
+                        break;
+                    case SET_GLOBAL:
+                        ((GlobalCell) constants[readShort(code, ip)]).assign(chunk.tokens[at], stack[sp - 1]);
+                        ip += 2;
+                        break;
+                    case DEFINE_GLOBAL:
+                        ((GlobalCell) constants[readShort(code, ip)]).define(stack[--sp]);
+                        ip += 2;
+                        break;
+                    case GET_PROPERTY: {
+                        Object object = stack[sp - 1];
+                        if (!(object instanceof LoxInstance)) {
+                            throw new RuntimeError(chunk.tokens[at], "Only instances have properties.");
+                        }
+                        stack[sp - 1] = ((LoxInstance) object).get(chunk.tokens[at], readShort(code, ip));
+                        ip += 2;
+                        break;
+                    }
+                    case CHECK_INSTANCE:
+                        if (!(stack[sp - 1] instanceof LoxInstance)) {
+                            throw new RuntimeError(chunk.tokens[at], "Only instances have fields.");
+                        }
+                        break;
+                    case SET_PROPERTY: {
+                        Object value = stack[--sp];
+                        ((LoxInstance) stack[sp - 1]).set(readShort(code, ip), value);
+                        stack[sp - 1] = value;
+                        ip += 2;
+                        break;
+                    }
+                    case GET_SUPER: {
+                        Token method = chunk.tokens[at];
+                        LoxClass superclass = (LoxClass) stack[--sp];
+                        LoxFunction function = superclass.findMethod(readShort(code, ip));
+                        if (Objects.isNull(function)) {
+                            throw new RuntimeError(method, "Undefined property '" + method.getLexeme() + "'.");
+                        }
+                        stack[sp - 1] = function.bind((LoxInstance) stack[sp - 1]);
+                        ip += 2;
+                        break;
+                    }
+                    case EQUAL: {
+                        Object right = stack[--sp];
+                        stack[sp - 1] = isEqual(stack[sp - 1], right);
+                        break;
+                    }
+                    case GREATER: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        checkNumberOperands(chunk.tokens[at], left, right);
+                        stack[sp - 1] = (double) left > (double) right;
+                        break;
+                    }
+                    case GREATER_EQUAL: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        checkNumberOperands(chunk.tokens[at], left, right);
+                        stack[sp - 1] = (double) left >= (double) right;
+                        break;
+                    }
+                    case LESS: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        checkNumberOperands(chunk.tokens[at], left, right);
+                        stack[sp - 1] = (double) left < (double) right;
+                        break;
+                    }
+                    case LESS_EQUAL: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        checkNumberOperands(chunk.tokens[at], left, right);
+                        stack[sp - 1] = (double) left <= (double) right;
+                        break;
+                    }
+                    case ADD: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp - 1] = (double) left + (double) right;
+                        } else if (left instanceof String && right instanceof String) {
+                            stack[sp - 1] = left + (String) right;
+                        } else {
+                            throw new RuntimeError(chunk.tokens[at], "Operands must be two numbers or two strings.");
+                        }
+                        break;
+                    }
+                    case SUBTRACT: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        checkNumberOperands(chunk.tokens[at], left, right);
+                        stack[sp - 1] = (double) left - (double) right;
+                        break;
+                    }
+                    case MULTIPLY: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        checkNumberOperands(chunk.tokens[at], left, right);
+                        stack[sp - 1] = (double) left * (double) right;
+                        break;
+                    }
+                    case DIVIDE: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        checkNumberOperands(chunk.tokens[at], left, right);
+                        stack[sp - 1] = (double) left / (double) right;
+                        break;
+                    }
+                    case NOT:
+                        stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                        break;
+                    case NEGATE:
+                        checkNumberOperand(chunk.tokens[at], stack[sp - 1]);
+                        stack[sp - 1] = -(double) stack[sp - 1];
+                        break;
+                    case PRINT: {
+                        String out = stringify(stack[--sp]);
+                        System.out.println(out);
+                        print.append(out);
+                        break;
+                    }
+                    case JUMP:
+                        ip += readShort(code, ip) + 2;
+                        break;
+                    case JUMP_IF_FALSE:
+                        ip += isTruthy(stack[sp - 1]) ? 2 : readShort(code, ip) + 2;
+                        break;
+                    case LOOP:
+                        ip -= readShort(code, ip) - 2;
+                        break;
+                    case CALL: {
+                        int count = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        this.sp = sp;
+                        call(stack[sp - count - 1], sp - count, count, sp - count - 1, chunk.tokens[at]);
+                        continue execution;
+                    }
+                    case GET_METHOD: {
+                        Object object = stack[sp - 1];
+                        if (!(object instanceof LoxInstance)) {
+                            throw new RuntimeError(chunk.tokens[at], "Only instances have properties.");
+                        }
+                        LoxInstance instance = (LoxInstance) object;
+                        int selector = readShort(code, ip);
+                        ip += 2;
+                        LoxFunction method = instance.getMethod(chunk.tokens[at], selector);
+                        if (Objects.nonNull(method)) {
+                            stack[sp - 1] = method;
+                            stack[sp++] = instance;
+                        } else {
+                            stack[sp - 1] = null;
+                            stack[sp++] = instance.get(chunk.tokens[at], selector);
+                        }
+                        break;
+                    }
+                    case INVOKE: {
+                        int count = code[ip++] & 0xff;
+                        Object method = stack[sp - count - 2];
+                        frame.ip = ip;
+                        this.sp = sp;
+                        if (Objects.isNull(method)) {
+                            call(stack[sp - count - 1], sp - count, count, sp - count - 2, chunk.tokens[at]);
+                        } else {
+                            // 虚拟机里类的方法都是 VmFunction, 对象就在 this 的位置上
+                            VmFunction function = (VmFunction) method;
+                            checkArity(function, count, chunk.tokens[at]);
+                            push(function, (LoxInstance) stack[sp - count - 1], sp - count, sp - count - 2, chunk.tokens[at]);
+                        }
+                        continue execution;
+                    }
+                    case CLOSURE:
+                        stack[sp++] = ((FunctionProto) constants[readShort(code, ip)]).closure(stack, fp, upvalues);
+                        ip += 2;
+                        break;
+                    case CLASS: {
+                        String name = (String) constants[readShort(code, ip)];
+                        int count = readShort(code, ip + 2);
+                        boolean hasSuperclass = code[ip + 4] != 0;
+                        ip += 5;
+                        Map<String, LoxFunction> methods = new HashMap<>();
+                        for (int i = sp - count; i < sp; i++) {
+                            VmFunction method = (VmFunction) stack[i];
+                            methods.put(method.getDeclaration().getName().getLexeme(), method);
+                            stack[i] = null;
+                        }
+                        sp -= count;
+                        LoxClass superclass = hasSuperclass ? (LoxClass) stack[--sp] : null;
+                        stack[sp++] = new LoxClass(name, superclass, methods);
+                        break;
+                    }
+                    case CHECK_SUPERCLASS:
+                        if (!(stack[sp - 1] instanceof LoxClass)) {
+                            throw new RuntimeError(chunk.tokens[at], "Superclass must be a class.");
+                        }
+                        break;
+                    case RETURN: {
+                        Object result = Objects.isNull(frame.initializer) ? stack[--sp] : frame.initializer;
+                        // 不让已经返回的栈帧继续引用对象
+                        Arrays.fill(stack, Math.max(frame.slot, 0), fp + chunk.frameSize + chunk.maxStack, null);
+                        frame.upvalues = null;
+                        frame.initializer = null;
+                        frameCount--;
+                        if (frameCount == base) {
+                            return result;
+                        }
+                        stack[frame.slot] = result;
+                        this.sp = frame.slot + 1;
+                        continue execution;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + code[at] + " at " + at + " in '" + chunk.getName() + "'.");
+                }
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+}
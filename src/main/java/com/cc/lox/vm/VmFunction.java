@@ -0,0 +1,55 @@
+package com.cc.lox.vm;
+
+import com.cc.lox.clazz.LoxInstance;
+import com.cc.lox.environment.Cell;
+import com.cc.lox.function.impl.LoxFunction;
+import com.cc.lox.interpreter.LoxInterpreter;
+
+import java.util.Arrays;
+
+/**
+ * 虚拟机里的闭包
+ *
+ * @author cc
+ * @date 2023/10/26
+ */
+class VmFunction extends LoxFunction {
+
+    private final FunctionProto proto;
+
+    VmFunction(FunctionProto proto, Cell[] upvalues, LoxInstance receiver) {
+        super(proto.getDeclaration(), upvalues, proto.isInitializer(), receiver);
+        this.proto = proto;
+    }
+
+    FunctionProto proto() {
+        return proto;
+    }
+
+    Cell[] upvalues() {
+        return getUpvalues();
+    }
+
+    LoxInstance receiver() {
+        return getReceiver();
+    }
+
+    /**
+     * 从虚拟机外面调用, 比如类的构造
+     */
+    @Override
+    public Object invoke(LoxInterpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        return proto.vm().call(this, receiver, arguments);
+    }
+
+    @Override
+    public Object invoke(LoxInterpreter interpreter, LoxInstance receiver, int count, Object a0, Object a1, Object a2, Object a3) {
+        // 参数总要复制到虚拟机的值栈上, 这里不省数组
+        return invoke(interpreter, receiver, Arrays.copyOf(new Object[]{a0, a1, a2, a3}, count));
+    }
+
+    @Override
+    public LoxFunction bind(LoxInstance loxInstance) {
+        return new VmFunction(proto, getUpvalues(), loxInstance);
+    }
+}
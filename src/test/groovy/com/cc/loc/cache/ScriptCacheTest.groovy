@@ -0,0 +1,44 @@
+package com.cc.loc.cache
+
+import com.cc.lox.cache.CompiledScript
+import com.cc.lox.cache.ScriptCache
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+/**
+ * @author cc
+ * @date 2023/10/24
+ */
+class ScriptCacheTest extends Specification {
+
+    def "test key is content addressed"() {
+        expect:
+        ScriptCache.key("print 1;") == ScriptCache.key(ByteBuffer.wrap("print 1;".getBytes(StandardCharsets.UTF_8)))
+        ScriptCache.key("print 1;") != ScriptCache.key("print 2;")
+    }
+
+    def "test least recently used script is evicted"() {
+        given:
+        def cache = new ScriptCache(100)
+        def a = new CompiledScript([], 40)
+        def b = new CompiledScript([], 40)
+        def c = new CompiledScript([], 40)
+
+        when:
+        cache.put("a", a)
+        cache.put("b", b)
+        cache.get("a")
+        cache.put("c", c)
+        cache.put("huge", new CompiledScript([], 101))
+
+        then:
+        cache.get("a").is(a)
+        cache.get("b") == null
+        cache.get("c").is(c)
+        cache.get("huge") == null
+        cache.size() == 2
+        cache.getWeight() == 80
+    }
+}
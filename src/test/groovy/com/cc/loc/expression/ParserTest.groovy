@@ -3,6 +3,7 @@ package com.cc.loc.expression
 import com.cc.lox.parser.Parser
 import com.cc.lox.parser.printer.ExpressionPrinter
 import com.cc.lox.scanner.Scanner
+import com.cc.lox.scanner.source.impl.ScannerTokenSource
 import spock.lang.Specification
 
 
@@ -19,12 +20,34 @@ class ParserTest extends Specification {
         when:
         Parser parser = new Parser(scanner.scanTokens())
 
+        def expression = parser.parseExpression()
+        def res = expression == null ? null : new ExpressionPrinter().print(expression)
+        then:
+        res == result
+
+        where:
+        source                        | result
+        """1==1"""                    | """(== 1.0 1.0)"""
+        """1 - 2 - 3 * 4 / 5"""       | """(- (- 1.0 2.0) (/ (* 3.0 4.0) 5.0))"""
+        """!a == b < c or d and e"""  | """(OR (== (! (a)) (< (b) (c))) (AND (d) (e)))"""
+        """a = b.c = -f(1, g)(2).h""" | """(a (c (b) (- (h (call (call (f) 1.0 (g)) 2.0)))))"""
+        """1 + 2 = 3"""               | null
+    }
+
+    def "test parser pulls tokens on demand"() {
+        given:
+        Scanner scanner = new Scanner(source)
+
+        when:
+        Parser parser = new Parser(new ScannerTokenSource(scanner))
+
         def res = new ExpressionPrinter().print(parser.parseExpression())
         then:
         res == result
 
         where:
-        source     | result
-        """1==1""" | """(== 1.0 1.0)"""
+        source            | result
+        """1==1"""        | """(== 1.0 1.0)"""
+        """-a * (b + 2)""" | """(* (- (a)) (group (+ (b) 2.0)))"""
     }
 }
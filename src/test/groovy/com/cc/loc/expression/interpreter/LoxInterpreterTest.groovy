@@ -1,10 +1,19 @@
 package com.cc.loc.expression.interpreter
 
+import com.cc.lox.Lox
+import com.cc.lox.clazz.Selector
+import com.cc.lox.closure.ClosureEngine
 import com.cc.lox.resolve.Resolver
 import com.cc.lox.interpreter.LoxInterpreter
 import com.cc.lox.parser.Parser
 import com.cc.lox.parser.statement.Statement
+import com.cc.lox.parser.statement.impl.BlockStatement
+import com.cc.lox.parser.statement.impl.WhileStatement
 import com.cc.lox.scanner.Scanner
+import com.cc.lox.scanner.source.CharSource
+import com.cc.lox.scanner.source.impl.BufferTokenSource
+import com.cc.lox.scanner.source.impl.ScannerTokenSource
+import com.cc.lox.vm.VirtualMachine
 import spock.lang.Specification
 
 
@@ -22,13 +31,22 @@ class LoxInterpreterTest extends Specification {
 
         when:
         LoxInterpreter interpreter = new LoxInterpreter()
-        Resolver resolver = new Resolver(interpreter)
+        Resolver resolver = new Resolver()
         resolver.resolve(statements)
         interpreter.interpret(statements)
         def res = interpreter.getPrint()
+        ClosureEngine closure = new ClosureEngine()
+        closure.interpret(statements)
+        VirtualMachine vm = new VirtualMachine()
+        vm.interpret(statements)
+        LoxInterpreter jit = new LoxInterpreter(1)
+        jit.interpret(statements)
 
         then:
         res == result
+        closure.getPrint() == result
+        vm.getPrint() == result
+        jit.getPrint() == result
 
         where:
         source                                                    | result
@@ -133,6 +151,729 @@ class LoxInterpreterTest extends Specification {
 
         BostonCream().cook();
         """ | "BostonCream Cook Doughnut Cook"
+        """
+            fun sum(a, b, c) {
+                var d = a + b;
+                {
+                    var e = c;
+                    var a = d + e;
+                    print a;
+                }
+                print a;
+            }
+            var v1 = 1; var v2 = 2; var v3 = 3; var v4 = 4; var v5 = 5;
+            var v6 = 6; var v7 = 7; var v8 = 8; var v9 = 9; var v10 = 10;
+            sum(v1, v2, v10);
+            v9 = v9 + v8;
+            print v9;
+        """ | "13117"
+        """
+            var saved;
+            fun outer() {
+                var a = "a";
+                var b = "b";
+                fun inner() {
+                    print a;
+                    a = a + "!";
+                }
+                saved = inner;
+                {
+                    var c = "c";
+                    print c;
+                }
+            }
+            outer();
+            saved();
+            saved();
+            var count = 0;
+            fun rec(n) {
+                if (n > 0) {
+                    var local = n;
+                    rec(n - 1);
+                    count = count + local;
+                }
+            }
+            rec(10);
+            print count;
+        """ | "caa!55"
+        """
+            var first;
+            var second;
+            {
+                var i = 0;
+                while (i < 2) {
+                    var j = i;
+                    fun show() {
+                        print j;
+                    }
+                    if (i == 0) first = show; else second = show;
+                    i = i + 1;
+                }
+            }
+            first();
+            second();
+            class A {
+                hi() {
+                    print this.n;
+                }
+            }
+            class B < A {
+                init() {
+                    this.n = "!";
+                }
+                hi() {
+                    fun inner() {
+                        super.hi();
+                        print this.n;
+                    }
+                    inner();
+                }
+            }
+            B().hi();
+            fun outer() {
+                var x = "x";
+                fun mid() {
+                    fun deep() {
+                        print x;
+                    }
+                    deep();
+                }
+                mid();
+            }
+            outer();
+        """ | "01!!x"
+        """
+            fun add(a, b) {
+                print a + b;
+            }
+            add(1, 2);
+            add("a", "b");
+            add(3, 4);
+            fun check(c) {
+                if (c) print "y"; else print "n";
+                print -1 * -2;
+            }
+            check(true);
+            check(nil);
+            check(1);
+            check(false);
+        """ | "3ab7y2n2y2n2"
+        """
+            class P {
+                name() { print "m"; }
+            }
+            var a = P();
+            a.x = 1;
+            a.y = 2;
+            var b = P();
+            b.y = 3;
+            b.x = 4;
+            b.x = b.x + a.y;
+            print a.x;
+            print a.y;
+            print b.x;
+            print b.y;
+            a.name = "f";
+            print a.name;
+            b.name();
+        """ | "1263fm"
+        """
+            class A {
+                a() { print "A.a"; }
+                b() { print "A.b"; }
+            }
+            class B < A {
+                b() { print "B.b"; super.b(); }
+                c() { print "B.c"; }
+            }
+            class C < B {
+                a() { print "C.a"; super.a(); }
+                c() { super.c(); }
+            }
+            var c = C();
+            c.a();
+            c.b();
+            c.c();
+            A().b();
+        """ | "C.aA.aB.bA.bB.cA.b"
+        """
+            class Box {
+                init(v) { this.v = v; }
+                show(p) { print p + this.v; }
+            }
+            fun twice(x) { print x + x; }
+            var b = Box("v");
+            b.show("a");
+            var m = b.show;
+            b.v = "w";
+            m("b");
+            b.show = twice;
+            b.show("c");
+            print b.init("u");
+            Box("x").show("d");
+        """ | "avbwccBox(instance)dx"
+        """
+            fun f0() { print "0"; }
+            fun f1(a) { print a; }
+            fun f2(a, b) { print a + b; }
+            fun f3(a, b, c) { print a + b + c; }
+            fun f4(a, b, c, d) { print a + b + c + d; }
+            fun f5(a, b, c, d, e) { print a + b + c + d + e; }
+            class P {
+                init(a, b, c, d, e) { this.s = a + b + c + d + e; }
+                m4(a, b, c, d) { print this.s + a + b + c + d; }
+                m5(a, b, c, d, e) { print this.s + a + b + c + d + e; }
+            }
+            f0(); f1("1"); f2("2", "a"); f3("3", "a", "b");
+            f4("4", "a", "b", "c"); f5("5", "a", "b", "c", "d");
+            var p = P("v", "w", "x", "y", "z");
+            p.m4("1", "2", "3", "4");
+            p.m5("1", "2", "3", "4", "5");
+            print clock() > 0;
+        """ | "012a3ab4abc5abcdvwxyz1234vwxyz12345true"
+        """
+            fun fib(n) {
+                if (n < 2) return n;
+                return fib(n - 1) + fib(n - 2);
+            }
+            print fib(15);
+            fun find(limit) {
+                var i = 0;
+                while (true) {
+                    {
+                        var j = 0;
+                        while (j < limit) {
+                            if (i * j == 12) return i + j;
+                            j = j + 1;
+                        }
+                    }
+                    i = i + 1;
+                }
+                print "unreachable";
+            }
+            print find(5);
+            fun nothing() { return; }
+            print nothing();
+            class A {
+                init(x) {
+                    this.x = x;
+                    if (x) return;
+                    this.x = "late";
+                }
+            }
+            print A(nil).x;
+            print A(1).x;
+            print A(1).init(2) == nil;
+        """ | "6107nillate1false"
+
+    }
+
+    def "test instances with the same field order share a shape"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            class P {}
+            var a = P();
+            a.x = 1;
+            a.y = 2;
+            var b = P();
+            b.x = 3;
+            b.y = 4;
+            var c = P();
+            c.y = 5;
+            c.x = 6;
+            var d = P();
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter interpreter = new LoxInterpreter()
+        interpreter.interpret(statements)
+        def instance = { String name -> interpreter.@globals.cell(name).@value }
+
+        then:
+        instance("a").@shape.is(instance("b").@shape)
+        !instance("a").@shape.is(instance("c").@shape)
+        instance("c").@shape.indexOf(Selector.of("y")) == 0
+        instance("d").@values.length == 2
+    }
+
+    def "test global cells"() {
+        given:
+        def parse = { String source ->
+            List<Statement> statements = new Parser(new Scanner(source).scanTokens()).parse()
+            new Resolver().resolve(statements)
+            statements
+        }
+        def loop = parse("""
+            fun count() {
+                var i = 0;
+                while (i < 3) {
+                    i = i + 1;
+                    step(i);
+                }
+            }
+            fun step(i) {
+                total = total + i;
+            }
+            var total = 0;
+            count();
+            print total;
+        """)
+
+        when:
+        LoxInterpreter first = new LoxInterpreter()
+        first.interpret(loop)
+        first.interpret(parse("print total + 1;"))
+        LoxInterpreter second = new LoxInterpreter()
+        second.interpret(loop)
+
+        then:
+        first.getPrint() == "67"
+        second.getPrint() == "6"
+    }
+
+    def "test blocks without declarations have no scope"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            for (var i = 0; i < 3; i = i + 1) {
+                print i;
+            }
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        BlockStatement outer = (BlockStatement) statements[0]
+        BlockStatement body = (BlockStatement) ((WhileStatement) outer.getStatements()[1]).getBody()
+        LoxInterpreter interpreter = new LoxInterpreter()
+        interpreter.interpret(statements)
+
+        then:
+        outer.isScoped()
+        !body.isScoped()
+        !((BlockStatement) body.getStatements()[0]).isScoped()
+        interpreter.getPrint() == "012"
+    }
+
+    def "test call site cache checks callees it has not seen"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            fun one(a) { print a; }
+            class A { init(a) { print "A" + a; } }
+            class B {}
+            fun call(f, a) { f(a); }
+            call(one, "1");
+            call(A, "2");
+            call(one, "3");
+            fun a(x) { print "a"; }
+            fun b(x) { print "b"; }
+            fun c(x) { print "c"; }
+            call(a, 0);
+            call(b, 0);
+            call(c, 0);
+            call(one, "4");
+            call(B, "5");
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter interpreter = new LoxInterpreter()
+        interpreter.interpret(statements)
+
+        then:
+        interpreter.getPrint() == "1A23abc4"
+    }
+
+    def "test tail calls run in constant stack"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            fun count(n, acc) {
+                if (n == 0) return acc;
+                return count(n - 1, acc + 1);
+            }
+            fun isEven(n) {
+                if (n == 0) return true;
+                return isOdd(n - 1);
+            }
+            fun isOdd(n) {
+                if (n == 0) return false;
+                return isEven(n - 1);
+            }
+            class Counter {
+                init() { this.n = 0; }
+                loop(k) {
+                    if (k == 0) return this.n;
+                    this.n = this.n + 1;
+                    return this.loop(k - 1);
+                }
+            }
+            print count(300000, 0);
+            print isEven(300001);
+            print Counter().loop(300000);
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter interpreter = new LoxInterpreter()
+        interpreter.interpret(statements)
+        LoxInterpreter jit = new LoxInterpreter(2)
+        jit.interpret(statements)
+
+        then:
+        interpreter.getPrint() == "300000false300000"
+        jit.getPrint() == "300000false300000"
+    }
+
+    def "test jit compiles functions ending in tail calls"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            fun sq(x) { return x * x; }
+            fun wrap(x) { return sq(x); }
+            fun count(n, acc) {
+                if (n == 0) return acc;
+                return count(n - 1, acc + 1);
+            }
+            fun isEven(n) {
+                if (n == 0) return true;
+                return isOdd(n - 1);
+            }
+            fun isOdd(n) {
+                if (n == 0) return false;
+                return isEven(n - 1);
+            }
+            print wrap(3);
+            print wrap(4);
+            print count(300000, 0);
+            fun retype(n, x) {
+                if (n == 0) return x;
+                return retype(n - 1, "s");
+            }
+            print retype(2, 1);
+            print retype(2, 1);
+            print retype(2, 1);
+            print isEven(300001);
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter jit = new LoxInterpreter(2)
+        jit.interpret(statements)
+
+        then:
+        jit.getPrint() == "916300000sssfalse"
+        statements[1].profile.@code != null
+        statements[2].profile.@code != null
+        statements[3].profile.@code != null
+    }
+
+    def "test local function refers to itself"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner(source).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter interpreter = new LoxInterpreter()
+        interpreter.interpret(statements)
+        ClosureEngine closure = new ClosureEngine()
+        closure.interpret(statements)
+        VirtualMachine vm = new VirtualMachine()
+        vm.interpret(statements)
+        LoxInterpreter jit = new LoxInterpreter(1)
+        jit.interpret(statements)
+
+        then:
+        interpreter.getPrint() == result
+        closure.getPrint() == result
+        vm.getPrint() == result
+        jit.getPrint() == result
+
+        where:
+        source | result
+        """
+            fun outer() {
+                fun inner(n) {
+                    print n;
+                    if (n > 0) inner(n - 1);
+                }
+                inner(2);
+            }
+            outer();
+        """    | "210"
+        """
+            fun make() {
+                var n = 0;
+                fun self() {
+                    n = n + 1;
+                    if (n < 3) return self();
+                    return self;
+                }
+                return self;
+            }
+            var f = make();
+            print f() == f;
+        """    | "true"
+    }
+
+    def "test unbounded recursion is a runtime error"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            fun down(n) {
+                return 1 + down(n + 1);
+            }
+            print "before";
+            print down(0);
+            print "after";
+        """).scanTokens()).parse()
+        new Resolver().resolve(statements)
+
+        when:
+        Lox.@hadRuntimeError = false
+        engine.interpret(statements)
+
+        then:
+        engine.getPrint() == "before"
+        Lox.@hadRuntimeError
+
+        cleanup:
+        Lox.@hadRuntimeError = false
+
+        where:
+        engine << [new ClosureEngine(), new VirtualMachine()]
+    }
+
+    def "test vm calls do not use the java stack"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            fun down(n) {
+                if (n == 0) return 0;
+                return 1 + down(n - 1);
+            }
+            print down(50000);
+            class C {
+                init(x) { this.x = x; }
+                get() { return this.x; }
+            }
+            fun make(n) {
+                if (n == 0) return C(0);
+                return C(make(n - 1).get() + 1);
+            }
+            print make(20000).get();
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        VirtualMachine vm = new VirtualMachine()
+        vm.interpret(statements)
+
+        then:
+        vm.getPrint() == "5000020000"
+    }
+
+    def "test jit deoptimizes when a number parameter changes type"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            fun add(a, b) {
+                print a + b;
+            }
+            add(1, 2);
+            add(3, 4);
+            add("a", "b");
+            add(5, 6);
+            fun count(n) {
+                var i = 0;
+                while (i < n) {
+                    i = i + 1;
+                }
+                print i;
+            }
+            count(2);
+            count(2);
+            count(nil);
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter interpreter = new LoxInterpreter(2)
+        interpreter.interpret(statements)
+
+        then:
+        interpreter.getPrint() == "37ab1122"
+    }
+
+    def "test jit replaces a running top level loop"() {
+        given:
+        List<Statement> statements = new Parser(new Scanner("""
+            var total = 0;
+            for (var i = 0; i < 10; i = i + 1) {
+                total = total + i;
+            }
+            print total;
+            {
+                var s = "a";
+                var n = 0;
+                while (n < 5) {
+                    var b = "b";
+                    s = s + b;
+                    n = n + 1;
+                }
+                print s;
+                print n;
+                while (n != "done") {
+                    n = n + 1;
+                    if (n == 7) n = "done";
+                }
+                print n;
+            }
+        """).scanTokens()).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter interpreter = new LoxInterpreter(2)
+        interpreter.interpret(statements)
+
+        then:
+        interpreter.getPrint() == "45abbbbb5done"
+    }
+
+    def "test lazy function body"() {
+        given:
+        def tokens = new BufferTokenSource(new Scanner(source).scanBuffer())
+        List<Statement> statements = new Parser(tokens, true).parse()
 
+        when:
+        LoxInterpreter interpreter = new LoxInterpreter()
+        new Resolver().resolve(statements)
+        interpreter.interpret(statements)
+        ClosureEngine closure = new ClosureEngine()
+        closure.interpret(statements)
+        VirtualMachine vm = new VirtualMachine()
+        vm.interpret(statements)
+        LoxInterpreter jit = new LoxInterpreter(1)
+        jit.interpret(statements)
+
+        then:
+        interpreter.getPrint() == result
+        closure.getPrint() == result
+        vm.getPrint() == result
+        jit.getPrint() == result
+
+        where:
+        source | result
+        """
+            fun outer() {
+                var i = 0;
+                fun count() {
+                    i = i + 1;
+                    print i;
+                }
+                count();
+                count();
+            }
+            outer();
+        """    | "12"
+        """
+            var a = "global";
+            {
+                fun showA() {
+                    print a;
+                }
+                showA();
+                var a = "block";
+                showA();
+            }
+        """    | "globalglobal"
+        """
+            class A {
+                name() {
+                    if (true) { print "A"; }
+                }
+            }
+            class B < A {
+                name() {
+                    super.name();
+                    print "B";
+                }
+            }
+            B().name();
+        """    | "AB"
+        """
+            fun never() {
+                print ;
+            }
+            print "ok";
+        """    | "ok"
+    }
+
+    def "test lazy function body from a streamed source"() {
+        given:
+        def tokens = new ScannerTokenSource(new Scanner(CharSource.of(new StringReader(source))))
+        List<Statement> statements = new Parser(tokens, true).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        LoxInterpreter interpreter = new LoxInterpreter()
+        interpreter.interpret(statements)
+
+        then:
+        interpreter.getPrint() == result
+
+        where:
+        source | result
+        """
+            fun greet(name) {
+                var s = "hi " + name;
+                fun twice(n) { return n * 2; }
+                print s;
+                print twice(1.5);
+            }
+            fun never() { print "never"; }
+            greet("lox");
+        """    | "hi lox3"
+    }
+
+    def "test lazy function body run first by the closure engine"() {
+        given:
+        def tokens = new BufferTokenSource(new Scanner(source).scanBuffer())
+        List<Statement> statements = new Parser(tokens, true).parse()
+
+        when:
+        new Resolver().resolve(statements)
+        ClosureEngine closure = new ClosureEngine()
+        closure.interpret(statements)
+
+        then:
+        closure.getPrint() == result
+
+        where:
+        source | result
+        """
+            fun add(a, b) {
+                var sum = a + b;
+                return sum;
+            }
+            print add(1, 2);
+        """    | "3"
+        """
+            fun counter(start) {
+                var i = start;
+                fun next() {
+                    i = i + 1;
+                    return i;
+                }
+                return next;
+            }
+            var c = counter(10);
+            c();
+            print c();
+        """    | "12"
+        """
+            class Point {
+                init(x, y) {
+                    this.x = x;
+                    this.y = y;
+                }
+                sum() { return this.x + this.y; }
+            }
+            print Point(3, 4).sum();
+        """    | "7"
     }
 }
@@ -1,9 +1,14 @@
 package com.cc.loc.scanner
 
 import com.cc.lox.scanner.Scanner
+import com.cc.lox.scanner.source.CharSource
+import com.cc.lox.scanner.type.TokenType
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.nio.CharBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
 import java.util.stream.Collectors
 /**
  * @author cc
@@ -26,5 +31,59 @@ class ScannerTest extends Specification {
         """var a = 1.11 """     | ["var", "a", "=", "1.11", ""]
         """var b = "1.11" """   | ["var", "b", "=", "\"1.11\"", ""]
         """fun foo(var a) {}""" | ["fun", "foo", "(", "var", "a", ")", "{", "}", ""]
+        """a<=b!=!c//x\n/d"""   | ["a", "<=", "b", "!=", "!", "c", "/", "d", ""]
+    }
+
+    @Unroll
+    def "test token type #source #result"() {
+        given:
+        def target = new Scanner(source)
+
+        when:
+        def res = target.scanTokens().stream().map { a -> a.getType() }.collect(Collectors.toList())
+        then:
+        res == result
+
+        where:
+        source                 | result
+        """or orchid classy""" | [TokenType.OR, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.EOF]
+        """while whilE _this""" | [TokenType.WHILE, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.EOF]
+        """this 1.5.x"""       | [TokenType.THIS, TokenType.NUMBER, TokenType.DOT, TokenType.IDENTIFIER, TokenType.EOF]
+    }
+
+    def "test streaming sources"() {
+        given:
+        def source = (1..2000).collect { i -> "var a$i = \"s$i\" + $i.5; // c$i\n" }.join()
+        def file = Files.createTempFile("lox", ".lox")
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8))
+        def expected = new Scanner(source).scanTokens().collect { t -> [t.getType(), t.getLexeme(), t.getLiteral(), t.getLine()] }
+
+        when:
+        def fromReader = new Scanner(CharSource.of(new StringReader(source))).scanTokens()
+        def fromBuffer = new Scanner(CharSource.of(CharBuffer.wrap(source))).scanTokens()
+        def fromMapped = new Scanner(CharSource.map(file, StandardCharsets.UTF_8)).scanTokens()
+
+        then:
+        fromReader.collect { t -> [t.getType(), t.getLexeme(), t.getLiteral(), t.getLine()] } == expected
+        fromBuffer.collect { t -> [t.getType(), t.getLexeme(), t.getLiteral(), t.getLine()] } == expected
+        fromMapped.collect { t -> [t.getType(), t.getLexeme(), t.getLiteral(), t.getLine()] } == expected
+
+        cleanup:
+        Files.deleteIfExists(file)
+    }
+
+    def "test token buffer"() {
+        given:
+        def source = """var foo = "bar"; foo = foo + 1.5;\nprint "bar" + foo;"""
+        def expected = new Scanner(source).scanTokens().collect { t -> [t.getType(), t.getLexeme(), t.getLiteral(), t.getLine()] }
+
+        when:
+        def buffer = new Scanner(source).scanBuffer()
+        def res = (0..<buffer.size()).collect { i -> buffer.token(i) }
+
+        then:
+        res.collect { t -> [t.getType(), t.getLexeme(), t.getLiteral(), t.getLine()] } == expected
+        buffer.lexeme(1).is(buffer.lexeme(5))
+        buffer.literal(3).is(buffer.literal(12))
     }
 }
@@ -0,0 +1,100 @@
+package com.cc.loc.serialize
+
+import com.cc.lox.interpreter.LoxInterpreter
+import com.cc.lox.parser.Parser
+import com.cc.lox.resolve.Resolver
+import com.cc.lox.scanner.Scanner
+import com.cc.lox.serialize.AstReader
+import com.cc.lox.serialize.AstWriter
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+/**
+ * @author cc
+ * @date 2023/10/25
+ */
+class AstSerializeTest extends Specification {
+
+    def "test write and read back"() {
+        given:
+        def statements = new Parser(new Scanner(source).scanTokens()).parse()
+        new Resolver().resolve(statements)
+        def bytes = new AstWriter().write(statements)
+
+        when:
+        def compiled = new AstReader(ByteBuffer.wrap(bytes)).read()
+        LoxInterpreter interpreter = new LoxInterpreter()
+        interpreter.interpret(compiled.getStatements())
+
+        then:
+        interpreter.getPrint() == result
+        compiled.getStatements().size() == statements.size()
+
+        where:
+        source | result
+        """
+            var a = "x";
+            {
+                var a = a + "y";
+                print a;
+            }
+            print !nil and 1 <= 2;
+        """    | "xytrue"
+        """
+            class Doughnut {
+                init(kind) {
+                    this.kind = kind;
+                }
+                cook() {
+                    print this.kind;
+                }
+            }
+
+            class BostonCream < Doughnut {
+                cook() {
+                    print "BostonCream ";
+                    super.cook();
+                }
+            }
+
+            var i = 0;
+            while (i < 2) {
+                BostonCream("cream" + "!").cook();
+                i = i + 1;
+            }
+        """    | "BostonCream cream!BostonCream cream!"
+    }
+
+    def "test reject unknown file"() {
+        when:
+        new AstReader(ByteBuffer.wrap("LOXX".getBytes())).read()
+
+        then:
+        thrown(IOException)
+    }
+
+    def "test reject corrupt string table"() {
+        given:
+        // 合法文件的 magic 和版本号, 后面接一个损坏的字符串表
+        List<Integer> header = new AstWriter().write([]).toList().subList(0, 6)
+        byte[] bytes = (header + [1] + table) as byte[]
+
+        when:
+        new AstReader(ByteBuffer.wrap(bytes)).read()
+
+        then:
+        IOException e = thrown()
+        e.message == "corrupt string table"
+
+        where:
+        table << [
+                // 长度 2^31 - 1
+                [0xFF, 0xFF, 0xFF, 0xFF, 0x07],
+                // 长度 -1
+                [0xFF, 0xFF, 0xFF, 0xFF, 0x0F],
+                // 比剩下的字节多
+                [5, 0x61]
+        ]
+    }
+}